@@ -0,0 +1,68 @@
+package org.UlGTU.benchmarks;
+
+import java.util.SplittableRandom;
+
+/** How benchmark threads pick keys out of a map holding the keys 0..size-1. */
+public enum KeyDistribution {
+    UNIFORM {
+        @Override
+        int[] sample(int size, int count, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] sample = new int[count];
+            for (int i = 0; i < count; i++) {
+                sample[i] = random.nextInt(size);
+            }
+            return sample;
+        }
+    },
+    /**
+     * Zipfian with skew 0.99, as in YCSB: a few hot keys take most of the accesses. Ranks are
+     * scattered over the key space by a shuffle, so that hot keys do not sit next to each
+     * other; its seed is fixed, so every thread of a trial finds the same keys hot.
+     */
+    ZIPFIAN {
+        private static final double THETA = 0.99;
+        private static final long SCATTER_SEED = 0x5DEECE66DL;
+
+        @Override
+        int[] sample(int size, int count, long seed) {
+            double zetaN = 0;
+            for (int i = 1; i <= size; i++) {
+                zetaN += 1 / Math.pow(i, THETA);
+            }
+            double zeta2 = 1 + 1 / Math.pow(2, THETA);
+            double alpha = 1 / (1 - THETA);
+            double eta = (1 - Math.pow(2.0 / size, 1 - THETA)) / (1 - zeta2 / zetaN);
+            int[] keyOfRank = new int[size];
+            for (int i = 0; i < size; i++) {
+                keyOfRank[i] = i;
+            }
+            SplittableRandom scatter = new SplittableRandom(SCATTER_SEED);
+            for (int i = size - 1; i > 0; i--) {
+                int j = scatter.nextInt(i + 1);
+                int key = keyOfRank[i];
+                keyOfRank[i] = keyOfRank[j];
+                keyOfRank[j] = key;
+            }
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] sample = new int[count];
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                long rank;
+                if (uz < 1) {
+                    rank = 0;
+                } else if (uz < zeta2) {
+                    rank = 1;
+                } else {
+                    rank = (long) (size * Math.pow(eta * u - eta + 1, alpha));
+                }
+                sample[i] = keyOfRank[(int) Math.min(rank, size - 1)];
+            }
+            return sample;
+        }
+    };
+
+    /** Returns count key indices in [0, size) drawn from this distribution. */
+    abstract int[] sample(int size, int count, long seed);
+}
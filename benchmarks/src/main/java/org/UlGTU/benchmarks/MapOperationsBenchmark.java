@@ -0,0 +1,111 @@
+package org.UlGTU.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single operations against a map holding the keys 0..size-1. Writes keep the key set
+ * unchanged, so the map stays at its initial size for the whole run. Run with
+ * {@code -t N} to measure N threads at once; the unsynchronized HashMap baseline refuses to
+ * run the writing benchmarks with more than one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapOperationsBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"DARVIN_CHAINED", "DARVIN_LINEAR_PROBING", "DARVIN_ROBIN_HOOD",
+            "HASH_MAP", "CONCURRENT_HASH_MAP", "SYNCHRONIZED_MAP"})
+    MapType mapType;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    Map<Integer, Integer> map;
+    // Boxed once so that the benchmarks measure the map rather than Integer.valueOf.
+    Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) {
+        if (!mapType.threadSafe && params.getThreads() > 1 && !params.getBenchmark().endsWith(".get")
+                && !params.getBenchmark().endsWith(".iterate")) {
+            throw new IllegalStateException(mapType + " is not thread-safe; run it with one thread");
+        }
+        map = mapType.create(size);
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        int[] sample;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(MapOperationsBenchmark benchmark, ThreadParams thread) {
+            sample = benchmark.distribution.sample(benchmark.size, SAMPLE_SIZE, thread.getThreadIndex());
+        }
+
+        Integer next(Integer[] keys) {
+            return keys[sample[next++ & (SAMPLE_SIZE - 1)]];
+        }
+    }
+
+    @Benchmark
+    public Integer get(Keys keys) {
+        return map.get(keys.next(this.keys));
+    }
+
+    @Benchmark
+    public Integer put(Keys keys) {
+        Integer key = keys.next(this.keys);
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Integer removeAndPut(Keys keys) {
+        Integer key = keys.next(this.keys);
+        map.remove(key);
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Integer compute(Keys keys) {
+        return map.compute(keys.next(this.keys), (k, v) -> v == null ? k : v + 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void iterate(Blackhole blackhole) {
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            blackhole.consume(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.UlGTU.benchmarks;
+
+import org.UlGTU.DarvinHashMap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The maps under test: each DarvinHashMap storage layout and the JDK baselines. */
+public enum MapType {
+    DARVIN_CHAINED(true) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return new DarvinHashMap<>(capacity, 0.75f, DarvinHashMap.Storage.CHAINED);
+        }
+    },
+    DARVIN_LINEAR_PROBING(true) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return new DarvinHashMap<>(capacity, 0.75f, DarvinHashMap.Storage.LINEAR_PROBING);
+        }
+    },
+    DARVIN_ROBIN_HOOD(true) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return new DarvinHashMap<>(capacity, 0.75f, DarvinHashMap.Storage.ROBIN_HOOD);
+        }
+    },
+    HASH_MAP(false) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return new HashMap<>(capacity);
+        }
+    },
+    CONCURRENT_HASH_MAP(true) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return new ConcurrentHashMap<>(capacity);
+        }
+    },
+    SYNCHRONIZED_MAP(true) {
+        @Override
+        <K, V> Map<K, V> create(int capacity) {
+            return Collections.synchronizedMap(new HashMap<>(capacity));
+        }
+    };
+
+    final boolean threadSafe;
+
+    MapType(boolean threadSafe) {
+        this.threadSafe = threadSafe;
+    }
+
+    abstract <K, V> Map<K, V> create(int capacity);
+}
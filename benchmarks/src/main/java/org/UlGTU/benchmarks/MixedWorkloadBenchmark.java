@@ -0,0 +1,90 @@
+package org.UlGTU.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread runs the same mix of gets and puts over a map of the keys 0..size-1. Thread
+ * counts are set with {@code -t}, or swept from 1 to the number of processors by
+ * {@link ScalingRunner}. Writes overwrite existing keys, so the size stays fixed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({"DARVIN_CHAINED", "DARVIN_LINEAR_PROBING", "DARVIN_ROBIN_HOOD",
+            "HASH_MAP", "CONCURRENT_HASH_MAP", "SYNCHRONIZED_MAP"})
+    MapType mapType;
+
+    @Param({"100000"})
+    int size;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    /** Share of operations that are reads, in percent. */
+    @Param({"100", "90", "50"})
+    int readPercent;
+
+    Map<Integer, Integer> map;
+    Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) {
+        if (!mapType.threadSafe && params.getThreads() > 1 && readPercent < 100) {
+            throw new IllegalStateException(mapType + " is not thread-safe; run it with one thread");
+        }
+        map = mapType.create(size);
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Operations {
+        int[] sample;
+        // Decided up front so that the random draw is not part of the measurement.
+        boolean[] reads;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(MixedWorkloadBenchmark benchmark, ThreadParams thread) {
+            sample = benchmark.distribution.sample(benchmark.size, SAMPLE_SIZE, thread.getThreadIndex());
+            SplittableRandom random = new SplittableRandom(~thread.getThreadIndex());
+            reads = new boolean[SAMPLE_SIZE];
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                reads[i] = random.nextInt(100) < benchmark.readPercent;
+            }
+        }
+    }
+
+    @Benchmark
+    public Integer operation(Operations operations) {
+        int i = operations.next++ & (SAMPLE_SIZE - 1);
+        Integer key = keys[operations.sample[i]];
+        return operations.reads[i] ? map.get(key) : map.put(key, key);
+    }
+}
@@ -0,0 +1,50 @@
+package org.UlGTU.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link MixedWorkloadBenchmark} at 1, 2, 4, ... threads up to the number of
+ * processors, so the results show how each map scales. Other JMH options, such as
+ * {@code -p mapType=DARVIN_CHAINED,CONCURRENT_HASH_MAP} or {@code -rf json}, are passed
+ * through:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.UlGTU.benchmarks.ScalingRunner [JMH options]
+ * </pre>
+ * The HashMap baseline is left out above one thread unless the mix is read-only.
+ */
+public final class ScalingRunner {
+
+    private ScalingRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .include(MixedWorkloadBenchmark.class.getSimpleName())
+                    .threads(threads);
+            if (threads == 1) {
+                new Runner(options.build()).run();
+            } else {
+                new Runner(new OptionsBuilder().parent(options.build())
+                        .param("mapType", "HASH_MAP")
+                        .param("readPercent", "100")
+                        .build()).run();
+                new Runner(new OptionsBuilder().parent(options.build())
+                        .param("mapType", "DARVIN_CHAINED", "DARVIN_LINEAR_PROBING", "DARVIN_ROBIN_HOOD",
+                                "CONCURRENT_HASH_MAP", "SYNCHRONIZED_MAP")
+                        .build()).run();
+            }
+            if (threads == processors) {
+                return;
+            }
+        }
+    }
+}
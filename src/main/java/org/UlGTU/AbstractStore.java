@@ -0,0 +1,264 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Storage engine behind a {@link DarvinHashMap}. Engines own their locking; every mutation
+ * is a single {@link #mutate} call that finds the key once and applies one of the operation
+ * codes below to it.
+ */
+abstract class AbstractStore<K, V> {
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    // Lock stripes per store unless the builder says otherwise: a few per core, so that
+    // writers on different keys rarely meet, but never so many that small maps get costly.
+    static final int DEFAULT_CONCURRENCY_LEVEL = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    static final int PUT = 0;
+    static final int PUT_IF_ABSENT = 1;
+    static final int REPLACE = 2;
+    static final int REPLACE_IF_EQUAL = 3;
+    static final int REMOVE = 4;
+    static final int REMOVE_IF_EQUAL = 5;
+    // Operations from here on return the new value instead of the old one.
+    static final int COMPUTE_IF_ABSENT = 6;
+    static final int COMPUTE_IF_PRESENT = 7;
+    static final int COMPUTE = 8;
+    static final int MERGE = 9;
+    // Adds the Long in arg to a Long value, treating an absent value as 0.
+    static final int ADD_TO = 10;
+
+    // Chain length histograms lump every length from the last slot on into it.
+    static final int HISTOGRAM_LENGTH = 16;
+
+    // Set before the map is published when it records stats; null otherwise.
+    StatsCounter stats;
+    // Set before the map is published when this store holds the map's values directly, as
+    // opposed to a decorator's nodes; null otherwise. Engines pass every change to all of
+    // them through recordChange.
+    ContentDigest digest;
+    WriteAheadLog<K, V> log;
+    ChangeFeed<K, V> feed;
+    ValueIndex<K, V> valueIndex;
+
+    /** Creates one lock stripe of the given kind; monitor locking needs no lock object. */
+    static ReadWriteLock newLock(DarvinHashMap.Locking locking) {
+        return locking == DarvinHashMap.Locking.STAMPED ? new StampedLock().asReadWriteLock() : new ReentrantReadWriteLock();
+    }
+
+    static int tableSizeFor(long capacity) {
+        int n = 1;
+        while (n < capacity && n < MAXIMUM_CAPACITY) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the value the key should map to after applying op, given its current value
+     * (null when absent). A null result removes the mapping; returning oldValue itself
+     * leaves the entry untouched.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> V remap(int op, K key, V oldValue, V value, Object arg) {
+        switch (op) {
+            case PUT:
+                return value;
+            case PUT_IF_ABSENT:
+                return oldValue != null ? oldValue : value;
+            case REPLACE:
+                return oldValue != null ? value : null;
+            case REPLACE_IF_EQUAL:
+                return oldValue != null && oldValue.equals(arg) ? value : oldValue;
+            case REMOVE:
+                return null;
+            case REMOVE_IF_EQUAL:
+                return oldValue != null && oldValue.equals(value) ? null : oldValue;
+            case COMPUTE_IF_ABSENT:
+                return oldValue != null ? oldValue : ((Function<? super K, ? extends V>) arg).apply(key);
+            case COMPUTE_IF_PRESENT:
+                return oldValue != null
+                        ? ((BiFunction<? super K, ? super V, ? extends V>) arg).apply(key, oldValue) : null;
+            case COMPUTE:
+                return ((BiFunction<? super K, ? super V, ? extends V>) arg).apply(key, oldValue);
+            case MERGE:
+                return oldValue == null
+                        ? value : ((BiFunction<? super V, ? super V, ? extends V>) arg).apply(oldValue, value);
+            case ADD_TO:
+                return oldValue == null ? (V) arg : (V) Long.valueOf((Long) oldValue + (Long) arg);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + op);
+        }
+    }
+
+    static boolean returnsNewValue(int op) {
+        return op >= COMPUTE_IF_ABSENT;
+    }
+
+    /**
+     * Whether op runs a function of the caller's, which may write to the map itself while
+     * the engine holds the lock of the key, so that whatever position the engine found for
+     * the key beforehand may be stale once the function returns.
+     */
+    static boolean callsFunction(int op) {
+        return op >= COMPUTE_IF_ABSENT && op <= MERGE;
+    }
+
+    abstract V get(int hash, Object key);
+
+    /**
+     * Applies op to the mapping of key atomically. Returns the new value for the compute and
+     * merge operations and the previous value (null if absent) for all others.
+     */
+    abstract V mutate(int op, int hash, K key, V value, Object arg);
+
+    /**
+     * Applies op to n keys, storing each result in results when it is not null; values may be
+     * null when op takes none. Engines override this to take each lock once per batch.
+     */
+    @SuppressWarnings("unchecked")
+    void mutateAll(int op, int[] hashes, Object[] keys, Object[] values, Object[] results, int n) {
+        for (int i = 0; i < n; i++) {
+            V r = mutate(op, hashes[i], (K) keys[i], values == null ? null : (V) values[i], null);
+            if (results != null) {
+                results[i] = r;
+            }
+        }
+    }
+
+    /** Looks up n keys, storing each value (or null) in results. */
+    void getAll(int[] hashes, Object[] keys, Object[] results, int n) {
+        for (int i = 0; i < n; i++) {
+            results[i] = get(hashes[i], keys[i]);
+        }
+    }
+
+    /** Grows the store ahead of time so that it can hold mappings without resizing. */
+    void ensureCapacity(long mappings) {
+    }
+
+    /** Runs pending maintenance, such as purging expired entries, right away. */
+    void cleanUp() {
+    }
+
+    /** Starts recording lock statistics into stats. Decorating stores pass it on. */
+    void recordStats(StatsCounter stats) {
+        this.stats = stats;
+    }
+
+    /** Takes a stripe lock, through the stats counter when the map records stats. */
+    final void lock(Lock lock, int stripe) {
+        StatsCounter s = stats;
+        if (s == null) {
+            lock.lock();
+        } else {
+            s.lock(lock, stripe);
+        }
+    }
+
+    /** Whether engines must call recordChange, so that they can skip collecting changes. */
+    final boolean recordsChanges() {
+        return digest != null || log != null || feed != null || valueIndex != null;
+    }
+
+    /**
+     * Called by engines under the lock of every mapping they change, with null for an
+     * absent value, before the lock is released, so that observers see the changes to one
+     * key in the order they were made.
+     */
+    final void recordChange(K key, V oldValue, V newValue) {
+        if (oldValue == newValue) {
+            return;
+        }
+        if (digest != null) {
+            digest.update(key, oldValue, newValue);
+        }
+        if (valueIndex != null) {
+            valueIndex.update(key, oldValue, newValue);
+        }
+        if (log != null) {
+            log.append(key, newValue);
+        }
+        if (feed != null) {
+            feed.publish(key, oldValue, newValue);
+        }
+    }
+
+    /**
+     * Returns a read-only store holding the mappings of this one as they are now, in time
+     * independent of the size of the store.
+     */
+    AbstractStore<K, V> snapshot() {
+        throw new UnsupportedOperationException("Only chained maps without a bound or expiry take snapshots");
+    }
+
+    /** Returns how many times the table, or one of its segments, has grown. */
+    long resizeCount() {
+        return 0;
+    }
+
+    /**
+     * Returns how many buckets hold each number of entries, for chained tables, or how many
+     * entries sit each number of probes from their home slot, for open addressing, with
+     * empty buckets or slots in slot 0. Weakly consistent, like a cursor.
+     */
+    long[] chainLengthHistogram() {
+        return new long[HISTOGRAM_LENGTH];
+    }
+
+    /**
+     * Orders the indices 0..n-1 by the lock their hash maps to under mask, returning them as
+     * stripe << 32 | index so that a batch can take each lock once.
+     */
+    static long[] groupByStripe(int[] hashes, int n, int mask) {
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) (hashes[i] & mask) << 32) | i;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    abstract long mappingCount();
+
+    abstract void clear();
+
+    /** Visits every mapping until visitor returns true; returns whether it did. */
+    abstract boolean scan(BiPredicate<? super K, ? super V> visitor);
+
+    abstract void replaceAll(BiFunction<? super K, ? super V, ? extends V> function);
+
+    /**
+     * Returns a cursor over all mappings. It returns no key twice, and every mapping present
+     * for the whole walk once, however writers move entries meanwhile; the key and entry
+     * views report DISTINCT on that promise.
+     */
+    abstract Cursor<K, V> cursor();
+
+    /**
+     * Walks the mappings in place using O(1) memory. Cursors are weakly consistent: they
+     * never throw ConcurrentModificationException and may or may not see updates made after
+     * they were created.
+     */
+    abstract static class Cursor<K, V> {
+        K key;
+        V value;
+
+        /** Moves to the next mapping and returns true, or returns false at the end. */
+        abstract boolean advance();
+
+        /**
+         * Hands roughly half of the mappings not yet visited to a new cursor, or returns null
+         * if the remaining part cannot be split.
+         */
+        Cursor<K, V> split() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.UlGTU;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A bulk operation over part of a store, run on a ForkJoinPool. Before walking its own
+ * cursor a task splits it up to log2(batch) times and forks a subtask for every split-off
+ * part, then joins them and folds their results into its own. Tasks are Serializable only
+ * through ForkJoinTask and are never serialized.
+ */
+@SuppressWarnings("serial")
+abstract class BulkTask<K, V> extends RecursiveAction {
+    final AbstractStore.Cursor<K, V> cursor;
+    private final int batch;
+    // Links the subtasks forked by the same parent.
+    private BulkTask<K, V> sibling;
+
+    BulkTask(AbstractStore.Cursor<K, V> cursor, int batch) {
+        this.cursor = cursor;
+        this.batch = batch;
+    }
+
+    abstract BulkTask<K, V> subtask(AbstractStore.Cursor<K, V> part, int batch);
+
+    abstract void process();
+
+    void merge(BulkTask<K, V> subtask) {
+    }
+
+    @Override
+    protected final void compute() {
+        BulkTask<K, V> forked = null;
+        AbstractStore.Cursor<K, V> part;
+        for (int b = batch; b > 0 && (part = cursor.split()) != null; ) {
+            BulkTask<K, V> task = subtask(part, b >>>= 1);
+            task.sibling = forked;
+            forked = task;
+            task.fork();
+        }
+        process();
+        for (BulkTask<K, V> task = forked; task != null; task = task.sibling) {
+            task.join();
+            merge(task);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEach<K, V> extends BulkTask<K, V> {
+        private final BiConsumer<? super K, ? super V> action;
+
+        ForEach(AbstractStore.Cursor<K, V> cursor, int batch, BiConsumer<? super K, ? super V> action) {
+            super(cursor, batch);
+            this.action = action;
+        }
+
+        @Override
+        BulkTask<K, V> subtask(AbstractStore.Cursor<K, V> part, int batch) {
+            return new ForEach<>(part, batch, action);
+        }
+
+        @Override
+        void process() {
+            while (cursor.advance()) {
+                action.accept(cursor.key, cursor.value);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class Search<K, V, U> extends BulkTask<K, V> {
+        private final BiFunction<? super K, ? super V, ? extends U> function;
+        // Shared by every task of one search so that all of them stop at the first hit.
+        final AtomicReference<U> result;
+
+        Search(AbstractStore.Cursor<K, V> cursor, int batch, BiFunction<? super K, ? super V, ? extends U> function,
+               AtomicReference<U> result) {
+            super(cursor, batch);
+            this.function = function;
+            this.result = result;
+        }
+
+        @Override
+        BulkTask<K, V> subtask(AbstractStore.Cursor<K, V> part, int batch) {
+            return new Search<>(part, batch, function, result);
+        }
+
+        @Override
+        void process() {
+            while (result.get() == null && cursor.advance()) {
+                U u = function.apply(cursor.key, cursor.value);
+                if (u != null) {
+                    result.compareAndSet(null, u);
+                    return;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceValues<K, V> extends BulkTask<K, V> {
+        private final BiFunction<? super V, ? super V, ? extends V> reducer;
+        V result;
+
+        ReduceValues(AbstractStore.Cursor<K, V> cursor, int batch, BiFunction<? super V, ? super V, ? extends V> reducer) {
+            super(cursor, batch);
+            this.reducer = reducer;
+        }
+
+        @Override
+        BulkTask<K, V> subtask(AbstractStore.Cursor<K, V> part, int batch) {
+            return new ReduceValues<>(part, batch, reducer);
+        }
+
+        @Override
+        void process() {
+            V r = null;
+            while (cursor.advance()) {
+                r = r == null ? cursor.value : reducer.apply(r, cursor.value);
+            }
+            result = r;
+        }
+
+        @Override
+        void merge(BulkTask<K, V> subtask) {
+            V other = ((ReduceValues<K, V>) subtask).result;
+            if (other != null) {
+                result = result == null ? other : reducer.apply(result, other);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceToLong<K, V> extends BulkTask<K, V> {
+        private final ToLongBiFunction<? super K, ? super V> transformer;
+        private final long basis;
+        private final LongBinaryOperator reducer;
+        long result;
+
+        ReduceToLong(AbstractStore.Cursor<K, V> cursor, int batch, ToLongBiFunction<? super K, ? super V> transformer,
+                     long basis, LongBinaryOperator reducer) {
+            super(cursor, batch);
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        @Override
+        BulkTask<K, V> subtask(AbstractStore.Cursor<K, V> part, int batch) {
+            return new ReduceToLong<>(part, batch, transformer, basis, reducer);
+        }
+
+        @Override
+        void process() {
+            long r = basis;
+            while (cursor.advance()) {
+                r = reducer.applyAsLong(r, transformer.applyAsLong(cursor.key, cursor.value));
+            }
+            result = r;
+        }
+
+        @Override
+        void merge(BulkTask<K, V> subtask) {
+            result = reducer.applyAsLong(result, ((ReduceToLong<K, V>) subtask).result);
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package org.UlGTU;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Adds cache policies to a heap store: a bound on total entry weight, expiry after write or
+ * after access, or both.
+ * <p>
+ * Bounded stores evict with W-TinyLFU: new entries enter a small LRU window, and an entry
+ * pushed out of the window displaces the least recently used entry of the main LRU only if
+ * a {@link FrequencySketch} says it was used more often. One-off keys therefore cannot
+ * flush out the working set. Expiring stores keep every entry in a {@link TimerWheel} by
+ * its deadline and purge the entries of each bucket the clock passes, so expiry costs O(1)
+ * per entry instead of a scan of the table; an expired entry that was not purged yet is
+ * invisible to reads.
+ * <p>
+ * The inner store maps each key to a {@link CacheNode} that carries the value. The policy
+ * lives under evictionLock, which reads never wait for: a read is recorded in a lossy
+ * {@link ReadBuffer}, a write queues its change, and whichever thread wins the lock replays
+ * both, evicts and expires. The bound is thus restored after every write but may be
+ * exceeded while writes are queued behind another thread's maintenance.
+ */
+final class CacheStore<K, V> extends AbstractStore<K, V> {
+    private static final int ADD = 0;
+    private static final int UPDATE = 1;
+    private static final int RETIRE = 2;
+    // The admission window gets this fraction of the maximum weight.
+    private static final int WINDOW_DIVISOR = 100;
+    static final long NEVER = Long.MAX_VALUE;
+
+    private final AbstractStore<K, CacheNode<K, V>> data;
+    // Negative when unbounded.
+    private final long maximum;
+    private final long windowMaximum;
+    // Null when every entry weighs 1.
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    // Nanoseconds, or NEVER.
+    private final long expireAfterWrite;
+    private final long expireAfterAccess;
+    private final LongSupplier ticker;
+    private final long origin;
+    private final BiConsumer<? super K, ? super V> evictionListener;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer<CacheNode<K, V>> readBuffer = new ReadBuffer<>();
+    private final ConcurrentLinkedQueue<Write> writeBuffer = new ConcurrentLinkedQueue<>();
+    // Guarded by evictionLock; the sketch and the wheel are null when their policy is off.
+    private final FrequencySketch sketch;
+    private final TimerWheel<K, V> timerWheel;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> main = new AccessOrder<>();
+    private long windowWeight;
+    private long mainWeight;
+    // Mappings removed by the current maintenance run, reported once the lock is released.
+    private List<CacheNode<K, V>> evicted;
+
+    CacheStore(AbstractStore<K, CacheNode<K, V>> data, long maximum, ToIntBiFunction<? super K, ? super V> weigher,
+               long expireAfterWrite, long expireAfterAccess, LongSupplier ticker,
+               BiConsumer<? super K, ? super V> evictionListener) {
+        this.data = data;
+        this.maximum = maximum;
+        this.windowMaximum = maximum / WINDOW_DIVISOR;
+        this.weigher = weigher;
+        this.expireAfterWrite = expireAfterWrite;
+        this.expireAfterAccess = expireAfterAccess;
+        this.ticker = ticker;
+        this.origin = ticker.getAsLong();
+        this.evictionListener = evictionListener;
+        this.sketch = maximum >= 0 ? new FrequencySketch(maximum) : null;
+        this.timerWheel = expiring() ? new TimerWheel<>(this::deadline) : null;
+    }
+
+    private boolean bounded() {
+        return maximum >= 0;
+    }
+
+    private boolean expiring() {
+        return expireAfterWrite != NEVER || expireAfterAccess != NEVER;
+    }
+
+    // Nanoseconds since the store was created, so the timer wheel never sees negative times.
+    private long now() {
+        return expiring() ? ticker.getAsLong() - origin : 0;
+    }
+
+    private static long plus(long time, long duration) {
+        return duration > NEVER - time ? NEVER : time + duration;
+    }
+
+    private long deadline(CacheNode<K, V> node) {
+        return Math.min(plus(node.writeTime, expireAfterWrite), plus(node.accessTime, expireAfterAccess));
+    }
+
+    private boolean isExpired(CacheNode<K, V> node, long now) {
+        return expiring() && deadline(node) <= now;
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null) {
+            return 1;
+        }
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        return weight;
+    }
+
+    @Override
+    V get(int hash, Object key) {
+        CacheNode<K, V> node = data.get(hash, key);
+        if (node == null) {
+            return null;
+        }
+        long now = now();
+        if (isExpired(node, now)) {
+            tryMaintain();
+            return null;
+        }
+        if (expireAfterAccess != NEVER) {
+            node.accessTime = now;
+        }
+        if (readBuffer.offer(node)) {
+            tryMaintain();
+        }
+        return node.value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        Write write = new Write(op, hash, value, arg, now());
+        data.mutate(COMPUTE, hash, key, null, write);
+        if (write.node != null) {
+            writeBuffer.add(write);
+            tryMaintain();
+        }
+        return (V) write.result;
+    }
+
+    @Override
+    void ensureCapacity(long mappings) {
+        data.ensureCapacity(bounded() && weigher == null ? Math.min(mappings, maximum) : mappings);
+    }
+
+    @Override
+    void recordStats(StatsCounter stats) {
+        super.recordStats(stats);
+        data.recordStats(stats);
+    }
+
+    @Override
+    long resizeCount() {
+        return data.resizeCount();
+    }
+
+    @Override
+    long[] chainLengthHistogram() {
+        return data.chainLengthHistogram();
+    }
+
+    /** Counts expired entries too until they are purged. */
+    @Override
+    long mappingCount() {
+        return data.mappingCount();
+    }
+
+    // Removes entry by entry so that the policy hears of every removal.
+    @Override
+    void clear() {
+        Cursor<K, CacheNode<K, V>> cursor = data.cursor();
+        while (cursor.advance()) {
+            mutate(REMOVE, cursor.value.hash, cursor.key, null, null);
+        }
+    }
+
+    @Override
+    void cleanUp() {
+        evictionLock.lock();
+        List<CacheNode<K, V>> removed;
+        try {
+            removed = maintain();
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyEvicted(removed);
+    }
+
+    @Override
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        long now = now();
+        return data.scan((k, node) -> !isExpired(node, now) && visitor.test(k, node.value));
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        long now = now();
+        data.replaceAll((k, node) -> {
+            if (isExpired(node, now)) {
+                return node;
+            }
+            V value = Objects.requireNonNull(function.apply(k, node.value));
+            node.pendingWeight = weigh(k, value);
+            node.value = value;
+            node.writeTime = now;
+            writeBuffer.add(new Write(UPDATE, node));
+            return node;
+        });
+        tryMaintain();
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        return new NodeCursor(data.cursor(), now());
+    }
+
+    // Runs maintenance unless another thread is already doing it. The holder checks the
+    // write buffer again after unlocking, so a write queued meanwhile is never stranded.
+    private void tryMaintain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            List<CacheNode<K, V>> removed;
+            try {
+                removed = maintain();
+            } finally {
+                evictionLock.unlock();
+            }
+            notifyEvicted(removed);
+        } while (!writeBuffer.isEmpty());
+    }
+
+    private void notifyEvicted(List<CacheNode<K, V>> removed) {
+        if (removed != null && evictionListener != null) {
+            for (CacheNode<K, V> node : removed) {
+                evictionListener.accept(node.key, node.value);
+            }
+        }
+    }
+
+    private List<CacheNode<K, V>> maintain() {
+        readBuffer.drainTo(this::onRead);
+        Write write;
+        while ((write = writeBuffer.poll()) != null) {
+            onWrite(write);
+        }
+        if (timerWheel != null) {
+            long now = now();
+            timerWheel.advance(now, node -> expire(node, now));
+        }
+        if (bounded()) {
+            evict();
+        }
+        List<CacheNode<K, V>> removed = evicted;
+        evicted = null;
+        return removed;
+    }
+
+    private void onRead(CacheNode<K, V> node) {
+        if (sketch != null) {
+            sketch.increment(node.hash);
+        }
+        if (node.queue == CacheNode.WINDOW) {
+            window.moveToEnd(node);
+        } else if (node.queue == CacheNode.MAIN) {
+            main.moveToEnd(node);
+        }
+        if (expireAfterAccess != NEVER && node.timerNext != null) {
+            timerWheel.schedule(node);
+        }
+    }
+
+    // Writes to one key are queued in the order their computes ran only when made by the
+    // same thread, so each step is idempotent: a retirement that overtakes the addition of
+    // its node marks it dead, and an update re-reads the latest weight and times from the
+    // node.
+    private void onWrite(Write write) {
+        CacheNode<K, V> node = write.node;
+        switch (write.kind) {
+            case ADD:
+                if (sketch != null) {
+                    sketch.increment(node.hash);
+                }
+                if (node.queue == CacheNode.NEW) {
+                    if (node.retired) {
+                        node.queue = CacheNode.DEAD;
+                        return;
+                    }
+                    node.weight = node.pendingWeight;
+                    if (bounded()) {
+                        node.queue = CacheNode.WINDOW;
+                        window.linkLast(node);
+                        windowWeight += node.weight;
+                    } else {
+                        node.queue = CacheNode.LIVE;
+                    }
+                    if (timerWheel != null) {
+                        timerWheel.schedule(node);
+                    }
+                }
+                break;
+            case UPDATE:
+                if (sketch != null) {
+                    sketch.increment(node.hash);
+                }
+                if (node.queue == CacheNode.WINDOW) {
+                    windowWeight += node.pendingWeight - node.weight;
+                    window.moveToEnd(node);
+                } else if (node.queue == CacheNode.MAIN) {
+                    mainWeight += node.pendingWeight - node.weight;
+                    main.moveToEnd(node);
+                }
+                node.weight = node.pendingWeight;
+                if (timerWheel != null && node.queue != CacheNode.NEW && node.queue != CacheNode.DEAD) {
+                    timerWheel.schedule(node);
+                }
+                break;
+            default:
+                unlink(node);
+        }
+    }
+
+    private void unlink(CacheNode<K, V> node) {
+        if (node.queue == CacheNode.WINDOW) {
+            window.unlink(node);
+            windowWeight -= node.weight;
+        } else if (node.queue == CacheNode.MAIN) {
+            main.unlink(node);
+            mainWeight -= node.weight;
+        }
+        if (timerWheel != null) {
+            timerWheel.deschedule(node);
+        }
+        node.queue = CacheNode.DEAD;
+    }
+
+    private void evict() {
+        while (windowWeight > windowMaximum) {
+            CacheNode<K, V> candidate = window.head;
+            window.unlink(candidate);
+            windowWeight -= candidate.weight;
+            candidate.queue = CacheNode.MAIN;
+            main.linkLast(candidate);
+            mainWeight += candidate.weight;
+            if (windowWeight + mainWeight > maximum) {
+                // The candidate loses ties: admitting it would not be expected to raise the
+                // hit rate.
+                CacheNode<K, V> victim = main.head;
+                if (victim == candidate || sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                    victim = candidate;
+                }
+                evict(victim);
+            }
+        }
+        while (windowWeight + mainWeight > maximum) {
+            evict(main.head != null ? main.head : window.head);
+        }
+    }
+
+    // The node leaves the policy either way; if the user removed the mapping first, its
+    // queued retirement finds the node already dead.
+    private void evict(CacheNode<K, V> node) {
+        unlink(node);
+        if (data.mutate(REMOVE_IF_EQUAL, node.hash, node.key, node, null) == node) {
+            removed(node);
+        }
+    }
+
+    // Removes the mapping only if it still holds this node and the node is still expired
+    // under the stripe lock. Returns false for a node refreshed meanwhile, which the timer
+    // wheel then reschedules.
+    private boolean expire(CacheNode<K, V> node, long now) {
+        if (!isExpired(node, now)) {
+            return false;
+        }
+        boolean[] removed = new boolean[1];
+        data.mutate(COMPUTE_IF_PRESENT, node.hash, node.key, null,
+                (BiFunction<K, CacheNode<K, V>, CacheNode<K, V>>) (k, current) -> {
+                    if (current != node || !isExpired(node, now)) {
+                        return current;
+                    }
+                    removed[0] = true;
+                    return null;
+                });
+        if (removed[0]) {
+            unlink(node);
+            removed(node);
+            return true;
+        }
+        if (node.retired) {
+            unlink(node);
+            return true;
+        }
+        return false;
+    }
+
+    private void removed(CacheNode<K, V> node) {
+        if (evicted == null) {
+            evicted = new ArrayList<>();
+        }
+        evicted.add(node);
+    }
+
+    /**
+     * One change of a mapping. Applied as the compute function of the inner store, it records
+     * what happened to the node and is then queued for the policy.
+     */
+    private final class Write implements BiFunction<K, CacheNode<K, V>, CacheNode<K, V>> {
+        private final int op;
+        private final int hash;
+        private final V value;
+        private final Object arg;
+        private final long now;
+        Object result;
+        CacheNode<K, V> node;
+        int kind;
+
+        Write(int op, int hash, V value, Object arg, long now) {
+            this.op = op;
+            this.hash = hash;
+            this.value = value;
+            this.arg = arg;
+            this.now = now;
+        }
+
+        Write(int kind, CacheNode<K, V> node) {
+            this(-1, node.hash, null, null, 0);
+            this.kind = kind;
+            this.node = node;
+        }
+
+        @Override
+        public CacheNode<K, V> apply(K key, CacheNode<K, V> current) {
+            // An expired entry that was not purged yet counts as absent.
+            boolean live = current != null && !isExpired(current, now);
+            V oldValue = live ? current.value : null;
+            V newValue = remap(op, key, oldValue, value, arg);
+            result = returnsNewValue(op) ? newValue : oldValue;
+            if (newValue == oldValue && (live || current == null)) {
+                return current;
+            }
+            if (newValue == null) {
+                current.retired = true;
+                kind = RETIRE;
+                node = current;
+                return null;
+            }
+            int weight = weigh(key, newValue);
+            if (current == null) {
+                kind = ADD;
+                node = new CacheNode<>(hash, key, newValue, weight);
+                node.writeTime = now;
+                node.accessTime = now;
+                return node;
+            }
+            current.pendingWeight = weight;
+            current.value = newValue;
+            current.writeTime = now;
+            current.accessTime = now;
+            kind = UPDATE;
+            node = current;
+            return current;
+        }
+    }
+
+    /**
+     * Value holder in the inner store, doubling as a link of the window or main LRU list and
+     * of a timer wheel bucket.
+     */
+    static final class CacheNode<K, V> {
+        static final int NEW = 0;
+        static final int WINDOW = 1;
+        static final int MAIN = 2;
+        // Known to the policy but in no LRU list, because the store is not bounded.
+        static final int LIVE = 3;
+        static final int DEAD = 4;
+
+        final int hash;
+        final K key;
+        volatile V value;
+        // Set by writers under the stripe lock; the policy copies it into weight.
+        volatile int pendingWeight;
+        // Set when the mapping is removed, possibly before the policy saw the node added.
+        volatile boolean retired;
+        // Nanoseconds since the store's origin; only maintained while expiry is on.
+        volatile long writeTime;
+        volatile long accessTime;
+        // The rest is guarded by evictionLock.
+        int weight;
+        int queue;
+        CacheNode<K, V> prev;
+        CacheNode<K, V> next;
+        CacheNode<K, V> timerPrev;
+        CacheNode<K, V> timerNext;
+
+        CacheNode(int hash, K key, V value, int weight) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.pendingWeight = weight;
+        }
+    }
+
+    // Intrusive doubly linked list from least to most recently used.
+    private static final class AccessOrder<K, V> {
+        CacheNode<K, V> head;
+        CacheNode<K, V> tail;
+
+        void linkLast(CacheNode<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void unlink(CacheNode<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToEnd(CacheNode<K, V> node) {
+            if (node != tail) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    // Skips entries that had expired when the cursor was created.
+    private final class NodeCursor extends Cursor<K, V> {
+        private final Cursor<K, CacheNode<K, V>> nodes;
+        private final long now;
+
+        NodeCursor(Cursor<K, CacheNode<K, V>> nodes, long now) {
+            this.nodes = nodes;
+            this.now = now;
+        }
+
+        @Override
+        boolean advance() {
+            while (nodes.advance()) {
+                if (!isExpired(nodes.value, now)) {
+                    key = nodes.key;
+                    value = nodes.value.value;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            Cursor<K, CacheNode<K, V>> part = nodes.split();
+            return part == null ? null : new NodeCursor(part, now);
+        }
+    }
+}
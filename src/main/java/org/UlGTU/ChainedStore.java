@@ -0,0 +1,927 @@
+package org.UlGTU;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Separate chaining over a power-of-two table. Reads are lock-free; writers lock the stripe
+ * of the key, or with {@link DarvinHashMap.Locking#MONITOR} synchronize on the head node of
+ * its bucket, as ConcurrentHashMap does. The table doubles incrementally: writers migrate a
+ * stride of buckets into the successor table after each insert while a resize is in
+ * progress. Chains that reach TREEIFY_THRESHOLD nodes become {@link TreeBin}s, which keeps
+ * lookups O(log n) even under hash flooding.
+ */
+final class ChainedStore<K, V> extends AbstractStore<K, V> {
+    // Number of buckets a writer migrates per call while a resize is in progress.
+    private static final int MIGRATION_STRIDE = 16;
+    // A chain is converted into a TreeBin once it reaches this many nodes...
+    private static final int TREEIFY_THRESHOLD = 8;
+    // ...and back into a plain chain when it shrinks to this many.
+    private static final int UNTREEIFY_THRESHOLD = 6;
+    // Below this table size a long chain means the table is too small, so grow instead.
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+    // Marks a bucket whose entries were already moved into Table.next.
+    static final Node<?, ?> MOVED = new Node<>(-1, null, null);
+    // Hash of the placeholder that claims an empty bucket under monitor locking.
+    private static final int RESERVED = -3;
+    private static final VarHandle BUCKETS = MethodHandles.arrayElementVarHandle(Node[].class);
+    // How many compute functions the current thread is running under a stripe lock or
+    // bucket monitor. Writes from inside one leave migrating to other threads: helping takes
+    // the locks of other stripes, and two functions doing so could each wait for the stripe
+    // the other one holds.
+    private static final ThreadLocal<int[]> FUNCTION_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private volatile Table<K, V> table;
+    // Null under monitor locking, where each bucket is guarded by its head node instead.
+    private final ReadWriteLock[] locks;
+    private final float loadFactor;
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    // Striped across cells so concurrent inserts and removals do not contend on one word.
+    private final LongAdder size = new LongAdder();
+    // Written under resizeLock.
+    private volatile int resizes;
+    // Newest view taken by snapshot(), which writers copy buckets into before changing
+    // them; null until the first one. Held weakly, see FrozenStore.
+    private volatile WeakReference<FrozenStore<K, V>> frozen;
+
+    ChainedStore(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, DEFAULT_CONCURRENCY_LEVEL, DarvinHashMap.Locking.READ_WRITE);
+    }
+
+    // There are never more stripes than initial buckets; see lockFor.
+    ChainedStore(int initialCapacity, float loadFactor, int concurrencyLevel, DarvinHashMap.Locking locking) {
+        this.loadFactor = loadFactor;
+        int capacity = tableSizeFor((long) (initialCapacity / loadFactor) + 1);
+        table = new Table<>(capacity, loadFactor);
+        if (locking == DarvinHashMap.Locking.MONITOR) {
+            locks = null;
+        } else {
+            locks = new ReadWriteLock[Math.min(tableSizeFor(concurrencyLevel), capacity)];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = newLock(locking);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> Node<K, V> bucketAt(Node<K, V>[] buckets, int index) {
+        return (Node<K, V>) BUCKETS.getAcquire(buckets, index);
+    }
+
+    private static <K, V> void setBucketAt(Node<K, V>[] buckets, int index, Node<?, ?> node) {
+        BUCKETS.setRelease(buckets, index, node);
+    }
+
+    private static <K, V> boolean casBucketAt(Node<K, V>[] buckets, int index, Node<?, ?> expected, Node<?, ?> node) {
+        return BUCKETS.compareAndSet(buckets, index, expected, node);
+    }
+
+    // Lock stripes are fixed at construction while tables only grow, and there are no more
+    // stripes than buckets, so a key keeps the same stripe across resizes: old bucket i and
+    // its split targets i and i + n share the low bits that select the stripe.
+    private ReadWriteLock lockFor(int hash) {
+        return locks[hash & (locks.length - 1)];
+    }
+
+    // Returns the newest table holding the bucket of the hash. Caller must hold the stripe
+    // write lock of the hash, which keeps the bucket from being migrated meanwhile.
+    private Table<K, V> tableFor(int hash) {
+        Table<K, V> t = table;
+        while (bucketAt(t.buckets, hash & (t.buckets.length - 1)) == MOVED) {
+            t = t.next;
+        }
+        return t;
+    }
+
+    // Lock-free lookup. Writers publish nodes through volatile links and never modify a
+    // chain that was migrated, so a reader always sees a consistent chain.
+    @Override
+    V get(int hash, Object key) {
+        Table<K, V> t = table;
+        Node<K, V> e;
+        while ((e = bucketAt(t.buckets, hash & (t.buckets.length - 1))) == MOVED) {
+            t = t.next;
+        }
+        return find(e, hash, key);
+    }
+
+    // Looks key up in the bucket headed by e, which must not be MOVED.
+    static <K, V> V find(Node<K, V> e, int hash, Object key) {
+        if (e instanceof TreeBin) {
+            return ((TreeBin<K, V>) e).find(hash, key);
+        }
+        for (; e != null; e = e.next) {
+            if (e.hash == hash && e.key.equals(key)) {
+                return e.value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        V result;
+        if (locks == null) {
+            result = mutateBin(op, hash, key, value, arg);
+        } else {
+            int stripe = hash & (locks.length - 1);
+            Lock writeLock = locks[stripe].writeLock();
+            lock(writeLock, stripe);
+            try {
+                result = mutateLocked(tableFor(hash), op, hash, key, value, arg);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        helpMigrate();
+        return result;
+    }
+
+    // Monitor locking: holding the monitor of a bucket's head while it is still the head
+    // keeps every other writer and the migration out of the bucket. An empty bucket is
+    // claimed with a reservation node, so that a compute function still runs only once.
+    private V mutateBin(int op, int hash, K key, V value, Object arg) {
+        Table<K, V> t = table;
+        for (;;) {
+            Node<K, V>[] buckets = t.buckets;
+            int index = hash & (buckets.length - 1);
+            Node<K, V> f = bucketAt(buckets, index);
+            if (f == MOVED) {
+                t = t.next;
+            } else if (f == null) {
+                Node<K, V> reservation = new Node<>(RESERVED, null, null);
+                synchronized (reservation) {
+                    if (casBucketAt(buckets, index, null, reservation)) {
+                        return mutateReserved(t, index, op, hash, key, value, arg);
+                    }
+                }
+            } else {
+                synchronized (f) {
+                    if (bucketAt(buckets, index) == f) {
+                        if (f.hash == RESERVED) {
+                            // Only the thread that reserved the bucket can hold it now.
+                            throw new IllegalStateException("Recursive update");
+                        }
+                        return mutateLocked(t, op, hash, key, value, arg);
+                    }
+                }
+            }
+        }
+    }
+
+    // Caller holds the reservation that is the head of the bucket; the key is absent. The
+    // change is counted and recorded while the reservation still keeps other writers out,
+    // since the first of them to lock the new node may already change the key again.
+    private V mutateReserved(Table<K, V> t, int index, int op, int hash, K key, V value, Object arg) {
+        V newValue;
+        Node<K, V> node = null;
+        try {
+            newValue = remapLocked(op, key, null, value, arg);
+            if (newValue != null) {
+                recordChange(key, null, newValue);
+                size.increment();
+                node = new Node<>(hash, key, newValue);
+            }
+        } finally {
+            setBucketAt(t.buckets, index, node);
+        }
+        if (newValue != null) {
+            afterInsert(0, false);
+        }
+        return returnsNewValue(op) ? newValue : null;
+    }
+
+    // Groups the batch by stripe so that every stripe lock is taken once, and helps a
+    // resize along between groups.
+    @Override
+    @SuppressWarnings("unchecked")
+    void mutateAll(int op, int[] hashes, Object[] keys, Object[] values, Object[] results, int n) {
+        if (locks == null) {
+            // Buckets have no shared lock to batch on.
+            super.mutateAll(op, hashes, keys, values, results, n);
+            return;
+        }
+        long[] order = groupByStripe(hashes, n, locks.length - 1);
+        for (int i = 0; i < n; ) {
+            int stripe = (int) (order[i] >>> 32);
+            Lock writeLock = locks[stripe].writeLock();
+            lock(writeLock, stripe);
+            try {
+                for (; i < n && (int) (order[i] >>> 32) == stripe; i++) {
+                    int j = (int) order[i];
+                    V result = mutateLocked(tableFor(hashes[j]), op, hashes[j], (K) keys[j],
+                            values == null ? null : (V) values[j], null);
+                    if (results != null) {
+                        results[j] = result;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            helpMigrate();
+        }
+    }
+
+    // Body of mutate on the bucket of hash in t; the caller holds the stripe write lock of
+    // hash or the monitor of the bucket's head, and helps migrate after releasing it.
+    private V mutateLocked(Table<K, V> t, int op, int hash, K key, V value, Object arg) {
+        V oldValue;
+        V newValue;
+        boolean remapped = false;
+        V computed = null;
+        int index = hash & (t.buckets.length - 1);
+        Node<K, V> e = bucketAt(t.buckets, index);
+        if (callsFunction(op)) {
+            // The function may write to this bucket itself, relinking or replacing the nodes
+            // a search finds, so the bucket is only searched for the update once the
+            // function has returned.
+            oldValue = find(e, hash, key);
+            computed = remapLocked(op, key, oldValue, value, arg);
+            remapped = true;
+            Node<K, V> head = bucketAt(t.buckets, index);
+            if (locks == null && head != e) {
+                // The caller holds the monitor of a node that no longer guards the bucket.
+                throw new IllegalStateException("Recursive update");
+            }
+            if (head == MOVED) {
+                // The stripe lock guards the key in every table.
+                t = tableFor(hash);
+                index = hash & (t.buckets.length - 1);
+                head = bucketAt(t.buckets, index);
+            }
+            if (find(head, hash, key) != oldValue) {
+                // The function changed the mapping it was computing.
+                throw new IllegalStateException("Recursive update");
+            }
+            e = head;
+        }
+        if (e instanceof TreeBin) {
+            TreeBin<K, V> bin = (TreeBin<K, V>) e;
+            TreeBin.TreeNode<K, V> p = bin.findLocked(hash, key);
+            oldValue = p != null ? p.value : null;
+            newValue = remapped ? computed : remap(op, key, oldValue, value, arg);
+            if (newValue != oldValue) {
+                freeze(t, index);
+            }
+            if (p != null) {
+                if (newValue == null) {
+                    bin.removeTreeNode(p);
+                    size.decrement();
+                    if (bin.count <= UNTREEIFY_THRESHOLD) {
+                        setBucketAt(t.buckets, index, untreeify(bin.first));
+                    }
+                } else if (newValue != oldValue) {
+                    p.value = newValue;
+                }
+            } else if (newValue != null) {
+                bin.putTreeVal(hash, key, newValue);
+                size.increment();
+                afterInsert(bin.count, false);
+            }
+        } else {
+            Node<K, V> pred = null;
+            int count = 0;
+            for (; e != null; pred = e, e = e.next, count++) {
+                if (e.hash == hash && e.key.equals(key)) {
+                    break;
+                }
+            }
+            oldValue = e != null ? e.value : null;
+            newValue = remapped ? computed : remap(op, key, oldValue, value, arg);
+            if (newValue != oldValue) {
+                freeze(t, index);
+            }
+            if (e != null) {
+                if (newValue == null) {
+                    if (pred == null) {
+                        setBucketAt(t.buckets, index, e.next);
+                    } else {
+                        pred.next = e.next;
+                    }
+                    size.decrement();
+                } else if (newValue != oldValue) {
+                    e.value = newValue;
+                }
+            } else if (newValue != null) {
+                // The scan stopped at the tail, so the new node is appended in the same pass.
+                Node<K, V> node = new Node<>(hash, key, newValue);
+                if (pred == null) {
+                    setBucketAt(t.buckets, index, node);
+                } else {
+                    pred.next = node;
+                }
+                size.increment();
+                boolean grow = false;
+                if (count + 1 >= TREEIFY_THRESHOLD) {
+                    if (t.buckets.length >= MIN_TREEIFY_CAPACITY) {
+                        setBucketAt(t.buckets, index, treeify(bucketAt(t.buckets, index)));
+                    } else {
+                        grow = true;
+                    }
+                }
+                afterInsert(count, grow);
+            }
+        }
+        recordChange(key, oldValue, newValue);
+        return returnsNewValue(op) ? newValue : oldValue;
+    }
+
+    // Both conversions copy the nodes, like migration does, so that readers still walking
+    // the previous form of the bucket are not disturbed.
+    private static <K, V> TreeBin<K, V> treeify(Node<K, V> chain) {
+        TreeBin.TreeNode<K, V> head = null, tail = null;
+        for (Node<K, V> e = chain; e != null; e = e.next) {
+            TreeBin.TreeNode<K, V> copy = new TreeBin.TreeNode<>(e.hash, e.key, e.value);
+            if (tail == null) {
+                head = copy;
+            } else {
+                tail.next = copy;
+            }
+            tail = copy;
+        }
+        return new TreeBin<>(head);
+    }
+
+    private static <K, V> Node<K, V> untreeify(Node<K, V> chain) {
+        Node<K, V> head = null, tail = null;
+        for (Node<K, V> e = chain; e != null; e = e.next) {
+            Node<K, V> copy = new Node<>(e.hash, e.key, e.value);
+            if (tail == null) {
+                head = copy;
+            } else {
+                tail.next = copy;
+            }
+            tail = copy;
+        }
+        return head;
+    }
+
+    // Returns the nodes of a bucket as a linked chain, unwrapping tree bins. A reservation
+    // holds no mapping, so its bucket counts as empty.
+    static <K, V> Node<K, V> chainOf(Node<K, V> head) {
+        if (head instanceof TreeBin) {
+            return ((TreeBin<K, V>) head).first;
+        }
+        return head != null && head.hash == RESERVED ? null : head;
+    }
+
+    // Summing the size cells is not free, so the threshold is only checked when the new
+    // node landed in a non-empty bucket, which is when a resize starts paying off. Starting
+    // a resize only takes resizeLock, which is never held while waiting for a stripe lock,
+    // so it is safe under one.
+    private void afterInsert(int binCount, boolean grow) {
+        Table<K, V> t = table;
+        if (t.next == null && (grow || (binCount > 0 && size.sum() > t.threshold))) {
+            startResize(t, t.buckets.length << 1);
+        }
+    }
+
+    private void startResize(Table<K, V> t, int capacity) {
+        resizeLock.lock();
+        try {
+            if (table == t && t.next == null && t.buckets.length < MAXIMUM_CAPACITY) {
+                t.next = new Table<>(Math.min(capacity, MAXIMUM_CAPACITY), loadFactor);
+                resizes++;
+            }
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    // Grows the table straight to the size needed for mappings, migrating on this thread
+    // instead of doubling step by step while the mappings are inserted. Inside a compute
+    // function it cannot migrate, so the inserts grow the table as they go instead.
+    @Override
+    void ensureCapacity(long mappings) {
+        if (inFunction()) {
+            return;
+        }
+        int capacity = tableSizeFor((long) (mappings / loadFactor) + 1);
+        for (;;) {
+            Table<K, V> t = table;
+            if (t.buckets.length >= capacity || t.buckets.length >= MAXIMUM_CAPACITY) {
+                return;
+            }
+            if (t.next == null) {
+                startResize(t, capacity);
+            }
+            if (t.transferIndex.get() < t.buckets.length) {
+                helpMigrate();
+            } else {
+                // Other threads are finishing the last strides.
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // Runs remap, counting it in FUNCTION_DEPTH when op calls a function.
+    private static <K, V> V remapLocked(int op, K key, V oldValue, V value, Object arg) {
+        if (!callsFunction(op)) {
+            return remap(op, key, oldValue, value, arg);
+        }
+        int[] depth = FUNCTION_DEPTH.get();
+        depth[0]++;
+        try {
+            return remap(op, key, oldValue, value, arg);
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    private static boolean inFunction() {
+        return FUNCTION_DEPTH.get()[0] > 0;
+    }
+
+    // Moves the next MIGRATION_STRIDE buckets of the current table into its successor.
+    // Must not be called while holding a stripe lock, so it does nothing when called from
+    // inside a compute function; the outermost write helps once it has unlocked.
+    private void helpMigrate() {
+        Table<K, V> t = table;
+        Table<K, V> next = t.next;
+        if (next == null || inFunction()) {
+            return;
+        }
+        int n = t.buckets.length;
+        int start = t.transferIndex.getAndAdd(MIGRATION_STRIDE);
+        if (start >= n) {
+            return;
+        }
+        int end = Math.min(start + MIGRATION_STRIDE, n);
+        for (int i = start; i < end; i++) {
+            if (locks == null) {
+                migrateBin(t, next, i);
+                continue;
+            }
+            Lock writeLock = lockFor(i).writeLock();
+            writeLock.lock();
+            try {
+                migrateBucket(t, next, i);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        if (t.migrated.addAndGet(end - start) == n) {
+            table = next;
+        }
+    }
+
+    // Copies the chain instead of relinking it, so readers still walking the old chain
+    // are not redirected into the wrong bucket. The successor is usually twice as large,
+    // but ensureCapacity may grow by a bigger power of two, so bucket i of a table of n
+    // buckets fans out to i, i + n, i + 2n, ... The target buckets are reachable only
+    // through this one, so they are filled before it is marked MOVED. A split tree bin stays
+    // a tree only where its part is still long.
+    private void migrateBucket(Table<K, V> t, Table<K, V> next, int index) {
+        freeze(t, index);
+        Node<K, V> head = bucketAt(t.buckets, index);
+        int mask = next.buckets.length - 1;
+        for (Node<K, V> e = chainOf(head); e != null; e = e.next) {
+            int target = e.hash & mask;
+            Node<K, V> copy = new Node<>(e.hash, e.key, e.value);
+            copy.next = bucketAt(next.buckets, target);
+            setBucketAt(next.buckets, target, copy);
+        }
+        if (head instanceof TreeBin) {
+            for (Node<K, V> e = chainOf(head); e != null; e = e.next) {
+                int target = e.hash & mask;
+                Node<K, V> part = bucketAt(next.buckets, target);
+                if (!(part instanceof TreeBin) && chainLength(part) > UNTREEIFY_THRESHOLD) {
+                    setBucketAt(next.buckets, target, treeify(part));
+                }
+            }
+        }
+        setBucketAt(t.buckets, index, MOVED);
+    }
+
+    // Monitor locking: an empty bucket is marked MOVED at once, or else migrated while its
+    // head is held.
+    private void migrateBin(Table<K, V> t, Table<K, V> next, int index) {
+        for (;;) {
+            Node<K, V> f = bucketAt(t.buckets, index);
+            if (f == null) {
+                if (casBucketAt(t.buckets, index, null, MOVED)) {
+                    return;
+                }
+            } else {
+                synchronized (f) {
+                    if (bucketAt(t.buckets, index) == f) {
+                        migrateBucket(t, next, index);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Monitor locking: runs action on bucket index of t, and on the buckets it was split
+     * into if it was migrated, while holding the head of each. Empty buckets are skipped.
+     * Returns true as soon as action does.
+     */
+    private boolean forEachBin(Table<K, V> t, int index, BinAction<K, V> action) {
+        for (;;) {
+            Node<K, V> f = bucketAt(t.buckets, index);
+            if (f == null) {
+                return false;
+            }
+            if (f == MOVED) {
+                for (int i = index; i < t.next.buckets.length; i += t.buckets.length) {
+                    if (forEachBin(t.next, i, action)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            synchronized (f) {
+                if (bucketAt(t.buckets, index) == f) {
+                    return action.apply(t, index);
+                }
+            }
+        }
+    }
+
+    private interface BinAction<K, V> {
+        boolean apply(Table<K, V> t, int index);
+    }
+
+    private static int chainLength(Node<?, ?> e) {
+        int count = 0;
+        for (; e != null; e = e.next) {
+            count++;
+        }
+        return count;
+    }
+
+    // Copies bucket index of t into the newest view before a change, unless the view was
+    // taken after the bucket last changed. Caller holds the lock of the bucket. A table
+    // other than the view's is newer, and was filled from buckets already copied.
+    private void freeze(Table<K, V> t, int index) {
+        WeakReference<FrozenStore<K, V>> ref = frozen;
+        FrozenStore<K, V> view;
+        if (ref != null && (view = ref.get()) != null && view.table == t && view.copies.get(index) == null) {
+            view.copies.set(index, FrozenStore.copyOf(bucketAt(t.buckets, index)));
+        }
+    }
+
+    /**
+     * Takes a view in time independent of the map's size: finishes a resize in progress, so
+     * that the view sees one table, and then holds every stripe lock just long enough to
+     * publish the view, so that each write lands either before it or after it. Monitor
+     * locking has no stripes to hold, so it cannot take views.
+     */
+    @Override
+    AbstractStore<K, V> snapshot() {
+        if (locks == null) {
+            throw new UnsupportedOperationException("Snapshots need stripe locks, not monitor locking");
+        }
+        for (;;) {
+            Table<K, V> t = table;
+            if (t.next != null) {
+                if (t.transferIndex.get() < t.buckets.length) {
+                    helpMigrate();
+                } else {
+                    Thread.onSpinWait();
+                }
+                continue;
+            }
+            int locked = 0;
+            try {
+                for (; locked < locks.length; locked++) {
+                    locks[locked].writeLock().lock();
+                }
+                // A resize that started meanwhile may already have moved buckets.
+                if (table == t && t.next == null) {
+                    ContentDigest d = digest;
+                    FrozenStore<K, V> view = new FrozenStore<>(t, mappingCount(), d == null ? null : d.copy());
+                    WeakReference<FrozenStore<K, V>> ref = frozen;
+                    FrozenStore<K, V> previous = ref != null ? ref.get() : null;
+                    if (previous != null) {
+                        previous.newer = view;
+                    }
+                    frozen = new WeakReference<>(view);
+                    return view;
+                }
+            } finally {
+                while (locked > 0) {
+                    locks[--locked].writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    long resizeCount() {
+        return resizes;
+    }
+
+    // Walks the buckets without locking, like get, so the counts may mix states from
+    // before and after concurrent writes.
+    @Override
+    long[] chainLengthHistogram() {
+        long[] histogram = new long[HISTOGRAM_LENGTH];
+        Table<K, V> t = table;
+        for (int i = 0; i < t.buckets.length; i++) {
+            countBucket(t, i, histogram);
+        }
+        return histogram;
+    }
+
+    private static <K, V> void countBucket(Table<K, V> t, int index, long[] histogram) {
+        Node<K, V> e = bucketAt(t.buckets, index);
+        if (e == MOVED) {
+            for (int i = index; i < t.next.buckets.length; i += t.buckets.length) {
+                countBucket(t.next, i, histogram);
+            }
+            return;
+        }
+        histogram[Math.min(chainLength(chainOf(e)), HISTOGRAM_LENGTH - 1)]++;
+    }
+
+    @Override
+    long mappingCount() {
+        long n = size.sum();
+        return n < 0 ? 0 : n;
+    }
+
+    @Override
+    void clear() {
+        Table<K, V> t = table;
+        for (int i = 0; i < t.buckets.length; i++) {
+            if (locks == null) {
+                forEachBin(t, i, (bt, bi) -> {
+                    size.add(-clearBucket(bt, bi));
+                    return false;
+                });
+                continue;
+            }
+            Lock writeLock = lockFor(i).writeLock();
+            writeLock.lock();
+            try {
+                size.add(-clearBucket(t, i));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Empties the bucket and returns the number of nodes it held.
+    private int clearBucket(Table<K, V> t, int index) {
+        Node<K, V> e = bucketAt(t.buckets, index);
+        if (e == MOVED) {
+            int count = 0;
+            for (int i = index; i < t.next.buckets.length; i += t.buckets.length) {
+                count += clearBucket(t.next, i);
+            }
+            return count;
+        }
+        freeze(t, index);
+        setBucketAt(t.buckets, index, null);
+        Node<K, V> chain = chainOf(e);
+        if (recordsChanges()) {
+            for (Node<K, V> p = chain; p != null; p = p.next) {
+                recordChange(p.key, p.value, null);
+            }
+        }
+        return chainLength(chain);
+    }
+
+    @Override
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        Table<K, V> t = table;
+        for (int i = 0; i < t.buckets.length; i++) {
+            if (locks == null) {
+                if (forEachBin(t, i, (bt, bi) -> scanBucket(bt, bi, visitor))) {
+                    return true;
+                }
+                continue;
+            }
+            Lock readLock = lockFor(i).readLock();
+            readLock.lock();
+            try {
+                if (scanBucket(t, i, visitor)) {
+                    return true;
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return false;
+    }
+
+    // Visits every node of the given bucket of t, following buckets that were migrated.
+    // Caller must hold the stripe lock of the bucket or the monitor of its head.
+    private boolean scanBucket(Table<K, V> t, int index, BiPredicate<? super K, ? super V> visitor) {
+        Node<K, V> e = bucketAt(t.buckets, index);
+        if (e == MOVED) {
+            for (int i = index; i < t.next.buckets.length; i += t.buckets.length) {
+                if (scanBucket(t.next, i, visitor)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (e = chainOf(e); e != null; e = e.next) {
+            if (visitor.test(e.key, e.value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Table<K, V> t = table;
+        for (int i = 0; i < t.buckets.length; i++) {
+            if (locks == null) {
+                forEachBin(t, i, (bt, bi) -> {
+                    replaceBucket(bt, bi, function);
+                    return false;
+                });
+                continue;
+            }
+            Lock writeLock = lockFor(i).writeLock();
+            writeLock.lock();
+            try {
+                replaceBucket(t, i, function);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private void replaceBucket(Table<K, V> t, int index, BiFunction<? super K, ? super V, ? extends V> function) {
+        Node<K, V> e = bucketAt(t.buckets, index);
+        if (e == MOVED) {
+            for (int i = index; i < t.next.buckets.length; i += t.buckets.length) {
+                replaceBucket(t.next, i, function);
+            }
+            return;
+        }
+        freeze(t, index);
+        for (e = chainOf(e); e != null; e = e.next) {
+            V oldValue = e.value;
+            e.value = Objects.requireNonNull(function.apply(e.key, oldValue));
+            recordChange(e.key, oldValue, e.value);
+        }
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        Table<K, V> t = table;
+        return new Traverser<>(t, t.buckets.length, 0, t.buckets.length);
+    }
+
+    /**
+     * Lock-free cursor over the buckets [baseIndex, baseLimit) of a table, in the manner of
+     * ConcurrentHashMap's Traverser. When it meets a MOVED bucket it descends into the next
+     * table, visits the buckets the old one was split into, and climbs back using a stack
+     * whose depth is bounded by the number of resizes in flight.
+     */
+    static final class Traverser<K, V> extends Cursor<K, V> {
+        // Table whose bucket range [baseIndex, baseLimit) this cursor covers.
+        private final Table<K, V> base;
+        Table<K, V> tab;
+        Node<K, V> next;
+        // Descents into successor tables still to be climbed back out of.
+        private TableStack<K, V> stack;
+        private TableStack<K, V> spare;
+        int index;
+        int baseIndex;
+        int baseLimit;
+        final int baseSize;
+
+        Traverser(Table<K, V> tab, int size, int index, int limit) {
+            this.base = tab;
+            this.tab = tab;
+            this.baseSize = size;
+            this.baseIndex = this.index = index;
+            this.baseLimit = limit;
+        }
+
+        @Override
+        boolean advance() {
+            Node<K, V> e = next;
+            if (e != null) {
+                e = e.next;
+            }
+            for (;;) {
+                if (e != null) {
+                    next = e;
+                    key = e.key;
+                    value = e.value;
+                    return true;
+                }
+                Table<K, V> t = tab;
+                int n;
+                int i;
+                if (baseIndex >= baseLimit || t == null || (n = t.buckets.length) <= (i = index) || i < 0) {
+                    next = null;
+                    return false;
+                }
+                e = bucketAt(t.buckets, i);
+                if (e == MOVED) {
+                    tab = t.next;
+                    e = null;
+                    pushState(t, i, n);
+                    continue;
+                }
+                e = chainOf(e);
+                if (stack != null) {
+                    recoverState(n);
+                } else if ((index = i + baseSize) >= n) {
+                    index = ++baseIndex;
+                }
+            }
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            int i = baseIndex;
+            int f = baseLimit;
+            int h = (i + f) >>> 1;
+            if (h <= i) {
+                return null;
+            }
+            baseLimit = h;
+            return new Traverser<>(base, baseSize, h, f);
+        }
+
+        private void pushState(Table<K, V> t, int i, int n) {
+            TableStack<K, V> s = spare;
+            if (s != null) {
+                spare = s.next;
+            } else {
+                s = new TableStack<>();
+            }
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        private void recoverState(int n) {
+            TableStack<K, V> s;
+            int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack<K, V> below = s.next;
+                s.next = spare;
+                stack = below;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n) {
+                index = ++baseIndex;
+            }
+        }
+    }
+
+    private static final class TableStack<K, V> {
+        int length;
+        int index;
+        Table<K, V> tab;
+        TableStack<K, V> next;
+    }
+
+    static final class Table<K, V> {
+        final Node<K, V>[] buckets;
+        final int threshold;
+        // Successor table while a resize is in progress; never cleared afterwards so that
+        // readers holding an old table can still follow MOVED buckets.
+        volatile Table<K, V> next;
+        final AtomicInteger transferIndex = new AtomicInteger();
+        final AtomicInteger migrated = new AtomicInteger();
+
+        Table(int capacity, float loadFactor) {
+            @SuppressWarnings("unchecked")
+            Node<K, V>[] buckets = (Node<K, V>[]) new Node<?, ?>[capacity];
+            this.buckets = buckets;
+            threshold = capacity >= MAXIMUM_CAPACITY ? Integer.MAX_VALUE : (int) (capacity * loadFactor);
+        }
+    }
+
+    static class Node<K, V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        volatile Node<K, V> next;
+
+        Node(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
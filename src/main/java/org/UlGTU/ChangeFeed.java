@@ -0,0 +1,46 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+
+/**
+ * The subscriptions of one store, behind {@link DarvinHashMap#subscribe}. Engines publish
+ * through {@link AbstractStore#recordChange}, under the lock of the changed key, so each
+ * subscription receives the changes to one key in the order they were made.
+ */
+final class ChangeFeed<K, V> {
+    private static final DarvinSubscription<?, ?>[] NONE = new DarvinSubscription<?, ?>[0];
+
+    // Copied on every subscribe and close, which are rare next to writes.
+    @SuppressWarnings("unchecked")
+    private volatile DarvinSubscription<K, V>[] subscriptions = (DarvinSubscription<K, V>[]) NONE;
+
+    void publish(K key, V oldValue, V newValue) {
+        DarvinSubscription<K, V>[] current = subscriptions;
+        if (current.length == 0) {
+            return;
+        }
+        DarvinChangeEvent<K, V> event = new DarvinChangeEvent<>(key, oldValue, newValue);
+        for (DarvinSubscription<K, V> subscription : current) {
+            subscription.offer(event);
+        }
+    }
+
+    synchronized void add(DarvinSubscription<K, V> subscription) {
+        DarvinSubscription<K, V>[] current = subscriptions;
+        DarvinSubscription<K, V>[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = subscription;
+        subscriptions = next;
+    }
+
+    synchronized void remove(DarvinSubscription<K, V> subscription) {
+        DarvinSubscription<K, V>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                DarvinSubscription<K, V>[] next = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                subscriptions = next;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.UlGTU;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+/** The codecs behind the {@link DarvinCodec} factories, and encoding shared by the stores. */
+final class Codecs {
+    static final DarvinCodec<Integer> INT = new DarvinCodec<>() {
+        @Override
+        public int encodedSize(Integer value) {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void encode(Integer value, MemorySegment target, long offset) {
+            target.set(ValueLayout.JAVA_INT_UNALIGNED, offset, value);
+        }
+
+        @Override
+        public Integer decode(MemorySegment source, long offset, int size) {
+            return source.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+        }
+    };
+
+    static final DarvinCodec<Long> LONG = new DarvinCodec<>() {
+        @Override
+        public int encodedSize(Long value) {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long value, MemorySegment target, long offset) {
+            target.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+        }
+
+        @Override
+        public Long decode(MemorySegment source, long offset, int size) {
+            return source.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+        }
+    };
+
+    static final DarvinCodec<String> STRING = new DarvinCodec<>() {
+        @Override
+        public int encodedSize(String value) {
+            // Counted here rather than by encoding twice; unpaired surrogates become '?'.
+            int size = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    size += 1;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    size += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    size += 1;
+                } else {
+                    size += 3;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public void encode(String value, MemorySegment target, long offset) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            MemorySegment.copy(bytes, 0, target, ValueLayout.JAVA_BYTE, offset, bytes.length);
+        }
+
+        @Override
+        public String decode(MemorySegment source, long offset, int size) {
+            byte[] bytes = new byte[size];
+            MemorySegment.copy(source, ValueLayout.JAVA_BYTE, offset, bytes, 0, size);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    static final DarvinCodec<byte[]> BYTES = new DarvinCodec<>() {
+        @Override
+        public int encodedSize(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void encode(byte[] value, MemorySegment target, long offset) {
+            MemorySegment.copy(value, 0, target, ValueLayout.JAVA_BYTE, offset, value.length);
+        }
+
+        @Override
+        public byte[] decode(MemorySegment source, long offset, int size) {
+            byte[] bytes = new byte[size];
+            MemorySegment.copy(source, ValueLayout.JAVA_BYTE, offset, bytes, 0, size);
+            return bytes;
+        }
+    };
+
+    private Codecs() {
+    }
+
+    // Keys are encoded on the heap before a lookup so that they can be compared byte-wise.
+    static <T> MemorySegment encode(DarvinCodec<T> codec, T value) {
+        MemorySegment encoded = MemorySegment.ofArray(new byte[codec.encodedSize(value)]);
+        codec.encode(value, encoded, 0);
+        return encoded;
+    }
+}
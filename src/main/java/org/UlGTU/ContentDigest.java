@@ -0,0 +1,60 @@
+package org.UlGTU;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Order-independent digest of the mappings in a store, updated by the store under the lock
+ * of every change, so that {@link DarvinHashMap#hashCode()} needs no scan and
+ * {@link DarvinHashMap#equals} rejects maps with different digests at once. Both parts are
+ * sums over the mappings, so a change only adds the difference for its own mapping. They
+ * only hold while values keep their hash codes, which is already required of keys.
+ */
+final class ContentDigest {
+    // Sum of key.hashCode() ^ value.hashCode(); its low 32 bits are Map.hashCode().
+    private final LongAdder hashSum = new LongAdder();
+    // Sum of a 64-bit mix of both hash codes, which unequal maps almost never share.
+    private final LongAdder fingerprint = new LongAdder();
+
+    /** Records that the mapping of key changed from oldValue to newValue; null means absent. */
+    void update(Object key, Object oldValue, Object newValue) {
+        int keyHash = key.hashCode();
+        long hashDelta = 0;
+        long mixDelta = 0;
+        if (oldValue != null) {
+            int valueHash = oldValue.hashCode();
+            hashDelta -= keyHash ^ valueHash;
+            mixDelta -= mix(keyHash, valueHash);
+        }
+        if (newValue != null) {
+            int valueHash = newValue.hashCode();
+            hashDelta += keyHash ^ valueHash;
+            mixDelta += mix(keyHash, valueHash);
+        }
+        hashSum.add(hashDelta);
+        fingerprint.add(mixDelta);
+    }
+
+    /** Returns a digest with the same sums, which later updates to this one leave alone. */
+    ContentDigest copy() {
+        ContentDigest copy = new ContentDigest();
+        copy.hashSum.add(hashSum.sum());
+        copy.fingerprint.add(fingerprint.sum());
+        return copy;
+    }
+
+    int mapHashCode() {
+        return (int) hashSum.sum();
+    }
+
+    long fingerprint() {
+        return fingerprint.sum();
+    }
+
+    // The finalizer of MurmurHash3, so that entries differing in one bit differ everywhere.
+    private static long mix(int keyHash, int valueHash) {
+        long z = ((long) keyHash << 32) | (valueHash & 0xffffffffL);
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,61 @@
+package org.UlGTU;
+
+import java.util.Objects;
+
+/**
+ * One change to a mapping of a {@link DarvinHashMap}, delivered to the consumers of
+ * {@link DarvinHashMap#subscribe}. The old value is null for {@link Type#PUT} and the new
+ * value is null for {@link Type#REMOVE}.
+ */
+public final class DarvinChangeEvent<K, V> {
+
+    /** Whether the key was added, given a different value or removed. */
+    public enum Type {
+        PUT,
+        UPDATE,
+        REMOVE
+    }
+
+    private final K key;
+    private final V oldValue;
+    private final V newValue;
+
+    // Never called with two nulls: a change that adds nothing and removes nothing is none.
+    DarvinChangeEvent(K key, V oldValue, V newValue) {
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public Type type() {
+        return oldValue == null ? Type.PUT : newValue == null ? Type.REMOVE : Type.UPDATE;
+    }
+
+    public K key() {
+        return key;
+    }
+
+    public V oldValue() {
+        return oldValue;
+    }
+
+    public V newValue() {
+        return newValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DarvinChangeEvent<?, ?> other && key.equals(other.key)
+                && Objects.equals(oldValue, other.oldValue) && Objects.equals(newValue, other.newValue);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, oldValue, newValue);
+    }
+
+    @Override
+    public String toString() {
+        return type() + "(" + key + ": " + oldValue + " -> " + newValue + ")";
+    }
+}
@@ -0,0 +1,37 @@
+package org.UlGTU;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Serializes keys or values for maps that keep their entries outside the Java heap. The
+ * off-heap store compares keys by their encoded bytes, so a key codec must encode equal keys
+ * to equal bytes. Targets may be heap segments with byte alignment, so multi-byte fields
+ * have to use the unaligned layouts.
+ */
+public interface DarvinCodec<T> {
+
+    /** Number of bytes {@link #encode} writes for value. */
+    int encodedSize(T value);
+
+    void encode(T value, MemorySegment target, long offset);
+
+    T decode(MemorySegment source, long offset, int size);
+
+    static DarvinCodec<Integer> ints() {
+        return Codecs.INT;
+    }
+
+    static DarvinCodec<Long> longs() {
+        return Codecs.LONG;
+    }
+
+    /** Encodes strings as UTF-8. */
+    static DarvinCodec<String> strings() {
+        return Codecs.STRING;
+    }
+
+    /** For values only: arrays hash and compare by identity, so they make poor keys. */
+    static DarvinCodec<byte[]> bytes() {
+        return Codecs.BYTES;
+    }
+}
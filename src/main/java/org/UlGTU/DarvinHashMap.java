@@ -1,260 +1,677 @@
 package org.UlGTU;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToLongBiFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class DarvinHashMap<K, V> implements Map<K, V> {
-    private static final int INITIAL_CAPACITY = 10240;
-    private final LinkedList<Entry<K, V>>[] buckets;
-    private final ReentrantReadWriteLock[] locks;
-    private int size = 0;
-    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock.ReadLock globalReadLock = globalLock.readLock();
-    private final ReentrantReadWriteLock.WriteLock globalWriteLock = globalLock.writeLock();
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * How a map lays out its entries. {@code CHAINED} keeps a linked chain per bucket and
+     * serves reads without locking. {@code LINEAR_PROBING} and {@code ROBIN_HOOD} store
+     * entries in flat hash/key/value arrays, which avoids a node object per mapping and
+     * keeps a lookup within a few adjacent slots; their reads take a stripe read lock.
+     * {@code OFF_HEAP} serializes entries into native memory through the key and value
+     * codecs given to the builder, so the map adds almost nothing to the Java heap; every
+     * read decodes a fresh value object.
+     */
+    public enum Storage {
+        CHAINED,
+        LINEAR_PROBING,
+        ROBIN_HOOD,
+        OFF_HEAP
+    }
+
+    /**
+     * How key hash codes are mixed before the low bits pick a bucket. {@code SPREAD} folds
+     * the high half into the low half, which is cheap and keeps small sequential keys in
+     * consecutive buckets. {@code SEEDED} runs the hash code and a random per-map seed
+     * through a full avalanche mix, so an attacker cannot predict which keys share a
+     * bucket. Keys with identical hash codes still collide under any mix; tree bins bound
+     * the cost of those.
+     */
+    public enum HashMixing {
+        SPREAD {
+            @Override
+            int mix(int h, int seed) {
+                return h ^ (h >>> 16);
+            }
+        },
+        SEEDED {
+            @Override
+            int mix(int h, int seed) {
+                h ^= seed;
+                h ^= h >>> 16;
+                h *= 0x85ebca6b;
+                h ^= h >>> 13;
+                h *= 0xc2b2ae35;
+                return h ^ (h >>> 16);
+            }
+        };
+
+        abstract int mix(int h, int seed);
+    }
+
+    /**
+     * How writers keep each other out of a bucket. {@code READ_WRITE} gives each lock stripe
+     * a ReentrantReadWriteLock. {@code STAMPED} uses a StampedLock per stripe instead, which is
+     * smaller and lets the open addressing layouts answer reads optimistically, without
+     * writing to the lock; it is not reentrant, so compute functions must never touch the
+     * map. {@code MONITOR} allocates no locks at all: writers synchronize on the first node of
+     * the bucket, as ConcurrentHashMap does, so every bucket is its own stripe. It is only
+     * available for {@link Storage#CHAINED}.
+     */
+    public enum Locking {
+        READ_WRITE,
+        STAMPED,
+        MONITOR
+    }
+
+    /**
+     * When a map built with {@link Builder#writeAheadLog} forces its log to disk. A write
+     * always waits until the log file holds it, so it survives a crash of the process;
+     * {@code ALWAYS} also waits for the fsync, so it survives a power failure too, while
+     * {@code EVERY_SECOND} forces the log at most a second later and {@code NEVER} leaves
+     * that to the operating system. Concurrent writers share one write and one fsync.
+     */
+    public enum FsyncPolicy {
+        ALWAYS,
+        EVERY_SECOND,
+        NEVER
+    }
+
+    /**
+     * What a writer does when the buffer of a {@link #subscribe subscription} is full
+     * because its consumer falls behind. {@code DROP} discards the change and counts it.
+     * {@code BLOCK} waits for room, holding the lock of the changed key meanwhile, so a slow
+     * consumer slows writers down, and one that writes to the map itself may deadlock.
+     * {@code COALESCE} sets the change aside and merges later changes to the same key into
+     * it, so the consumer eventually sees every key's latest value, but not every value in
+     * between, and changes to different keys lose their relative order.
+     */
+    public enum Backpressure {
+        DROP,
+        BLOCK,
+        COALESCE
+    }
+
+    /**
+     * How {@link #readSnapshot} brings a snapshot file into memory. {@code EAGER} decodes
+     * every entry into an ordinary chained map sized up front, reading the mapped file once
+     * from start to end. {@code LAZY} returns immediately and answers lookups from the mapped
+     * file, keeping only changed keys on the heap; it relies on key hash codes being the same
+     * as in the JVM that wrote the file, which holds for strings, boxed primitives and records
+     * of those.
+     */
+    public enum SnapshotLoading {
+        EAGER,
+        LAZY
+    }
+
+    private static final int HASH_BITS = 0x7fffffff;
+    private static final long DEFAULT_CHECKPOINT_LOG_SIZE = 64L << 20;
+    // Below this many mappings, equals and hashCode scan on the calling thread.
+    private static final long PARALLEL_EQUALS_THRESHOLD = 1 << 16;
+
+    private final AbstractStore<K, V> store;
+    private final HashMixing hashMixing;
+    private final int seed;
+    // Null unless the map was built with recordStats().
+    private final StatsCounter stats;
+    // Null unless the map was built with writeAheadLog().
+    private final WriteAheadLog<K, V> wal;
+    private Set<K> keySet;
+    private Collection<V> values;
+    private Set<Map.Entry<K, V>> entrySet;
+    // Loads in flight by getOrLoadAsync, created on first use.
+    private volatile ChainedStore<K, CompletableFuture<V>> loads;
+
+    private static final VarHandle LOADS;
+
+    static {
+        try {
+            LOADS = MethodHandles.lookup().findVarHandle(DarvinHashMap.class, "loads", ChainedStore.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
-    @SuppressWarnings("unchecked")
     public DarvinHashMap() {
-        buckets = new LinkedList[INITIAL_CAPACITY];
-        locks = new ReentrantReadWriteLock[INITIAL_CAPACITY];
-        for (int i = 0; i < INITIAL_CAPACITY; i++) {
-            buckets[i] = new LinkedList<>();
-            locks[i] = new ReentrantReadWriteLock();
+        this(new Builder<>());
+    }
+
+    public DarvinHashMap(int initialCapacity) {
+        this(new Builder<K, V>().initialCapacity(initialCapacity));
+    }
+
+    /**
+     * Creates a map sized to hold {@code initialCapacity} mappings without resizing.
+     * The table grows by doubling once {@code size > capacity * loadFactor}; buckets
+     * are migrated to the new table a few at a time by writers, so reads and writes
+     * keep going while a resize is in progress.
+     */
+    public DarvinHashMap(int initialCapacity, float loadFactor) {
+        this(new Builder<K, V>().initialCapacity(initialCapacity).loadFactor(loadFactor));
+    }
+
+    /**
+     * Creates a map with the given storage layout. Open addressing layouts cap the load
+     * factor at 0.9 and grow one lock segment at a time. {@link Storage#OFF_HEAP} needs
+     * codecs and can only be built through {@link #builder()}.
+     */
+    public DarvinHashMap(int initialCapacity, float loadFactor, Storage storage) {
+        this(new Builder<K, V>().initialCapacity(initialCapacity).loadFactor(loadFactor).storage(storage));
+    }
+
+    private DarvinHashMap(Builder<K, V> builder) {
+        int initialCapacity = builder.initialCapacity;
+        float loadFactor = builder.loadFactor;
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        hashMixing = Objects.requireNonNull(builder.hashMixing);
+        seed = hashMixing == HashMixing.SEEDED ? ThreadLocalRandom.current().nextInt() : 0;
+        Storage storage = Objects.requireNonNull(builder.storage);
+        Locking locking = Objects.requireNonNull(builder.locking);
+        if (locking == Locking.MONITOR && storage != Storage.CHAINED) {
+            throw new IllegalArgumentException("Monitor locking needs chained storage");
+        }
+        boolean cache = builder.maximumWeight >= 0 || builder.expireAfterWrite != CacheStore.NEVER
+                || builder.expireAfterAccess != CacheStore.NEVER;
+        if (builder.evictionListener != null && !cache) {
+            throw new IllegalArgumentException("An eviction listener needs a bound or an expiry");
+        }
+        if (builder.indexValues && cache) {
+            throw new IllegalArgumentException("A value index cannot be bounded or expire");
+        }
+        if (builder.logDirectory != null) {
+            if (builder.keyCodec == null || builder.valueCodec == null) {
+                throw new IllegalArgumentException("A write-ahead log needs a key codec and a value codec");
+            }
+            if (cache) {
+                throw new IllegalArgumentException("A durable map cannot be bounded or expire");
+            }
+        }
+        AbstractStore<K, V> engine;
+        if (storage == Storage.OFF_HEAP) {
+            if (builder.keyCodec == null || builder.valueCodec == null) {
+                throw new IllegalArgumentException("Off-heap storage needs a key codec and a value codec");
+            }
+            if (cache) {
+                throw new IllegalArgumentException("Off-heap storage cannot be bounded or expire");
+            }
+            engine = new OffHeapStore<>(initialCapacity, loadFactor, builder.keyCodec, builder.valueCodec,
+                    builder.concurrencyLevel, locking);
+        } else if (cache) {
+            engine = new CacheStore<>(heapStore(storage, initialCapacity, loadFactor, builder.concurrencyLevel, locking),
+                    builder.maximumWeight,
+                    builder.weigher, builder.expireAfterWrite, builder.expireAfterAccess, builder.ticker,
+                    builder.evictionListener);
+        } else {
+            engine = heapStore(storage, initialCapacity, loadFactor, builder.concurrencyLevel, locking);
+        }
+        if (!cache) {
+            // A cache's data store holds nodes rather than values, so caches scan instead
+            // and publish no changes.
+            engine.digest = new ContentDigest();
+            engine.feed = new ChangeFeed<>();
+        }
+        if (builder.indexValues) {
+            // Attached before the log replay, which rebuilds it along with the map.
+            engine.valueIndex = new ValueIndex<>();
+        }
+        if (builder.logDirectory != null) {
+            try {
+                wal = WriteAheadLog.open(builder.logDirectory, builder.keyCodec, builder.valueCodec,
+                        builder.fsyncPolicy, builder.checkpointLogSize, (k, v) -> engine.mutate(
+                                v == null ? AbstractStore.REMOVE : AbstractStore.PUT, hash(k), k, v, null));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Attached after the replay, which must not log what it reads back.
+            engine.log = wal;
+            store = new DurableStore<>(engine, wal);
+        } else {
+            wal = null;
+            store = engine;
+        }
+        if (builder.recordStats) {
+            stats = new StatsCounter();
+            store.recordStats(stats);
+        } else {
+            stats = null;
+        }
+        if (wal != null) {
+            DarvinCodec<K> keyCodec = builder.keyCodec;
+            DarvinCodec<V> valueCodec = builder.valueCodec;
+            wal.start(path -> writeSnapshotFile(path, keyCodec, valueCodec));
+        }
+    }
+
+    private static <K, V> AbstractStore<K, V> heapStore(Storage storage, int initialCapacity, float loadFactor,
+                                                        int concurrencyLevel, Locking locking) {
+        switch (storage) {
+            case LINEAR_PROBING:
+                return new OpenAddressingStore<>(initialCapacity, loadFactor, false, concurrencyLevel, locking);
+            case ROBIN_HOOD:
+                return new OpenAddressingStore<>(initialCapacity, loadFactor, true, concurrencyLevel, locking);
+            default:
+                return new ChainedStore<>(initialCapacity, loadFactor, concurrencyLevel, locking);
         }
     }
 
+    private DarvinHashMap(AbstractStore<K, V> store, HashMixing hashMixing, int seed) {
+        this.store = store;
+        this.hashMixing = hashMixing;
+        this.seed = seed;
+        this.stats = null;
+        this.wal = null;
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    // Non-negative so that stores can use the sign bit as a marker.
     private int hash(Object key) {
-        return Math.abs(key.hashCode() % INITIAL_CAPACITY);
+        return hashMixing.mix(key.hashCode(), seed) & HASH_BITS;
     }
 
     @Override
     public int size() {
-        globalReadLock.lock();
-        try {
-            return size;
-        } finally {
-            globalReadLock.unlock();
-        }
+        long n = mappingCount();
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Returns the number of mappings as a long. Like {@link #size()}, the result is a
+     * moment-in-time estimate while other threads are modifying the map.
+     */
+    public long mappingCount() {
+        return store.mappingCount();
     }
 
     @Override
     public boolean isEmpty() {
-        globalReadLock.lock();
-        try {
-            return size == 0;
-        } finally {
-            globalReadLock.unlock();
-        }
+        return mappingCount() == 0;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        int bucketIndex = hash(key);
-        Lock readLock = locks[bucketIndex].readLock();
-        readLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            for (Entry<K, V> entry : bucket) {
-                if (entry.getKey().equals(key)) {
-                    return true;
-                }
-            }
-            return false;
-        } finally {
-            readLock.unlock();
-        }
+        return store.get(hash(key), key) != null;
     }
 
+    /**
+     * Returns whether some key maps to value: in constant time for maps built with
+     * {@link Builder#indexValues()}, else by a scan of the whole map.
+     */
     @Override
     public boolean containsValue(Object value) {
-        globalReadLock.lock();
-        try {
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock readLock = locks[i].readLock();
-                readLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        if (entry.getValue().equals(value)) {
-                            return true;
-                        }
-                    }
-                } finally {
-                    readLock.unlock();
-                }
+        Objects.requireNonNull(value);
+        if (store.valueIndex != null) {
+            return store.valueIndex.contains(value);
+        }
+        return store.scan((k, v) -> v.equals(value));
+    }
+
+    /**
+     * Returns the keys that map to value, as an immutable set that later writes leave alone.
+     * Maps built with {@link Builder#indexValues()} look them up in time proportional to
+     * their number; others scan the whole map.
+     */
+    public Set<K> keysForValue(V value) {
+        Objects.requireNonNull(value);
+        if (store.valueIndex != null) {
+            return store.valueIndex.keysFor(value);
+        }
+        Set<K> keys = new HashSet<>();
+        store.scan((k, v) -> {
+            if (v.equals(value)) {
+                keys.add(k);
             }
             return false;
-        } finally {
-            globalReadLock.unlock();
-        }
+        });
+        return Collections.unmodifiableSet(keys);
     }
 
     @Override
     public V get(Object key) {
-        int bucketIndex = hash(key);
-        Lock readLock = locks[bucketIndex].readLock();
-        readLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            for (Entry<K, V> entry : bucket) {
-                if (entry.getKey().equals(key)) {
-                    return entry.getValue();
-                }
-            }
-            return null;
-        } finally {
-            readLock.unlock();
+        V value = store.get(hash(key), key);
+        if (stats != null) {
+            stats.recordLookups(value != null ? 1 : 0, value != null ? 0 : 1);
         }
+        return value;
     }
 
     @Override
     public V put(K key, V value) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            for (Entry<K, V> entry : bucket) {
-                if (entry.getKey().equals(key)) {
-                    V oldValue = entry.getValue();
-                    entry.setValue(value);
-                    return oldValue;
-                }
-            }
-            bucket.add(new Entry<>(key, value));
-            globalWriteLock.lock();
-            try {
-                size++;
-            } finally {
-                globalWriteLock.unlock();
-            }
-            return null;
-        } finally {
-            writeLock.unlock();
-        }
+        Objects.requireNonNull(value);
+        return store.mutate(AbstractStore.PUT, hash(key), key, value, null);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V remove(Object key) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            Iterator<Entry<K, V>> iterator = bucket.iterator();
-            while (iterator.hasNext()) {
-                Entry<K, V> entry = iterator.next();
-                if (entry.getKey().equals(key)) {
-                    iterator.remove();
-                    globalWriteLock.lock();
-                    try {
-                        size--;
-                    } finally {
-                        globalWriteLock.unlock();
-                    }
-                    return entry.getValue();
-                }
-            }
-            return null;
-        } finally {
-            writeLock.unlock();
-        }
+        return store.mutate(AbstractStore.REMOVE, hash(key), (K) key, null, null);
     }
 
+    /**
+     * Copies all mappings of m into this map. The table is first grown to fit them all, and
+     * the mappings are then stored grouped by lock, so each lock is taken once per call
+     * rather than once per mapping. The batch is not atomic as a whole: readers may observe
+     * some of the new mappings before others.
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
+        int n = 0;
+        int[] hashes = new int[m.size()];
+        Object[] keys = new Object[hashes.length];
+        Object[] values = new Object[hashes.length];
         for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
-            put(entry.getKey(), entry.getValue());
+            if (n == hashes.length) {
+                // m grew while it was being copied.
+                hashes = Arrays.copyOf(hashes, n * 2 + 1);
+                keys = Arrays.copyOf(keys, hashes.length);
+                values = Arrays.copyOf(values, hashes.length);
+            }
+            hashes[n] = hash(entry.getKey());
+            keys[n] = entry.getKey();
+            values[n] = Objects.requireNonNull(entry.getValue());
+            n++;
+        }
+        if (n == 0) {
+            return;
         }
+        store.ensureCapacity(mappingCount() + n);
+        store.mutateAll(AbstractStore.PUT, hashes, keys, values, null, n);
     }
 
-    @Override
-    public void clear() {
-        globalWriteLock.lock();
-        try {
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock writeLock = locks[i].writeLock();
-                writeLock.lock();
-                try {
-                    buckets[i].clear();
-                } finally {
-                    writeLock.unlock();
-                }
+    /**
+     * Returns the mappings of the given keys that are present, taking each read lock at most
+     * once. Like {@link #putAll}, the lookups are not a single atomic snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Object[] array = keys.toArray();
+        int n = array.length;
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = hash(array[i]);
+        }
+        Object[] results = new Object[n];
+        store.getAll(hashes, array, results, n);
+        Map<K, V> found = new HashMap<>();
+        int hits = 0;
+        for (int i = 0; i < n; i++) {
+            if (results[i] != null) {
+                found.put((K) array[i], (V) results[i]);
+                hits++;
             }
-            size = 0;
-        } finally {
-            globalWriteLock.unlock();
         }
+        if (stats != null) {
+            stats.recordLookups(hits, n - hits);
+        }
+        return found;
     }
 
-    @Override
-    public Set<K> keySet() {
-        globalReadLock.lock();
-        try {
-            Set<K> keySet = new HashSet<>();
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock readLock = locks[i].readLock();
-                readLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        keySet.add(entry.getKey());
-                    }
-                } finally {
-                    readLock.unlock();
-                }
+    /**
+     * Removes the mappings of all given keys, taking each lock once, and returns how many
+     * were present.
+     */
+    public int removeAll(Collection<?> keys) {
+        Object[] array = keys.toArray();
+        int n = array.length;
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = hash(array[i]);
+        }
+        Object[] results = new Object[n];
+        store.mutateAll(AbstractStore.REMOVE, hashes, array, null, results, n);
+        int removed = 0;
+        for (Object result : results) {
+            if (result != null) {
+                removed++;
             }
-            return keySet;
-        } finally {
-            globalReadLock.unlock();
         }
+        return removed;
     }
 
+    @Override
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * Returns a live view of the keys. Its iterators walk the map in place, reflect
+     * concurrent updates on a best-effort basis and support {@code remove}.
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> view = keySet;
+        return view != null ? view : (keySet = new KeySetView());
+    }
+
+    /** Returns a live view of the values, with the same iterators as {@link #keySet()}. */
     @Override
     public Collection<V> values() {
-        globalReadLock.lock();
-        try {
-            List<V> values = new ArrayList<>();
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock readLock = locks[i].readLock();
-                readLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        values.add(entry.getValue());
-                    }
-                } finally {
-                    readLock.unlock();
-                }
-            }
-            return values;
-        } finally {
-            globalReadLock.unlock();
-        }
+        Collection<V> view = values;
+        return view != null ? view : (values = new ValuesView());
     }
 
+    /**
+     * Returns a live view of the mappings, with the same iterators as {@link #keySet()}.
+     * Each iteration step creates one entry whose {@code setValue} writes through to the map.
+     */
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
-        globalReadLock.lock();
-        try {
-            Set<Map.Entry<K, V>> entrySet = new HashSet<>();
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock readLock = locks[i].readLock();
-                readLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        entrySet.add(entry);
-                    }
-                } finally {
-                    readLock.unlock();
-                }
+        Set<Map.Entry<K, V>> view = entrySet;
+        return view != null ? view : (entrySet = new EntrySetView());
+    }
+
+    /**
+     * Writes the current mappings to a snapshot file that {@link #readSnapshot} can reopen.
+     * The file is written next to path and then moved over it, so an existing snapshot is
+     * replaced atomically. Concurrent updates may or may not be included.
+     */
+    public void writeSnapshot(Path path, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec) throws IOException {
+        writeSnapshotFile(path, keyCodec, valueCodec);
+    }
+
+    // Also the checkpoint of a durable map, which the constructor hands to the log before
+    // any subclass is initialized, so it must not go through an overridable method.
+    private void writeSnapshotFile(Path path, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec) throws IOException {
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        store.scan((k, v) -> {
+            keys.add(k);
+            values.add(v);
+            return false;
+        });
+        int[] hashes = new int[keys.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(keys.get(i));
+        }
+        Snapshot.write(path, hashMixing, seed, hashes, keys, values, keyCodec, valueCodec);
+    }
+
+    /**
+     * Returns a read-only map of the mappings as they are at this moment, which later
+     * writes to this map do not change. It is taken in constant time, whatever the size of
+     * the map: afterwards, the first write to each bucket copies the bucket before changing
+     * it, for as long as the returned map is reachable, so long scans of it never block or
+     * slow writers beyond that one copy. Its size, hashCode and equals are as cheap as this
+     * map's. Writes to it throw UnsupportedOperationException.
+     *
+     * @throws UnsupportedOperationException unless the map has {@link Storage#CHAINED}
+     *         storage with stripe locks and no bound or expiry
+     */
+    public DarvinHashMap<K, V> snapshot() {
+        return new DarvinHashMap<>(store.snapshot(), hashMixing, seed);
+    }
+
+    /**
+     * Delivers every later put, update and removal to consumer, in batches, on a thread of
+     * the subscription's own. Writers only add each change to a buffer of bufferSize
+     * changes, rounded up to a power of two, without taking another lock, and never run the
+     * consumer themselves; backpressure says what they do when the buffer is full. A write
+     * that leaves a key mapped to the very same value object, such as putIfAbsent on a
+     * present key, publishes nothing; putting an equal but distinct value publishes an
+     * update. Each batch is a new list that the consumer may keep. If the consumer throws,
+     * the subscription closes and the exception goes to the thread's uncaught exception
+     * handler.
+     *
+     * @throws UnsupportedOperationException if the map has a bound or expiry, is a
+     *         {@link #snapshot()}, or was read with {@link SnapshotLoading#LAZY}
+     */
+    public DarvinSubscription<K, V> subscribe(Consumer<? super List<DarvinChangeEvent<K, V>>> consumer,
+                                              int bufferSize, Backpressure backpressure) {
+        Objects.requireNonNull(consumer);
+        Objects.requireNonNull(backpressure);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Illegal buffer size: " + bufferSize);
+        }
+        if (store.feed == null) {
+            throw new UnsupportedOperationException("Only maps holding their own values without a bound or expiry publish changes");
+        }
+        return DarvinSubscription.start(store.feed, consumer, bufferSize, backpressure);
+    }
+
+    /**
+     * Opens a snapshot written by {@link #writeSnapshot}. The returned map keeps the hash
+     * mixing of the map that wrote it and is fully modifiable either way; with
+     * {@link SnapshotLoading#LAZY} changes never reach the file.
+     */
+    public static <K, V> DarvinHashMap<K, V> readSnapshot(Path path, DarvinCodec<K> keyCodec,
+                                                          DarvinCodec<V> valueCodec, SnapshotLoading loading)
+            throws IOException {
+        Objects.requireNonNull(keyCodec);
+        Objects.requireNonNull(valueCodec);
+        if (loading == SnapshotLoading.LAZY) {
+            Snapshot snapshot = Snapshot.open(path, Arena.ofAuto());
+            return new DarvinHashMap<>(new SnapshotStore<>(snapshot, keyCodec, valueCodec),
+                    snapshot.hashMixing, snapshot.seed);
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            Snapshot snapshot = Snapshot.open(path, arena);
+            DarvinHashMap<K, V> map = new DarvinHashMap<>(
+                    new ChainedStore<>((int) Math.min(snapshot.count, Integer.MAX_VALUE), DEFAULT_LOAD_FACTOR),
+                    snapshot.hashMixing, snapshot.seed);
+            map.store.digest = new ContentDigest();
+            map.store.feed = new ChangeFeed<>();
+            long offset = snapshot.entriesStart();
+            for (long i = 0; i < snapshot.count; i++) {
+                map.put(snapshot.keyAt(offset, keyCodec), snapshot.valueAt(offset, valueCodec));
+                offset = snapshot.nextEntry(offset);
             }
-            return entrySet;
-        } finally {
-            globalReadLock.unlock();
+            return map;
         }
     }
 
+    /**
+     * Atomically adds delta to the value of key and returns the new value; an absent key
+     * counts as 0. The map's values must be {@link Long}s. The bucket is visited once under
+     * its lock, and the only allocation is the new Long itself, which small results avoid
+     * through the Long cache.
+     */
+    public long addTo(K key, long delta) {
+        return (Long) store.mutate(AbstractStore.ADD_TO, hash(key), key, null, delta);
+    }
+
+    /**
+     * Purges expired mappings and finishes pending eviction now rather than on the next
+     * access. Cost is proportional to the work pending, not to the size of the map; a no-op
+     * for maps without a bound or expiry.
+     */
+    public void cleanUp() {
+        store.cleanUp();
+    }
+
+    /**
+     * Writes a checkpoint of a map built with {@link Builder#writeAheadLog}: snapshots the
+     * map into the log directory and deletes the log files it covers, so that reopening the
+     * map replays less. Writes go on meanwhile. The map also checkpoints itself in the
+     * background whenever its log has grown by the builder's checkpoint log size.
+     *
+     * @throws IllegalStateException if the map has no write-ahead log or it is closed
+     */
+    public void checkpoint() throws IOException {
+        requireLog().checkpoint();
+    }
+
+    /**
+     * Commits and forces the writes logged so far and stops the log writer of a map built
+     * with {@link Builder#writeAheadLog}. The map stays readable, but every later write
+     * throws IllegalStateException; a new map built on the same directory takes over.
+     */
+    public void closeLog() throws IOException {
+        requireLog().close();
+    }
+
+    private WriteAheadLog<K, V> requireLog() {
+        if (wal == null) {
+            throw new IllegalStateException("The map has no write-ahead log");
+        }
+        return wal;
+    }
+
+    /** Same as {@code addTo(key, 1)}. */
+    public long increment(K key) {
+        return addTo(key, 1);
+    }
+
+    /**
+     * Returns the current statistics of this map. The histogram walks the whole table, so
+     * this costs about as much as a scan of the map.
+     */
+    public DarvinMapStats stats() {
+        StatsCounter s = stats;
+        return s == null
+                ? new DarvinMapStats(0, 0, 0, 0, 0, store.resizeCount(), store.chainLengthHistogram())
+                : new DarvinMapStats(s.hits.sum(), s.misses.sum(), s.lockAcquisitions.sum(),
+                        s.contendedLockAcquisitions.sum(), s.lockWaitNanos.sum(), store.resizeCount(),
+                        store.chainLengthHistogram());
+    }
+
+    /**
+     * Registers a {@link DarvinMapStatsMXBean} for this map with the platform MBean server
+     * under {@code org.UlGTU:type=DarvinHashMap,name=<name>} and returns its object name. The
+     * name also labels the lock contention events this map sends to Flight Recorder. The
+     * server keeps the map reachable until the returned name is unregistered.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("org.UlGTU:type=DarvinHashMap,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StatsBean(), objectName);
+        if (stats != null) {
+            stats.name = name;
+        }
+        return objectName;
+    }
+
     @Override
     public V getOrDefault(Object key, V defaultValue) {
         V value = get(key);
@@ -263,212 +680,748 @@ public class DarvinHashMap<K, V> implements Map<K, V> {
 
     @Override
     public void forEach(BiConsumer<? super K, ? super V> action) {
-        globalReadLock.lock();
-        try {
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock readLock = locks[i].readLock();
-                readLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        action.accept(entry.getKey(), entry.getValue());
-                    }
-                } finally {
-                    readLock.unlock();
-                }
-            }
-        } finally {
-            globalReadLock.unlock();
-        }
+        Objects.requireNonNull(action);
+        store.scan((k, v) -> {
+            action.accept(k, v);
+            return false;
+        });
     }
 
     @Override
     public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-        globalWriteLock.lock();
-        try {
-            for (int i = 0; i < INITIAL_CAPACITY; i++) {
-                Lock writeLock = locks[i].writeLock();
-                writeLock.lock();
-                try {
-                    for (Entry<K, V> entry : buckets[i]) {
-                        entry.setValue(function.apply(entry.getKey(), entry.getValue()));
-                    }
-                } finally {
-                    writeLock.unlock();
-                }
-            }
-        } finally {
-            globalWriteLock.unlock();
+        Objects.requireNonNull(function);
+        store.replaceAll(function);
+    }
+
+    // Number of times a bulk operation splits its work; 0 runs it on the calling thread.
+    // Mirrors ConcurrentHashMap: up to four tasks per common pool thread.
+    private int batchFor(long parallelismThreshold) {
+        long n;
+        if (parallelismThreshold == Long.MAX_VALUE || (n = mappingCount()) <= 1L || n < parallelismThreshold) {
+            return 0;
         }
+        int p = ForkJoinPool.getCommonPoolParallelism() << 2;
+        return (parallelismThreshold <= 0L || (n /= parallelismThreshold) >= p) ? p : (int) n;
     }
 
+    /**
+     * Performs action for each mapping, in parallel on the common ForkJoinPool when the map
+     * holds at least parallelismThreshold mappings. As in ConcurrentHashMap, a threshold of
+     * {@code Long.MAX_VALUE} keeps the operation sequential and 1 uses all the parallelism
+     * available. The action must be safe to call from several threads at once.
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        new BulkTask.ForEach<>(store.cursor(), batchFor(parallelismThreshold), action).invoke();
+    }
+
+    /**
+     * Returns a non-null result of applying function to some mapping, or null if it returns
+     * null for all of them. Once a result is found the remaining work is abandoned.
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> function) {
+        Objects.requireNonNull(function);
+        AtomicReference<U> result = new AtomicReference<>();
+        new BulkTask.Search<>(store.cursor(), batchFor(parallelismThreshold), function, result).invoke();
+        return result.get();
+    }
+
+    /**
+     * Combines all values with reducer, which should be associative, or returns null if the
+     * map is empty.
+     */
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        Objects.requireNonNull(reducer);
+        BulkTask.ReduceValues<K, V> task =
+                new BulkTask.ReduceValues<>(store.cursor(), batchFor(parallelismThreshold), reducer);
+        task.invoke();
+        return task.result;
+    }
+
+    /**
+     * Transforms every mapping to a long and combines them with reducer, starting from
+     * basis, which should be the identity of reducer (0 for a sum).
+     */
+    public long reduceToLong(long parallelismThreshold, ToLongBiFunction<? super K, ? super V> transformer,
+                             long basis, LongBinaryOperator reducer) {
+        Objects.requireNonNull(transformer);
+        Objects.requireNonNull(reducer);
+        BulkTask.ReduceToLong<K, V> task = new BulkTask.ReduceToLong<>(store.cursor(),
+                batchFor(parallelismThreshold), transformer, basis, reducer);
+        task.invoke();
+        return task.result;
+    }
+
+    /**
+     * Compares with another map as {@link Map#equals} specifies. When both maps are
+     * unbounded DarvinHashMaps, their digests reject unequal contents without a scan;
+     * otherwise, and to confirm equality, each mapping is looked up in o, in parallel for
+     * large maps. Like {@link #size()}, the result is only exact while neither map changes.
+     */
     @Override
-    public V putIfAbsent(K key, V value) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map<?, ?> m)) {
+            return false;
+        }
+        if (o instanceof DarvinHashMap<?, ?> other && store.digest != null && other.store.digest != null
+                && (store.digest.fingerprint() != other.store.digest.fingerprint()
+                || store.digest.mapHashCode() != other.store.digest.mapHashCode())) {
+            return false;
+        }
+        if (m.size() != size()) {
+            return false;
+        }
         try {
-            V existingValue = get(key);
-            if (existingValue == null) {
-                put(key, value);
-                return null;
-            }
-            return existingValue;
-        } finally {
-            writeLock.unlock();
+            return search(PARALLEL_EQUALS_THRESHOLD, (k, v) -> v.equals(m.get(k)) ? null : Boolean.TRUE) == null;
+        } catch (ClassCastException | NullPointerException e) {
+            return false;
         }
     }
 
+    /**
+     * Returns the sum of the entry hash codes, as {@link Map#hashCode} specifies. Unbounded
+     * maps keep the sum up to date on every write and answer in constant time, which relies
+     * on values keeping their hash codes while they are mapped; bounded and expiring maps
+     * compute it with a scan.
+     */
     @Override
-    public boolean remove(Object key, Object value) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            Iterator<Entry<K, V>> iterator = bucket.iterator();
-            while (iterator.hasNext()){
-                Entry<K, V> entry = iterator.next();
-                if (entry.getKey().equals(key) && entry.getValue().equals(value)) {
-                    iterator.remove();
-                    globalWriteLock.lock();
-                    try {
-                        size--;
-                    } finally {
-                        globalWriteLock.unlock();
-                    }
-                    return true;
-                }
-            }
-            return false;
-        } finally {
-            writeLock.unlock();
+    public int hashCode() {
+        if (store.digest != null) {
+            return store.digest.mapHashCode();
         }
+        return (int) reduceToLong(PARALLEL_EQUALS_THRESHOLD, (k, v) -> k.hashCode() ^ v.hashCode(), 0, Long::sum);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        return store.mutate(AbstractStore.PUT_IF_ABSENT, hash(key), key, value, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object key, Object value) {
+        return value != null
+                && value.equals(store.mutate(AbstractStore.REMOVE_IF_EQUAL, hash(key), (K) key, (V) value, null));
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            for (Entry<K, V> entry : bucket) {
-                if (entry.getKey().equals(key) && entry.getValue().equals(oldValue)) {
-                    entry.setValue(newValue);
-                    return true;
-                }
-            }
-            return false;
-        } finally {
-            writeLock.unlock();
-        }
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        return oldValue.equals(store.mutate(AbstractStore.REPLACE_IF_EQUAL, hash(key), key, newValue, oldValue));
     }
 
     @Override
     public V replace(K key, V value) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
+        Objects.requireNonNull(value);
+        return store.mutate(AbstractStore.REPLACE, hash(key), key, value, null);
+    }
+
+    /**
+     * Returns the value of key, loading it with loader on a miss. Concurrent misses on the
+     * same key share one load, and no lock is held while it runs, so a slow loader never
+     * blocks other keys, unlike {@link #computeIfAbsent}. When the load completes, its value
+     * is stored unless the key was given a value meanwhile, in which case the returned
+     * future completes with that value instead. A failed load or a null result stores
+     * nothing, and the next call loads again. Each caller gets its own future, so cancelling
+     * it does not cancel the load for others.
+     */
+    public CompletableFuture<V> getOrLoadAsync(K key, Function<? super K, ? extends CompletableFuture<? extends V>> loader) {
+        Objects.requireNonNull(loader);
+        V value = get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        int h = hash(key);
+        ChainedStore<K, CompletableFuture<V>> loads = loads();
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loads.mutate(AbstractStore.PUT_IF_ABSENT, h, key, created, null);
+        if (inFlight != null) {
+            return inFlight.copy();
+        }
+        // A load that finished between the first lookup and the registration has stored its
+        // value by now.
+        value = store.get(h, key);
+        if (value != null) {
+            loads.mutate(AbstractStore.REMOVE_IF_EQUAL, h, key, created, null);
+            created.complete(value);
+            return created.copy();
+        }
+        CompletableFuture<? extends V> load;
         try {
-            LinkedList<Entry<K, V>> bucket = buckets[bucketIndex];
-            for (Entry<K, V> entry : bucket) {
-                if (entry.getKey().equals(key)) {
-                    V oldValue = entry.getValue();
-                    entry.setValue(value);
-                    return oldValue;
+            load = Objects.requireNonNull(loader.apply(key), "loader returned null");
+        } catch (RuntimeException | Error e) {
+            loads.mutate(AbstractStore.REMOVE_IF_EQUAL, h, key, created, null);
+            created.completeExceptionally(e);
+            return created.copy();
+        }
+        load.whenComplete((loaded, failure) -> {
+            V result = null;
+            try {
+                if (failure == null && loaded != null) {
+                    V current = putIfAbsent(key, loaded);
+                    result = current != null ? current : loaded;
                 }
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                // Unregistered only after the value is stored, so no caller can miss both.
+                loads.mutate(AbstractStore.REMOVE_IF_EQUAL, h, key, created, null);
+            }
+            if (failure != null) {
+                created.completeExceptionally(failure);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created.copy();
+    }
+
+    private ChainedStore<K, CompletableFuture<V>> loads() {
+        ChainedStore<K, CompletableFuture<V>> l = loads;
+        if (l == null) {
+            l = new ChainedStore<>(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+            if (!LOADS.compareAndSet(this, null, l)) {
+                l = loads;
             }
-            return null;
-        } finally {
-            writeLock.unlock();
         }
+        return l;
     }
 
     @Override
     public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            V value = get(key);
-            if (value == null) {
-                value = mappingFunction.apply(key);
-                put(key, value);
-            }
-            return value;
-        } finally {
-            writeLock.unlock();
-        }
+        Objects.requireNonNull(mappingFunction);
+        return store.mutate(AbstractStore.COMPUTE_IF_ABSENT, hash(key), key, null, mappingFunction);
     }
 
     @Override
     public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            V value = get(key);
-            if (value != null) {
-                V newValue = remappingFunction.apply(key, value);
-                if (newValue != null) {
-                    put(key, newValue);
-                    return newValue;
-                } else {
-                    remove(key);
-                    return null;
-                }
-            }
-            return null;
-        } finally {
-            writeLock.unlock();
-        }
+        Objects.requireNonNull(remappingFunction);
+        return store.mutate(AbstractStore.COMPUTE_IF_PRESENT, hash(key), key, null, remappingFunction);
     }
 
     @Override
     public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            V oldValue = get(key);
-            V newValue = remappingFunction.apply(key, oldValue);
-            if (newValue == null) {
-                remove(key);
-                return null;
-            } else {
-                put(key, newValue);
-                return newValue;
-            }
-        } finally {
-            writeLock.unlock();
-        }
+        Objects.requireNonNull(remappingFunction);
+        return store.mutate(AbstractStore.COMPUTE, hash(key), key, null, remappingFunction);
     }
 
     @Override
     public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        int bucketIndex = hash(key);
-        Lock writeLock = locks[bucketIndex].writeLock();
-        writeLock.lock();
-        try {
-            V oldValue = get(key);
-            V newValue = (oldValue == null) ? value : remappingFunction.apply(oldValue, value);
-            if (newValue == null) {
-                remove(key);
-                return null;
-            } else {
-                put(key, newValue);
-                return newValue;
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return store.mutate(AbstractStore.MERGE, hash(key), key, value, remappingFunction);
+    }
+
+    public static final class Builder<K, V> {
+        private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+        private float loadFactor = DEFAULT_LOAD_FACTOR;
+        private Storage storage = Storage.CHAINED;
+        private HashMixing hashMixing = HashMixing.SPREAD;
+        private int concurrencyLevel = AbstractStore.DEFAULT_CONCURRENCY_LEVEL;
+        private Locking locking = Locking.READ_WRITE;
+        private DarvinCodec<K> keyCodec;
+        private DarvinCodec<V> valueCodec;
+        private long maximumWeight = -1;
+        private ToIntBiFunction<? super K, ? super V> weigher;
+        private BiConsumer<? super K, ? super V> evictionListener;
+        private long expireAfterWrite = CacheStore.NEVER;
+        private long expireAfterAccess = CacheStore.NEVER;
+        private LongSupplier ticker = System::nanoTime;
+        private boolean recordStats;
+        private boolean indexValues;
+        private Path logDirectory;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.ALWAYS;
+        private long checkpointLogSize = DEFAULT_CHECKPOINT_LOG_SIZE;
+
+        private Builder() {
+        }
+
+        /** Number of mappings the map should hold before its first resize. */
+        public Builder<K, V> initialCapacity(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        public Builder<K, V> loadFactor(float loadFactor) {
+            this.loadFactor = loadFactor;
+            return this;
+        }
+
+        public Builder<K, V> storage(Storage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        public Builder<K, V> hashMixing(HashMixing hashMixing) {
+            this.hashMixing = hashMixing;
+            return this;
+        }
+
+        /**
+         * Number of lock stripes, rounded up to a power of two, or of segments for the open
+         * addressing and off-heap layouts. It is independent of the table size, except that a
+         * chained map never has more stripes than initial buckets, and ignored by
+         * {@link Locking#MONITOR}. Defaults to four per processor, and at least 16.
+         */
+        public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel <= 0) {
+                throw new IllegalArgumentException("Illegal concurrency level: " + concurrencyLevel);
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        public Builder<K, V> locking(Locking locking) {
+            this.locking = locking;
+            return this;
+        }
+
+        /** Serializes keys for {@link Storage#OFF_HEAP} and {@link #writeAheadLog}; otherwise ignored. */
+        public Builder<K, V> keyCodec(DarvinCodec<K> keyCodec) {
+            this.keyCodec = keyCodec;
+            return this;
+        }
+
+        /** Serializes values for {@link Storage#OFF_HEAP} and {@link #writeAheadLog}; otherwise ignored. */
+        public Builder<K, V> valueCodec(DarvinCodec<V> valueCodec) {
+            this.valueCodec = valueCodec;
+            return this;
+        }
+
+        /**
+         * Turns the map into a bounded cache of at most maximumSize mappings. When a write
+         * pushes it past the bound, the map evicts by W-TinyLFU: recently added mappings sit
+         * in a small LRU window, and one leaving the window only displaces the least recently
+         * used of the rest if it has been used more often, judged by a compact frequency
+         * sketch. Reads record their access in a lossy buffer that is replayed by writers, so
+         * they stay free of locks. The bound is restored after each write but may be exceeded
+         * briefly while other threads' writes are still queued. Not available for
+         * {@link Storage#OFF_HEAP}.
+         */
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("Illegal maximum size: " + maximumSize);
+            }
+            this.maximumWeight = maximumSize;
+            this.weigher = null;
+            return this;
+        }
+
+        /**
+         * Like {@link #maximumSize} but bounds the sum of the weigher's results over all
+         * mappings. A mapping is weighed each time its value changes, and its weight must not
+         * be negative.
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+            if (maximumWeight < 0) {
+                throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            this.weigher = Objects.requireNonNull(weigher);
+            return this;
+        }
+
+        /**
+         * Expires each mapping once the given time has passed since its value was last
+         * set. Expired mappings vanish from reads at once; they are purged in batches by a
+         * timer wheel as the map is used, and until then still count towards
+         * {@link #size()}. Call {@link DarvinHashMap#cleanUp()} to purge an idle map. Not
+         * available for {@link Storage#OFF_HEAP}.
+         */
+        public Builder<K, V> expireAfterWrite(Duration duration) {
+            this.expireAfterWrite = toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Like {@link #expireAfterWrite} but also counts reads as use, so that only mappings
+         * idle for the given time expire. May be combined with expireAfterWrite; the earlier
+         * deadline wins.
+         */
+        public Builder<K, V> expireAfterAccess(Duration duration) {
+            this.expireAfterAccess = toNanos(duration);
+            return this;
+        }
+
+        private static long toNanos(Duration duration) {
+            if (duration.isNegative()) {
+                throw new IllegalArgumentException("Negative duration: " + duration);
+            }
+            return duration.compareTo(Duration.ofNanos(CacheStore.NEVER)) >= 0 ? CacheStore.NEVER : duration.toNanos();
+        }
+
+        /** Source of nanosecond time for expiry, {@link System#nanoTime()} by default. */
+        public Builder<K, V> ticker(LongSupplier ticker) {
+            this.ticker = Objects.requireNonNull(ticker);
+            return this;
+        }
+
+        /**
+         * Called with each mapping a bounded or expiring map evicts or expires, on the thread
+         * that purged it and after the mapping is gone. Explicit removals are not reported.
+         */
+        public Builder<K, V> evictionListener(BiConsumer<? super K, ? super V> evictionListener) {
+            this.evictionListener = evictionListener;
+            return this;
+        }
+
+        /**
+         * Makes the map count lookup hits and misses and time the waits for its stripe
+         * locks, as reported by {@link DarvinHashMap#stats()}. Waits of 10 ms and longer are
+         * also recorded as Flight Recorder events named {@code org.UlGTU.LockContention}.
+         * Counters are striped, but every lookup and lock still touches one, so maps that do
+         * not need them should leave this off. Under {@link Locking#MONITOR} there are no
+         * stripe locks to count; monitor waits show up as {@code jdk.JavaMonitorEnter} events.
+         */
+        public Builder<K, V> recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Makes the map keep an index from each value to the keys mapped to it, so that
+         * {@link DarvinHashMap#containsValue} takes constant time and
+         * {@link DarvinHashMap#keysForValue} does not scan. Every write updates the index
+         * under the lock of its key, along with the bucket. That costs about two more
+         * ConcurrentHashMap updates per write and keeps every distinct value on the heap,
+         * even with off-heap storage. Values must keep their hash codes while mapped. Not
+         * available for bounded or expiring maps.
+         */
+        public Builder<K, V> indexValues() {
+            this.indexValues = true;
+            return this;
+        }
+
+        /**
+         * Makes the map durable: every change is appended to a write-ahead log in directory,
+         * through the key and value codecs, and a write returns once the log has committed it
+         * under fsyncPolicy. One writer thread commits the changes of all threads waiting at
+         * the time together, so a write costs about one batch's flush rather than an fsync
+         * of its own. The map built first replays the newest checkpoint and the logs after
+         * it, so only one live map may use a directory at a time. Not available for bounded
+         * or expiring maps.
+         *
+         * @see DarvinHashMap#checkpoint()
+         * @see DarvinHashMap#closeLog()
+         */
+        public Builder<K, V> writeAheadLog(Path directory, FsyncPolicy fsyncPolicy) {
+            this.logDirectory = Objects.requireNonNull(directory);
+            this.fsyncPolicy = Objects.requireNonNull(fsyncPolicy);
+            return this;
+        }
+
+        /**
+         * How many bytes a durable map logs before it writes a checkpoint in the background,
+         * 64 MiB by default. Smaller sizes make reopening faster and cost more snapshots.
+         */
+        public Builder<K, V> checkpointLogSize(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Illegal checkpoint log size: " + bytes);
             }
-        } finally {
-            writeLock.unlock();
+            this.checkpointLogSize = bytes;
+            return this;
+        }
+
+        /**
+         * Builds the map; a durable map first recovers the contents of its log directory.
+         *
+         * @throws UncheckedIOException if the log directory cannot be read
+         */
+        public DarvinHashMap<K, V> build() {
+            return new DarvinHashMap<>(this);
+        }
+    }
+
+    // Turns a store cursor into an iterator; remove() deletes the last key through the map.
+    private abstract class ViewIterator<E> implements Iterator<E> {
+        private final AbstractStore.Cursor<K, V> cursor = store.cursor();
+        private boolean advanced;
+        private boolean hasNext;
+        private K lastKey;
+
+        @Override
+        public boolean hasNext() {
+            if (!advanced) {
+                hasNext = cursor.advance();
+                advanced = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            advanced = false;
+            lastKey = cursor.key;
+            return element(cursor.key, cursor.value);
+        }
+
+        abstract E element(K key, V value);
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            DarvinHashMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    /**
+     * Splits by handing half of the remaining cursor range to a new spliterator, so parallel
+     * streams work on the map itself. The size is an estimate halved on every split: a map
+     * that changes during traversal cannot promise SIZED, which the Spliterator contract
+     * rules out together with CONCURRENT. DISTINCT is up to the caller, and holds for keys and
+     * entries because no cursor returns a key twice.
+     */
+    private static final class ViewSpliterator<K, V, E> implements Spliterator<E> {
+        private final AbstractStore.Cursor<K, V> cursor;
+        private long estimate;
+        private final int characteristics;
+        private final BiFunction<K, V, E> element;
+
+        ViewSpliterator(AbstractStore.Cursor<K, V> cursor, long estimate, int characteristics,
+                        BiFunction<K, V, E> element) {
+            this.cursor = cursor;
+            this.estimate = estimate;
+            this.characteristics = characteristics | Spliterator.CONCURRENT | Spliterator.NONNULL;
+            this.element = element;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            if (!cursor.advance()) {
+                return false;
+            }
+            action.accept(element.apply(cursor.key, cursor.value));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            while (cursor.advance()) {
+                action.accept(element.apply(cursor.key, cursor.value));
+            }
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            AbstractStore.Cursor<K, V> half = cursor.split();
+            return half == null ? null : new ViewSpliterator<>(half, estimate >>>= 1, characteristics, element);
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics;
+        }
+    }
+
+    private final class KeySetView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new ViewIterator<>() {
+                @Override
+                K element(K key, V value) {
+                    return key;
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<K> spliterator() {
+            return new ViewSpliterator<>(store.cursor(), mappingCount(), Spliterator.DISTINCT, (k, v) -> k);
+        }
+
+        @Override
+        public int size() {
+            return DarvinHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return DarvinHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return DarvinHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return DarvinHashMap.this.removeAll(c) > 0;
+        }
+
+        @Override
+        public void clear() {
+            DarvinHashMap.this.clear();
+        }
+    }
+
+    private final class ValuesView extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ViewIterator<>() {
+                @Override
+                V element(K key, V value) {
+                    return value;
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return new ViewSpliterator<>(store.cursor(), mappingCount(), 0, (k, v) -> v);
+        }
+
+        @Override
+        public int size() {
+            return DarvinHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return DarvinHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            DarvinHashMap.this.clear();
+        }
+    }
+
+    private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new ViewIterator<>() {
+                @Override
+                Map.Entry<K, V> element(K key, V value) {
+                    return new Entry(key, value);
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return new ViewSpliterator<>(store.cursor(), mappingCount(), Spliterator.DISTINCT, Entry::new);
+        }
+
+        @Override
+        public int size() {
+            return DarvinHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return DarvinHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Object key = entry.getKey();
+            Object value = entry.getValue();
+            return key != null && value != null && value.equals(get(key));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return entry.getKey() != null && DarvinHashMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            DarvinHashMap.this.clear();
+        }
+    }
+
+    private final class StatsBean implements DarvinMapStatsMXBean {
+        @Override
+        public long getSize() {
+            return mappingCount();
+        }
+
+        @Override
+        public long getHitCount() {
+            return stats != null ? stats.hits.sum() : 0;
+        }
+
+        @Override
+        public long getMissCount() {
+            return stats != null ? stats.misses.sum() : 0;
+        }
+
+        @Override
+        public double getHitRate() {
+            long hits = getHitCount();
+            long lookups = hits + getMissCount();
+            return lookups == 0 ? 1.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public long getLockAcquisitions() {
+            return stats != null ? stats.lockAcquisitions.sum() : 0;
+        }
+
+        @Override
+        public long getContendedLockAcquisitions() {
+            return stats != null ? stats.contendedLockAcquisitions.sum() : 0;
+        }
+
+        @Override
+        public long getLockWaitNanos() {
+            return stats != null ? stats.lockWaitNanos.sum() : 0;
+        }
+
+        @Override
+        public long getResizeCount() {
+            return store.resizeCount();
+        }
+
+        @Override
+        public long[] getChainLengthHistogram() {
+            return store.chainLengthHistogram();
         }
     }
 
-    private static class Entry<K, V> implements Map.Entry<K, V> {
+    // Entries handed out by entrySet(); setValue writes through to the map.
+    private final class Entry implements Map.Entry<K, V> {
         private final K key;
         private V value;
 
-        public Entry(K key, V value) {
+        Entry(K key, V value) {
             this.key = key;
             this.value = value;
         }
@@ -486,6 +1439,7 @@ public class DarvinHashMap<K, V> implements Map<K, V> {
         @Override
         public V setValue(V value) {
             V oldValue = this.value;
+            put(key, value);
             this.value = value;
             return oldValue;
         }
@@ -493,14 +1447,14 @@ public class DarvinHashMap<K, V> implements Map<K, V> {
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Entry<?, ?> entry = (Entry<?, ?>) o;
-            return Objects.equals(key, entry.key) && Objects.equals(value, entry.value);
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(key, value);
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
         }
     }
 }
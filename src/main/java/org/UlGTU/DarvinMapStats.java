@@ -0,0 +1,85 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+
+/**
+ * Point-in-time statistics of a {@link DarvinHashMap}, returned by
+ * {@link DarvinHashMap#stats()}. Hits, misses and lock counters stay at zero unless the map
+ * was built with {@link DarvinHashMap.Builder#recordStats()}; resize counts and the chain
+ * length histogram are always available. Counters are read one after another while the
+ * map may be changing, so they need not add up exactly.
+ */
+public final class DarvinMapStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long lockAcquisitions;
+    private final long contendedLockAcquisitions;
+    private final long lockWaitNanos;
+    private final long resizeCount;
+    private final long[] chainLengthHistogram;
+
+    DarvinMapStats(long hitCount, long missCount, long lockAcquisitions, long contendedLockAcquisitions,
+                   long lockWaitNanos, long resizeCount, long[] chainLengthHistogram) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.lockAcquisitions = lockAcquisitions;
+        this.contendedLockAcquisitions = contendedLockAcquisitions;
+        this.lockWaitNanos = lockWaitNanos;
+        this.resizeCount = resizeCount;
+        this.chainLengthHistogram = chainLengthHistogram;
+    }
+
+    /** Lookups by get, getOrDefault and getAll that found a value. */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /** Lookups by get, getOrDefault and getAll that found nothing. */
+    public long missCount() {
+        return missCount;
+    }
+
+    /** Hits divided by all lookups, or 1 if there were none. */
+    public double hitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+    }
+
+    /** Stripe locks taken by lookups and writes of single keys and batches. */
+    public long lockAcquisitions() {
+        return lockAcquisitions;
+    }
+
+    /** Lock acquisitions that had to wait because another thread held the stripe. */
+    public long contendedLockAcquisitions() {
+        return contendedLockAcquisitions;
+    }
+
+    /** Total time threads spent waiting for stripe locks, in nanoseconds. */
+    public long lockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /** How many times the table, or one of its segments, has grown. */
+    public long resizeCount() {
+        return resizeCount;
+    }
+
+    /**
+     * Element i counts the buckets holding i entries, with the last element counting all
+     * longer chains too. For open addressing and off-heap maps, element i &gt; 0 counts the
+     * entries found after i probes and element 0 counts the empty slots. A heavy tail means
+     * a bad key distribution or hash mixing.
+     */
+    public long[] chainLengthHistogram() {
+        return chainLengthHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "DarvinMapStats{hitCount=" + hitCount + ", missCount=" + missCount
+                + ", lockAcquisitions=" + lockAcquisitions + ", contendedLockAcquisitions=" + contendedLockAcquisitions
+                + ", lockWaitNanos=" + lockWaitNanos + ", resizeCount=" + resizeCount
+                + ", chainLengthHistogram=" + Arrays.toString(chainLengthHistogram) + '}';
+    }
+}
@@ -0,0 +1,26 @@
+package org.UlGTU;
+
+/**
+ * JMX view of {@link DarvinMapStats}, registered by {@link DarvinHashMap#registerMBean}.
+ * Each attribute is read from the map when it is requested.
+ */
+public interface DarvinMapStatsMXBean {
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLockAcquisitions();
+
+    long getContendedLockAcquisitions();
+
+    long getLockWaitNanos();
+
+    long getResizeCount();
+
+    /** Walks the whole table, so it costs as much as a scan of the map. */
+    long[] getChainLengthHistogram();
+}
@@ -0,0 +1,223 @@
+package org.UlGTU;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A consumer of the changes to a {@link DarvinHashMap}, returned by
+ * {@link DarvinHashMap#subscribe}. Writers put each change into a bounded ring buffer with
+ * one CAS, waking the delivering thread only if it sleeps; that thread hands the consumer
+ * everything buffered at once, so a busy map costs one call per batch rather than per
+ * change. Changes arrive in the order they were made, except that under
+ * {@link DarvinHashMap.Backpressure#COALESCE} only the changes to one key keep their order.
+ */
+public final class DarvinSubscription<K, V> implements AutoCloseable {
+    // How long a writer under BLOCK sleeps between attempts on a full buffer.
+    private static final long BLOCK_PARK_NANOS = 10_000;
+
+    private final ChangeFeed<K, V> feed;
+    private final Consumer<? super List<DarvinChangeEvent<K, V>>> consumer;
+    private final DarvinHashMap.Backpressure backpressure;
+    private final AtomicReferenceArray<DarvinChangeEvent<K, V>> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Written only by the delivering thread.
+    private volatile long head;
+    // Under COALESCE, the changes that found the buffer full, merged per key; null otherwise.
+    private final ConcurrentHashMap<K, Pending<K, V>> pending;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread dispatcher;
+    // Set by the delivering thread just before it parks, so writers skip the unpark otherwise.
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    private DarvinSubscription(ChangeFeed<K, V> feed, Consumer<? super List<DarvinChangeEvent<K, V>>> consumer,
+                               int bufferSize, DarvinHashMap.Backpressure backpressure) {
+        this.feed = feed;
+        this.consumer = consumer;
+        this.backpressure = backpressure;
+        int capacity = AbstractStore.tableSizeFor(bufferSize);
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.pending = backpressure == DarvinHashMap.Backpressure.COALESCE ? new ConcurrentHashMap<>() : null;
+        this.dispatcher = Thread.ofPlatform().name("DarvinHashMap-events").daemon().unstarted(this::run);
+    }
+
+    static <K, V> DarvinSubscription<K, V> start(ChangeFeed<K, V> feed,
+                                                 Consumer<? super List<DarvinChangeEvent<K, V>>> consumer,
+                                                 int bufferSize, DarvinHashMap.Backpressure backpressure) {
+        DarvinSubscription<K, V> subscription = new DarvinSubscription<>(feed, consumer, bufferSize, backpressure);
+        feed.add(subscription);
+        subscription.dispatcher.start();
+        return subscription;
+    }
+
+    /** Called by writers under the lock of the changed key. */
+    void offer(DarvinChangeEvent<K, V> event) {
+        if (closed) {
+            return;
+        }
+        if (pending != null && pending.containsKey(event.key())) {
+            // A change behind one that waits in pending must not overtake it through the buffer.
+            coalesce(event);
+        } else if (!tryOffer(event)) {
+            switch (backpressure) {
+                case DROP -> {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                case COALESCE -> coalesce(event);
+                default -> {
+                    do {
+                        if (closed) {
+                            dropped.incrementAndGet();
+                            return;
+                        }
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    } while (!tryOffer(event));
+                }
+            }
+        }
+        if (idle) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private boolean tryOffer(DarvinChangeEvent<K, V> event) {
+        for (;;) {
+            long t = tail.get();
+            if (t - head > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                // A volatile write, so the delivering thread either sees it or is seen idle.
+                slots.set((int) t & mask, event);
+                return true;
+            }
+        }
+    }
+
+    private void coalesce(DarvinChangeEvent<K, V> event) {
+        // Every earlier change to the key sits in the buffer before this position.
+        long position = tail.get();
+        pending.compute(event.key(), (key, earlier) -> {
+            if (earlier == null) {
+                return new Pending<>(event, position);
+            }
+            dropped.incrementAndGet();
+            V oldValue = earlier.event.oldValue();
+            if (oldValue == null && event.newValue() == null) {
+                // Added and removed again before anyone saw it.
+                dropped.incrementAndGet();
+                return null;
+            }
+            return new Pending<>(new DarvinChangeEvent<>(key, oldValue, event.newValue()), earlier.position);
+        });
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                List<DarvinChangeEvent<K, V>> batch = drain();
+                if (!batch.isEmpty()) {
+                    consumer.accept(batch);
+                } else if (isEmpty()) {
+                    if (closed) {
+                        return;
+                    }
+                    idle = true;
+                    if (isEmpty() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    // A writer claimed a slot and is about to fill it.
+                    Thread.onSpinWait();
+                }
+            }
+        } finally {
+            closed = true;
+            feed.remove(this);
+        }
+    }
+
+    private boolean isEmpty() {
+        return tail.get() == head && (pending == null || pending.isEmpty());
+    }
+
+    private List<DarvinChangeEvent<K, V>> drain() {
+        List<DarvinChangeEvent<K, V>> batch = new ArrayList<>();
+        long h = head;
+        long limit = Math.min(tail.get(), h + slots.length());
+        for (; h < limit; h++) {
+            int index = (int) h & mask;
+            DarvinChangeEvent<K, V> event = slots.get(index);
+            if (event == null) {
+                break;
+            }
+            slots.setRelease(index, null);
+            batch.add(event);
+        }
+        head = h;
+        if (pending != null && !pending.isEmpty()) {
+            for (Map.Entry<K, Pending<K, V>> entry : pending.entrySet()) {
+                Pending<K, V> p = entry.getValue();
+                // Only once every change to the key before it has been taken from the buffer.
+                if (p.position <= h && pending.remove(entry.getKey(), p)) {
+                    batch.add(p.event);
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Changes the consumer never saw on their own: discarded under
+     * {@link DarvinHashMap.Backpressure#DROP}, merged into a later change to the same key
+     * under {@link DarvinHashMap.Backpressure#COALESCE}, or still waiting for room when the
+     * subscription was closed.
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    /** Whether the subscription was closed, or its consumer threw. */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops the subscription once the changes published so far are delivered, and waits for
+     * that unless called by the consumer itself. Writers waiting for room give up.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        feed.remove(this);
+        LockSupport.unpark(dispatcher);
+        if (Thread.currentThread() != dispatcher) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // A change waiting for room, delivered once the buffer has passed position.
+    private static final class Pending<K, V> {
+        final DarvinChangeEvent<K, V> event;
+        final long position;
+
+        Pending(DarvinChangeEvent<K, V> event, long position) {
+            this.event = event;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.UlGTU;
+
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Front of a durable map's engine. The engine appends every change to the
+ * {@link WriteAheadLog} itself, under the lock of the changed key; this store only makes
+ * each write wait until the log has committed it, after that lock is released, so that
+ * writers on other keys can join the same batch meanwhile.
+ */
+final class DurableStore<K, V> extends AbstractStore<K, V> {
+    private final AbstractStore<K, V> engine;
+    private final WriteAheadLog<K, V> wal;
+
+    DurableStore(AbstractStore<K, V> engine, WriteAheadLog<K, V> wal) {
+        this.engine = engine;
+        this.wal = wal;
+        // Read by the map for equals, hashCode, subscribe and value lookups; the engine keeps
+        // them up to date.
+        this.digest = engine.digest;
+        this.feed = engine.feed;
+        this.valueIndex = engine.valueIndex;
+    }
+
+    @Override
+    V get(int hash, Object key) {
+        return engine.get(hash, key);
+    }
+
+    @Override
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        wal.checkOpen();
+        V result = engine.mutate(op, hash, key, value, arg);
+        wal.await();
+        return result;
+    }
+
+    @Override
+    void mutateAll(int op, int[] hashes, Object[] keys, Object[] values, Object[] results, int n) {
+        wal.checkOpen();
+        engine.mutateAll(op, hashes, keys, values, results, n);
+        wal.await();
+    }
+
+    @Override
+    void getAll(int[] hashes, Object[] keys, Object[] results, int n) {
+        engine.getAll(hashes, keys, results, n);
+    }
+
+    @Override
+    void ensureCapacity(long mappings) {
+        engine.ensureCapacity(mappings);
+    }
+
+    @Override
+    void recordStats(StatsCounter stats) {
+        super.recordStats(stats);
+        engine.recordStats(stats);
+    }
+
+    @Override
+    long resizeCount() {
+        return engine.resizeCount();
+    }
+
+    @Override
+    long[] chainLengthHistogram() {
+        return engine.chainLengthHistogram();
+    }
+
+    @Override
+    long mappingCount() {
+        return engine.mappingCount();
+    }
+
+    @Override
+    void clear() {
+        wal.checkOpen();
+        engine.clear();
+        wal.await();
+    }
+
+    @Override
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        return engine.scan(visitor);
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        wal.checkOpen();
+        engine.replaceAll(function);
+        wal.await();
+    }
+
+    // A view is read-only, so it needs no log.
+    @Override
+    AbstractStore<K, V> snapshot() {
+        return engine.snapshot();
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        return engine.cursor();
+    }
+}
@@ -0,0 +1,73 @@
+package org.UlGTU;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often each hash was seen recently, as
+ * used by TinyLFU admission. Each hash maps to one counter in each of four rows; its
+ * frequency is the smallest of them. Once the number of increments reaches ten times the
+ * table size every counter is halved, so past popularity fades. Not thread-safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    // Clears the bit each counter receives from its neighbour when a word is shifted right.
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 22;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long expectedEntries) {
+        table = new long[AbstractStore.tableSizeFor(Math.max(8, Math.min(expectedEntries, MAXIMUM_TABLE_SIZE)))];
+        sampleSize = 10 * table.length;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    // A word holds 16 counters; the low hash bits pick a group of four, one per row.
+    private static int offsetOf(int hash, int row) {
+        return (((hash & 3) << 2) + row) << 2;
+    }
+
+    int frequency(int hash) {
+        hash = spread(hash);
+        int frequency = 15;
+        for (int row = 0; row < 4; row++) {
+            int count = (int) (table[indexOf(hash, row)] >>> offsetOf(hash, row)) & 15;
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        hash = spread(hash);
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            int index = indexOf(hash, row);
+            long mask = 15L << offsetOf(hash, row);
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offsetOf(hash, row);
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+}
@@ -0,0 +1,185 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Read-only view of a {@link ChainedStore} as it was at one instant, behind
+ * {@link DarvinHashMap#snapshot()}. Taking a view copies nothing; instead the first writer
+ * to change a bucket afterwards, or to migrate it in a resize, first copies the bucket into
+ * the newest view, under the bucket's lock. A view reads its own copy of a bucket, else the
+ * copy of the next newer view and so on, since a bucket nobody changed between two views
+ * looks the same in both, and else the live bucket, which nobody changed since.
+ * <p>
+ * The store holds the newest view weakly and every view holds the next newer one, so
+ * copies live exactly as long as some view that can read them, and writers stop copying
+ * once nobody holds a view.
+ */
+final class FrozenStore<K, V> extends AbstractStore<K, V> {
+    private static final Object[] EMPTY = new Object[0];
+
+    final ChainedStore.Table<K, V> table;
+    // Bucket i as it was when the view was taken, as keys and values in turn, copied by the
+    // first writer to change it; null while the bucket is unchanged.
+    final AtomicReferenceArray<Object[]> copies;
+    // Set when the next view is taken while this one is still reachable.
+    volatile FrozenStore<K, V> newer;
+    private final long count;
+
+    // Called with every stripe lock of the store held, so count and digest are exact.
+    FrozenStore(ChainedStore.Table<K, V> table, long count, ContentDigest digest) {
+        this.table = table;
+        this.copies = new AtomicReferenceArray<>(table.buckets.length);
+        this.count = count;
+        this.digest = digest;
+    }
+
+    /** Copies the mappings of a live bucket head, which may be a tree bin, into keys and values in turn. */
+    static Object[] copyOf(ChainedStore.Node<?, ?> head) {
+        // A migrated bucket is always copied before it is marked, so its copy is used instead.
+        ChainedStore.Node<?, ?> chain = head == ChainedStore.MOVED ? null : ChainedStore.chainOf(head);
+        if (chain == null) {
+            return EMPTY;
+        }
+        int n = 0;
+        for (ChainedStore.Node<?, ?> e = chain; e != null; e = e.next) {
+            n++;
+        }
+        Object[] copy = new Object[n << 1];
+        int i = 0;
+        // A concurrent writer may change the chain while it is read; callers then discard the
+        // copy for the one that writer made, so only the bounds need guarding here.
+        for (ChainedStore.Node<?, ?> e = chain; e != null && i < copy.length; e = e.next) {
+            copy[i++] = e.key;
+            copy[i++] = e.value;
+        }
+        return i == copy.length ? copy : Arrays.copyOf(copy, i);
+    }
+
+    // The copy that holds bucket index as of this view, or null if the bucket is unchanged.
+    private Object[] copyAt(int index) {
+        for (FrozenStore<K, V> v = this; ; ) {
+            Object[] copy = v.copies.get(index);
+            if (copy != null) {
+                return copy;
+            }
+            // After a resize the table was copied whole into the older view.
+            FrozenStore<K, V> next = v.newer;
+            if (next == null || next.table != table) {
+                return null;
+            }
+            v = next;
+        }
+    }
+
+    // Reads the live bucket before looking for copies: a writer copies a bucket before it
+    // changes it, so if the read saw any change, the copy is found afterwards.
+    private Object[] bucket(int index) {
+        Object[] live = copyOf(ChainedStore.bucketAt(table.buckets, index));
+        Object[] copy = copyAt(index);
+        return copy != null ? copy : live;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V get(int hash, Object key) {
+        int index = hash & (table.buckets.length - 1);
+        V value = ChainedStore.find(ChainedStore.bucketAt(table.buckets, index), hash, key);
+        Object[] copy = copyAt(index);
+        if (copy == null) {
+            return value;
+        }
+        for (int i = 0; i < copy.length; i += 2) {
+            if (copy[i].equals(key)) {
+                return (V) copy[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        throw new UnsupportedOperationException("A snapshot is read-only");
+    }
+
+    @Override
+    long mappingCount() {
+        return count;
+    }
+
+    @Override
+    void clear() {
+        throw new UnsupportedOperationException("A snapshot is read-only");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        for (int i = 0; i < table.buckets.length; i++) {
+            Object[] bucket = bucket(i);
+            for (int j = 0; j < bucket.length; j += 2) {
+                if (visitor.test((K) bucket[j], (V) bucket[j + 1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        throw new UnsupportedOperationException("A snapshot is read-only");
+    }
+
+    // Already frozen.
+    @Override
+    AbstractStore<K, V> snapshot() {
+        return this;
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        return new BucketCursor(0, table.buckets.length);
+    }
+
+    private final class BucketCursor extends Cursor<K, V> {
+        private int index;
+        private int limit;
+        private Object[] bucket = EMPTY;
+        private int position;
+
+        BucketCursor(int index, int limit) {
+            this.index = index;
+            this.limit = limit;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            while (position >= bucket.length) {
+                if (index >= limit) {
+                    return false;
+                }
+                bucket = bucket(index++);
+                position = 0;
+            }
+            key = (K) bucket[position];
+            value = (V) bucket[position + 1];
+            position += 2;
+            return true;
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            int middle = (index + limit) >>> 1;
+            if (middle <= index) {
+                return null;
+            }
+            BucketCursor rest = new BucketCursor(middle, limit);
+            limit = middle;
+            return rest;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.UlGTU;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Prints how Integer keys spread over a power-of-two bucket table for each hash mixing
+ * mode, next to the raw hash code used before mixing existed. Key sets: the sequential
+ * keys that {@link Main} inserts and the same number of keys spaced 1024 apart.
+ */
+public class HashDistribution {
+    private static final int KEYS = 1000000;
+
+    public static void main(String[] args) {
+        int capacity = AbstractStore.tableSizeFor((long) (KEYS / 0.75f) + 1);
+        int seed = ThreadLocalRandom.current().nextInt();
+        System.out.println("Бакетов: " + capacity + ", ключей: " + KEYS);
+        for (int stride : new int[]{1, 1024}) {
+            System.out.println("Ключи с шагом " + stride + ":");
+            report("  RAW   ", capacity, stride, h -> h);
+            for (DarvinHashMap.HashMixing mixing : DarvinHashMap.HashMixing.values()) {
+                report("  " + String.format("%-6s", mixing), capacity, stride, h -> mixing.mix(h, seed));
+            }
+        }
+    }
+
+    private static void report(String label, int capacity, int stride, IntUnaryOperator mix) {
+        int[] counts = new int[capacity];
+        for (int i = 0; i < KEYS; i++) {
+            int h = mix.applyAsInt(Integer.valueOf(i * stride).hashCode()) & 0x7fffffff;
+            counts[h & (capacity - 1)]++;
+        }
+        int used = 0;
+        int longest = 0;
+        long probes = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                used++;
+                longest = Math.max(longest, count);
+                // Comparisons needed to find every key of the bucket once.
+                probes += (long) count * (count + 1) / 2;
+            }
+        }
+        System.out.printf("%s занято бакетов: %7d, самая длинная цепочка: %6d, сравнений на поиск: %.2f%n",
+                label, used, longest, (double) probes / KEYS);
+    }
+}
@@ -0,0 +1,327 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.UlGTU.PrimitiveHashing.*;
+
+/**
+ * A concurrent map from {@code int} keys to {@code int} values with no boxing at all. Absent
+ * keys read as {@link #noEntryValue()}, 0 unless configured otherwise; use
+ * {@link #containsKey} to tell an absent key from a stored one.
+ */
+public class IntIntDarvinMap {
+    private final Segment[] segments;
+    private final int noEntryValue;
+
+    public IntIntDarvinMap() {
+        this(16, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    public IntIntDarvinMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    public IntIntDarvinMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, 0);
+    }
+
+    public IntIntDarvinMap(int initialCapacity, float loadFactor, int noEntryValue) {
+        float segmentLoadFactor = checkLoadFactor(initialCapacity, loadFactor);
+        int capacity = segmentCapacity(initialCapacity, segmentLoadFactor);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity, segmentLoadFactor);
+        }
+        this.noEntryValue = noEntryValue;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    public int noEntryValue() {
+        return noEntryValue;
+    }
+
+    public int size() {
+        long n = 0;
+        for (Segment segment : segments) {
+            n += segment.count;
+        }
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int get(int key) {
+        return getOrDefault(key, noEntryValue);
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock readLock = segment.readLock();
+        readLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            return slot >= 0 ? segment.valueAt(slot) : defaultValue;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public boolean containsKey(int key) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock readLock = segment.readLock();
+        readLock.lock();
+        try {
+            return segment.find(key, hash) >= 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Maps key to value and returns the previous value, or {@link #noEntryValue()} if there
+     * was none.
+     */
+    public int put(int key, int value) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                int oldValue = segment.valueAt(slot);
+                segment.setValueAt(slot, value);
+                return oldValue;
+            }
+            segment.insertAt(slot, key, value);
+            return noEntryValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int putIfAbsent(int key, int value) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                return segment.valueAt(slot);
+            }
+            segment.insertAt(slot, key, value);
+            return noEntryValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds delta to the value of key, treating an absent key as {@link #noEntryValue()},
+     * and returns the new value.
+     */
+    public int addTo(int key, int delta) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                int newValue = segment.valueAt(slot) + delta;
+                segment.setValueAt(slot, newValue);
+                return newValue;
+            }
+            segment.insertAt(slot, key, noEntryValue + delta);
+            return noEntryValue + delta;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int remove(int key) {
+        int hash = mix(key);
+        Segment segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot < 0) {
+                return noEntryValue;
+            }
+            int oldValue = segment.valueAt(slot);
+            segment.removeAt(slot);
+            return oldValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                Arrays.fill(segment.keys, 0);
+                segment.hasZeroKey = false;
+                segment.count = 0;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    public void forEach(IntIntConsumer action) {
+        Objects.requireNonNull(action);
+        for (Segment segment : segments) {
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                if (segment.hasZeroKey) {
+                    action.accept(0, segment.zeroValue);
+                }
+                for (int i = 0; i < segment.keys.length; i++) {
+                    if (segment.keys[i] != 0) {
+                        action.accept(segment.keys[i], segment.values[i]);
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+
+    // Key 0 marks a free slot, so the zero key lives outside the table of whichever segment
+    // it hashes to. Slot ZERO_SLOT stands for it in find/insertAt/removeAt.
+    private static final class Segment {
+        private static final int ZERO_SLOT = Integer.MAX_VALUE;
+
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final float loadFactor;
+        int[] keys;
+        int[] values;
+        boolean hasZeroKey;
+        int zeroValue;
+        // Written under the write lock, read without it by size().
+        volatile int count;
+        int threshold;
+
+        Segment(int capacity, float loadFactor) {
+            this.loadFactor = loadFactor;
+            allocate(capacity);
+        }
+
+        Lock readLock() {
+            return lock.readLock();
+        }
+
+        Lock writeLock() {
+            return lock.writeLock();
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            threshold = threshold(capacity, loadFactor);
+        }
+
+        private int home(int hash) {
+            return (hash >>> SEGMENT_BITS) & (keys.length - 1);
+        }
+
+        int valueAt(int slot) {
+            return slot == ZERO_SLOT ? zeroValue : values[slot];
+        }
+
+        void setValueAt(int slot, int value) {
+            if (slot == ZERO_SLOT) {
+                zeroValue = value;
+            } else {
+                values[slot] = value;
+            }
+        }
+
+        // Returns the slot of the key, or -(first free slot of its run + 1) if it is absent.
+        int find(int key, int hash) {
+            if (key == 0) {
+                return hasZeroKey ? ZERO_SLOT : -ZERO_SLOT - 1;
+            }
+            int mask = keys.length - 1;
+            int slot = home(hash);
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -slot - 1;
+        }
+
+        // Takes the negative result of find.
+        void insertAt(int absent, int key, int value) {
+            int slot = -absent - 1;
+            if (slot == ZERO_SLOT) {
+                hasZeroKey = true;
+                zeroValue = value;
+                count++;
+                return;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++count > threshold) {
+                grow();
+            }
+        }
+
+        void removeAt(int slot) {
+            count--;
+            if (slot == ZERO_SLOT) {
+                hasZeroKey = false;
+                return;
+            }
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                if (movable(hole, i, home(mix(keys[i])))) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            if (oldKeys.length >= AbstractStore.MAXIMUM_CAPACITY) {
+                return;
+            }
+            allocate(oldKeys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = -find(oldKeys[i], mix(oldKeys[i])) - 1;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
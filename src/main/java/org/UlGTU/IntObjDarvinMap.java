@@ -0,0 +1,113 @@
+package org.UlGTU;
+
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+import static org.UlGTU.PrimitiveHashing.*;
+
+/**
+ * A concurrent map from {@code int} keys to objects that never boxes its keys. Entries live
+ * in flat {@code int[]}/{@code Object[]} arrays split over lock segments, probed linearly;
+ * a slot is free when its value is null, so null values are not allowed.
+ */
+public class IntObjDarvinMap<V> extends PrimitiveObjMap<V> {
+
+    public IntObjDarvinMap() {
+        this(16, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjDarvinMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjDarvinMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor, IntSegment::new);
+    }
+
+    public V get(int key) {
+        return get(key, mix(key));
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public V put(int key, V value) {
+        return put(key, mix(key), value);
+    }
+
+    public V putIfAbsent(int key, V value) {
+        return putIfAbsent(key, mix(key), value);
+    }
+
+    public V computeIfAbsent(int key, IntFunction<? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return computeIfAbsent(key, mix(key), k -> mappingFunction.apply((int) k));
+    }
+
+    public V merge(int key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return merge(key, mix(key), value, remappingFunction);
+    }
+
+    public V remove(int key) {
+        return remove(key, mix(key));
+    }
+
+    public void forEach(IntObjConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        forEachEntry((k, v) -> action.accept((int) k, v));
+    }
+
+    @FunctionalInterface
+    public interface IntObjConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private static final class IntSegment<V> extends Segment<V> {
+        int[] keys;
+
+        IntSegment(int capacity, float loadFactor) {
+            super(loadFactor);
+            allocate(capacity);
+        }
+
+        @Override
+        void allocateKeys(int capacity) {
+            keys = new int[capacity];
+        }
+
+        @Override
+        int find(long key, int hash) {
+            int mask = keys.length - 1;
+            int slot = home(hash);
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -slot - 1;
+        }
+
+        @Override
+        long keyAt(int slot) {
+            return keys[slot];
+        }
+
+        @Override
+        void setKey(int slot, long key) {
+            keys[slot] = (int) key;
+        }
+
+        @Override
+        int hashOf(long key) {
+            return mix((int) key);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.UlGTU;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for a thread that waited for a lock stripe of a map built with
+ * {@link DarvinHashMap.Builder#recordStats()}. Many events on the same stripe point at a hot
+ * key or at keys whose hashes collide.
+ */
+@Name("org.UlGTU.LockContention")
+@Label("DarvinHashMap Lock Contention")
+@Category("DarvinHashMap")
+@Description("A thread waited for another thread to release a lock stripe of a DarvinHashMap")
+@Threshold("10 ms")
+final class LockContentionEvent extends Event {
+    @Label("Map")
+    String map;
+
+    @Label("Stripe")
+    @Description("Index of the lock stripe; the segment index for open addressing and off-heap maps")
+    int stripe;
+}
@@ -0,0 +1,113 @@
+package org.UlGTU;
+
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+import static org.UlGTU.PrimitiveHashing.*;
+
+/**
+ * A concurrent map from {@code long} keys to objects that never boxes its keys. Entries live
+ * in flat {@code long[]}/{@code Object[]} arrays split over lock segments, probed linearly;
+ * a slot is free when its value is null, so null values are not allowed.
+ */
+public class LongObjDarvinMap<V> extends PrimitiveObjMap<V> {
+
+    public LongObjDarvinMap() {
+        this(16, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongObjDarvinMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongObjDarvinMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor, LongSegment::new);
+    }
+
+    public V get(long key) {
+        return get(key, mix(key));
+    }
+
+    public V getOrDefault(long key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        return put(key, mix(key), value);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        return putIfAbsent(key, mix(key), value);
+    }
+
+    public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return computeIfAbsent(key, mix(key), mappingFunction);
+    }
+
+    public V merge(long key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return merge(key, mix(key), value, remappingFunction);
+    }
+
+    public V remove(long key) {
+        return remove(key, mix(key));
+    }
+
+    public void forEach(LongObjConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        forEachEntry(action::accept);
+    }
+
+    @FunctionalInterface
+    public interface LongObjConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final class LongSegment<V> extends Segment<V> {
+        long[] keys;
+
+        LongSegment(int capacity, float loadFactor) {
+            super(loadFactor);
+            allocate(capacity);
+        }
+
+        @Override
+        void allocateKeys(int capacity) {
+            keys = new long[capacity];
+        }
+
+        @Override
+        int find(long key, int hash) {
+            int mask = keys.length - 1;
+            int slot = home(hash);
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -slot - 1;
+        }
+
+        @Override
+        long keyAt(int slot) {
+            return keys[slot];
+        }
+
+        @Override
+        void setKey(int slot, long key) {
+            keys[slot] = key;
+        }
+
+        @Override
+        int hashOf(long key) {
+            return mix(key);
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package org.UlGTU;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Keeps both the hash index and the serialized entries in native memory, so a large map
+ * costs the garbage collector a handful of objects. Like {@link OpenAddressingStore} the
+ * table is split into segments, each probed linearly under its own read/write lock. A
+ * segment index slot holds the stored hash and the offset of its entry in the segment's
+ * data region; entries are {@code [key size][value size][key][value]} appended to that
+ * region, which is compacted into a fresh region once it runs out of room. Regions come from
+ * shared arenas, and closing one makes every JVM thread stop for a handshake: growing an
+ * index or compacting a data region pays that once, amortized over the writes that filled
+ * the old region, while {@link #clear()} keeps the regions and pays nothing.
+ */
+final class OffHeapStore<K, V> extends AbstractStore<K, V> {
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+    private static final float MAX_LOAD_FACTOR = 0.9f;
+    private static final int FULL = 0x80000000;
+    private static final long SLOT_BYTES = 16;
+    private static final long OFFSET_FIELD = 8;
+    private static final long HEADER_BYTES = 8;
+    private static final long MIN_DATA_BYTES = 4096;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final DarvinCodec<K> keyCodec;
+    private final DarvinCodec<V> valueCodec;
+    private final Segment[] segments;
+
+    OffHeapStore(int initialCapacity, float loadFactor, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec,
+                 int concurrencyLevel, DarvinHashMap.Locking locking) {
+        this.keyCodec = Objects.requireNonNull(keyCodec);
+        this.valueCodec = Objects.requireNonNull(valueCodec);
+        float segmentLoadFactor = Math.min(loadFactor, MAX_LOAD_FACTOR);
+        int count = tableSizeFor(concurrencyLevel);
+        int capacity = Math.max(MIN_SEGMENT_CAPACITY,
+                tableSizeFor((long) (initialCapacity / segmentLoadFactor / count) + 1));
+        Segment[] segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(capacity, segmentLoadFactor, newLock(locking));
+        }
+        this.segments = segments;
+        // Native memory is released once the map is unreachable; the action must not hold
+        // on to the store itself.
+        CLEANER.register(this, () -> {
+            for (Segment segment : segments) {
+                segment.free();
+            }
+        });
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (segments.length - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private MemorySegment encodeKey(Object key) {
+        return Codecs.encode(keyCodec, (K) key);
+    }
+
+    private K keyAt(Segment segment, int slot) {
+        long offset = segment.offsetAt(slot);
+        return keyCodec.decode(segment.data, offset + HEADER_BYTES, segment.keySize(offset));
+    }
+
+    private V valueAt(Segment segment, int slot) {
+        long offset = segment.offsetAt(slot);
+        int keySize = segment.keySize(offset);
+        return valueCodec.decode(segment.data, offset + HEADER_BYTES + keySize, segment.valueSize(offset));
+    }
+
+    @Override
+    V get(int hash, Object key) {
+        MemorySegment encodedKey = encodeKey(key);
+        Segment segment = segmentFor(hash);
+        Lock readLock = segment.readLock();
+        lock(readLock, hash & (segments.length - 1));
+        try {
+            int slot = segment.find(hash | FULL, encodedKey);
+            return slot >= 0 ? valueAt(segment, slot) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        MemorySegment encodedKey = encodeKey(key);
+        Segment segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        lock(writeLock, hash & (segments.length - 1));
+        try {
+            int stored = hash | FULL;
+            int slot = segment.find(stored, encodedKey);
+            V oldValue = slot >= 0 ? valueAt(segment, slot) : null;
+            int modCount = segment.modCount;
+            V newValue = remap(op, key, oldValue, value, arg);
+            if (segment.modCount != modCount) {
+                // The function wrote to the segment itself, which may have moved every slot.
+                // Values are decoded afresh on every read, so they are compared by equals.
+                slot = segment.find(stored, encodedKey);
+                if (!Objects.equals(slot >= 0 ? valueAt(segment, slot) : null, oldValue)) {
+                    throw new IllegalStateException("Recursive update");
+                }
+            }
+            if (slot >= 0) {
+                if (newValue == null) {
+                    segment.removeAt(slot);
+                } else if (newValue != oldValue) {
+                    segment.replaceValue(slot, Codecs.encode(valueCodec, newValue));
+                }
+            } else if (newValue != null) {
+                // Appending may compact the data region but never moves index slots, so the
+                // insertion point found above stays valid.
+                long offset = segment.append(encodedKey, Codecs.encode(valueCodec, newValue));
+                segment.insertAt(-slot - 1, stored, offset);
+            }
+            recordChange(key, oldValue, newValue);
+            return returnsNewValue(op) ? newValue : oldValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    long mappingCount() {
+        long n = 0;
+        for (Segment segment : segments) {
+            n += segment.count;
+        }
+        return n;
+    }
+
+    @Override
+    long resizeCount() {
+        long n = 0;
+        for (Segment segment : segments) {
+            n += segment.resizes;
+        }
+        return n;
+    }
+
+    @Override
+    long[] chainLengthHistogram() {
+        long[] histogram = new long[HISTOGRAM_LENGTH];
+        for (Segment segment : segments) {
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                segment.countProbes(histogram);
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    void clear() {
+        for (Segment segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                if (recordsChanges()) {
+                    for (int i = 0; i < segment.capacity; i++) {
+                        if (segment.hashAt(i) != 0) {
+                            recordChange(keyAt(segment, i), valueAt(segment, i), null);
+                        }
+                    }
+                }
+                segment.clear();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        for (Segment segment : segments) {
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                for (int i = 0; i < segment.capacity; i++) {
+                    if (segment.hashAt(i) != 0 && visitor.test(keyAt(segment, i), valueAt(segment, i))) {
+                        return true;
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        for (Segment segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                for (int i = 0; i < segment.capacity; i++) {
+                    if (segment.hashAt(i) != 0) {
+                        K key = keyAt(segment, i);
+                        V oldValue = valueAt(segment, i);
+                        V newValue = Objects.requireNonNull(function.apply(key, oldValue));
+                        segment.replaceValue(i, Codecs.encode(valueCodec, newValue));
+                        recordChange(key, oldValue, newValue);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        return new SegmentCursor(0, segments.length);
+    }
+
+    // Decodes the entries of a segment under its read lock a window of BATCH home slots at a
+    // time, resuming from a mixed hash as OpenAddressingStore's cursor does.
+    private final class SegmentCursor extends Cursor<K, V> {
+        private static final int BATCH = 32;
+        private Object[] keys = new Object[BATCH];
+        private Object[] values = new Object[BATCH];
+        private int segmentIndex;
+        private int segmentLimit;
+        // Unsigned mixed hash below which the current segment has been visited; 0 until entered.
+        private long visited;
+        private int position;
+        private int buffered;
+
+        SegmentCursor(int segmentIndex, int segmentLimit) {
+            this.segmentIndex = segmentIndex;
+            this.segmentLimit = segmentLimit;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            while (position == buffered) {
+                if (segmentIndex >= segmentLimit) {
+                    return false;
+                }
+                fill();
+            }
+            key = (K) keys[position];
+            value = (V) values[position];
+            keys[position] = null;
+            values[position] = null;
+            position++;
+            return true;
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            int from = visited == 0 ? segmentIndex : segmentIndex + 1;
+            int mid = (from + segmentLimit) >>> 1;
+            if (mid <= from) {
+                return null;
+            }
+            SegmentCursor half = new SegmentCursor(mid, segmentLimit);
+            segmentLimit = mid;
+            return half;
+        }
+
+        private void fill() {
+            position = 0;
+            buffered = 0;
+            Segment segment = segments[segmentIndex];
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                int mask = segment.capacity - 1;
+                int from = (int) (visited >>> segment.shift);
+                int to = Math.min(from + BATCH, segment.capacity);
+                for (int i = from; i - from <= mask && (i < to || segment.hashAt(i & mask) != 0); i++) {
+                    int h = segment.hashAt(i & mask);
+                    if (h != 0) {
+                        int home = segment.home(h);
+                        if (home >= from && home < to) {
+                            add(keyAt(segment, i & mask), valueAt(segment, i & mask));
+                        }
+                    }
+                }
+                if (to == segment.capacity) {
+                    segmentIndex++;
+                    visited = 0;
+                } else {
+                    visited = (long) to << segment.shift;
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private void add(Object key, Object value) {
+            if (buffered == keys.length) {
+                keys = Arrays.copyOf(keys, buffered << 1);
+                values = Arrays.copyOf(values, buffered << 1);
+            }
+            keys[buffered] = key;
+            values[buffered] = value;
+            buffered++;
+        }
+    }
+
+    // Knows nothing about K and V so that the cleaner can free it without reaching the store.
+    private static final class Segment {
+        final ReadWriteLock lock;
+        final float loadFactor;
+        Arena indexArena;
+        MemorySegment index;
+        int capacity;
+        // Written under the write lock, read without it by mappingCount() and resizeCount().
+        volatile int count;
+        volatile int resizes;
+        int threshold;
+        int shift;
+        Arena dataArena;
+        MemorySegment data;
+        // Bytes used by the data region, and how many of those belong to dead entries.
+        long top;
+        long garbage;
+        // Counts the inserts, removals and value replacements, which may move slots or data.
+        int modCount;
+
+        Segment(int capacity, float loadFactor, ReadWriteLock lock) {
+            this.lock = lock;
+            this.loadFactor = loadFactor;
+            allocateIndex(capacity);
+            allocateData(MIN_DATA_BYTES);
+        }
+
+        Lock readLock() {
+            return lock.readLock();
+        }
+
+        Lock writeLock() {
+            return lock.writeLock();
+        }
+
+        private void allocateIndex(int capacity) {
+            indexArena = Arena.ofShared();
+            index = indexArena.allocate(capacity * SLOT_BYTES, Long.BYTES);
+            index.fill((byte) 0);
+            this.capacity = capacity;
+            threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+            shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private void allocateData(long size) {
+            dataArena = Arena.ofShared();
+            data = dataArena.allocate(size, Long.BYTES);
+            top = 0;
+            garbage = 0;
+        }
+
+        private int home(int stored) {
+            return (stored * 0x9E3779B9) >>> shift;
+        }
+
+        int hashAt(int slot) {
+            return index.get(ValueLayout.JAVA_INT, slot * SLOT_BYTES);
+        }
+
+        long offsetAt(int slot) {
+            return index.get(ValueLayout.JAVA_LONG, slot * SLOT_BYTES + OFFSET_FIELD);
+        }
+
+        private void setSlot(int slot, int stored, long offset) {
+            index.set(ValueLayout.JAVA_INT, slot * SLOT_BYTES, stored);
+            index.set(ValueLayout.JAVA_LONG, slot * SLOT_BYTES + OFFSET_FIELD, offset);
+        }
+
+        int keySize(long offset) {
+            return data.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+        }
+
+        int valueSize(long offset) {
+            return data.get(ValueLayout.JAVA_INT_UNALIGNED, offset + Integer.BYTES);
+        }
+
+        private long entrySize(long offset) {
+            return HEADER_BYTES + keySize(offset) + valueSize(offset);
+        }
+
+        /** Returns the slot of the key, or {@code -(first empty slot + 1)} if it is absent. */
+        int find(int stored, MemorySegment key) {
+            int mask = capacity - 1;
+            int slot = home(stored);
+            long keySize = key.byteSize();
+            for (; ; slot = (slot + 1) & mask) {
+                int h = hashAt(slot);
+                if (h == 0) {
+                    return -slot - 1;
+                }
+                if (h == stored) {
+                    long offset = offsetAt(slot);
+                    if (keySize(offset) == keySize && MemorySegment.mismatch(data, offset + HEADER_BYTES,
+                            offset + HEADER_BYTES + keySize, key, 0, keySize) == -1) {
+                        return slot;
+                    }
+                }
+            }
+        }
+
+        /** Writes a new entry into the data region and returns its offset. */
+        long append(MemorySegment key, MemorySegment value) {
+            long size = HEADER_BYTES + key.byteSize() + value.byteSize();
+            if (top + size > data.byteSize()) {
+                compact(size);
+            }
+            long offset = top;
+            data.set(ValueLayout.JAVA_INT_UNALIGNED, offset, (int) key.byteSize());
+            data.set(ValueLayout.JAVA_INT_UNALIGNED, offset + Integer.BYTES, (int) value.byteSize());
+            MemorySegment.copy(key, 0, data, offset + HEADER_BYTES, key.byteSize());
+            MemorySegment.copy(value, 0, data, offset + HEADER_BYTES + key.byteSize(), value.byteSize());
+            top += size;
+            return offset;
+        }
+
+        void replaceValue(int slot, MemorySegment value) {
+            modCount++;
+            long offset = offsetAt(slot);
+            int keySize = keySize(offset);
+            if (valueSize(offset) == value.byteSize()) {
+                MemorySegment.copy(value, 0, data, offset + HEADER_BYTES + keySize, value.byteSize());
+                return;
+            }
+            long oldSize = entrySize(offset);
+            MemorySegment key = data.asSlice(offset + HEADER_BYTES, keySize);
+            if (top + HEADER_BYTES + keySize + value.byteSize() > data.byteSize()) {
+                // Compaction would move the key out from under the slice, so copy it first.
+                key = MemorySegment.ofArray(key.toArray(ValueLayout.JAVA_BYTE));
+            }
+            long newOffset = append(key, value);
+            setSlot(slot, hashAt(slot), newOffset);
+            garbage += oldSize;
+        }
+
+        // Copies the live entries into a region with room for at least needed more bytes,
+        // then releases the old region. Readers hold the read lock, so none can be inside it.
+        private void compact(long needed) {
+            Arena oldArena = dataArena;
+            MemorySegment oldData = data;
+            long live = top - garbage;
+            allocateData(Math.max(MIN_DATA_BYTES, (live + needed) * 2));
+            for (int i = 0; i < capacity; i++) {
+                int h = hashAt(i);
+                if (h != 0) {
+                    long offset = offsetAt(i);
+                    long size = HEADER_BYTES + oldData.get(ValueLayout.JAVA_INT_UNALIGNED, offset)
+                            + oldData.get(ValueLayout.JAVA_INT_UNALIGNED, offset + Integer.BYTES);
+                    MemorySegment.copy(oldData, offset, data, top, size);
+                    setSlot(i, h, top);
+                    top += size;
+                }
+            }
+            oldArena.close();
+        }
+
+        void insertAt(int slot, int stored, long offset) {
+            modCount++;
+            setSlot(slot, stored, offset);
+            if (++count > threshold) {
+                grow();
+            }
+        }
+
+        // Backward-shift deletion, as in OpenAddressingStore.
+        void removeAt(int slot) {
+            modCount++;
+            garbage += entrySize(offsetAt(slot));
+            int mask = capacity - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; hashAt(i) != 0; i = (i + 1) & mask) {
+                if (PrimitiveHashing.movable(hole, i, home(hashAt(i)))) {
+                    setSlot(hole, hashAt(i), offsetAt(i));
+                    hole = i;
+                }
+            }
+            setSlot(hole, 0, 0);
+            count--;
+        }
+
+        private void grow() {
+            if (capacity >= MAXIMUM_CAPACITY) {
+                return;
+            }
+            resizes++;
+            Arena oldArena = indexArena;
+            MemorySegment oldIndex = index;
+            int oldCapacity = capacity;
+            allocateIndex(oldCapacity << 1);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                int h = oldIndex.get(ValueLayout.JAVA_INT, i * SLOT_BYTES);
+                if (h != 0) {
+                    int slot = home(h);
+                    while (hashAt(slot) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    setSlot(slot, h, oldIndex.get(ValueLayout.JAVA_LONG, i * SLOT_BYTES + OFFSET_FIELD));
+                }
+            }
+            oldArena.close();
+        }
+
+        void countProbes(long[] histogram) {
+            int mask = capacity - 1;
+            for (int slot = 0; slot < capacity; slot++) {
+                int h = hashAt(slot);
+                histogram[h == 0 ? 0 : Math.min(((slot - home(h)) & mask) + 1, histogram.length - 1)]++;
+            }
+        }
+
+        // Keeps both regions for the writes that follow, so clearing closes no arena.
+        void clear() {
+            modCount++;
+            index.fill((byte) 0);
+            count = 0;
+            top = 0;
+            garbage = 0;
+        }
+
+        void free() {
+            indexArena.close();
+            dataArena.close();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Open addressing over flat parallel hash/key/value arrays, with either linear or Robin
+ * Hood probing. The table is split into segments, one per lock stripe, so a probe sequence
+ * never leaves the segment guarded by its lock; each segment grows on its own. Readers take
+ * the segment read lock because an insert or delete may shift entries along a probe run.
+ * With {@link DarvinHashMap.Locking#STAMPED} they first probe without it and keep the result
+ * if no writer got in meanwhile, so uncontended reads write no shared memory at all.
+ */
+final class OpenAddressingStore<K, V> extends AbstractStore<K, V> {
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+    // Probe runs get long quickly past this point, so higher load factors are capped.
+    private static final float MAX_LOAD_FACTOR = 0.9f;
+    // Set on every stored hash so that 0 can mark an empty slot.
+    private static final int FULL = 0x80000000;
+
+    private final Segment<K, V>[] segments;
+
+    OpenAddressingStore(int initialCapacity, float loadFactor, boolean robinHood, int concurrencyLevel,
+                        DarvinHashMap.Locking locking) {
+        float segmentLoadFactor = Math.min(loadFactor, MAX_LOAD_FACTOR);
+        int count = tableSizeFor(concurrencyLevel);
+        int capacity = Math.max(MIN_SEGMENT_CAPACITY,
+                tableSizeFor((long) (initialCapacity / segmentLoadFactor / count) + 1));
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(capacity, segmentLoadFactor, robinHood, locking);
+        }
+        this.segments = segments;
+    }
+
+    private Segment<K, V> segmentFor(int hash) {
+        return segments[hash & (segments.length - 1)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V get(int hash, Object key) {
+        Segment<K, V> segment = segmentFor(hash);
+        StampedLock stampedLock = segment.stampedLock;
+        if (stampedLock != null) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0L) {
+                Object value = segment.findOptimistic(hash | FULL, key);
+                if (stampedLock.validate(stamp)) {
+                    return (V) value;
+                }
+            }
+        }
+        Lock readLock = segment.readLock();
+        lock(readLock, hash & (segments.length - 1));
+        try {
+            int slot = segment.find(hash | FULL, key);
+            return slot >= 0 ? segment.valueAt(slot) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        Segment<K, V> segment = segmentFor(hash);
+        Lock writeLock = segment.writeLock();
+        lock(writeLock, hash & (segments.length - 1));
+        try {
+            return mutateLocked(segment, op, hash, key, value, arg);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private V mutateLocked(Segment<K, V> segment, int op, int hash, K key, V value, Object arg) {
+        int stored = hash | FULL;
+        int slot = segment.find(stored, key);
+        V oldValue = slot >= 0 ? segment.valueAt(slot) : null;
+        V newValue = remap(op, key, oldValue, value, arg);
+        if (callsFunction(op)) {
+            // The function may have written to the segment itself, shifting or growing it.
+            slot = segment.find(stored, key);
+            if ((slot >= 0 ? segment.valueAt(slot) : null) != oldValue) {
+                throw new IllegalStateException("Recursive update");
+            }
+        }
+        if (slot >= 0) {
+            if (newValue == null) {
+                segment.removeAt(slot);
+            } else if (newValue != oldValue) {
+                segment.values[slot] = newValue;
+            }
+        } else if (newValue != null) {
+            // find() stopped where the key belongs, so the insert continues from there.
+            segment.insertAt(-slot - 1, stored, key, newValue);
+        }
+        recordChange(key, oldValue, newValue);
+        return returnsNewValue(op) ? newValue : oldValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void mutateAll(int op, int[] hashes, Object[] keys, Object[] values, Object[] results, int n) {
+        long[] order = groupByStripe(hashes, n, segments.length - 1);
+        for (int i = 0; i < n; ) {
+            int stripe = (int) (order[i] >>> 32);
+            Segment<K, V> segment = segments[stripe];
+            Lock writeLock = segment.writeLock();
+            lock(writeLock, stripe);
+            try {
+                for (; i < n && segments[(int) (order[i] >>> 32)] == segment; i++) {
+                    int j = (int) order[i];
+                    V result = mutateLocked(segment, op, hashes[j], (K) keys[j], values == null ? null : (V) values[j], null);
+                    if (results != null) {
+                        results[j] = result;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    void getAll(int[] hashes, Object[] keys, Object[] results, int n) {
+        long[] order = groupByStripe(hashes, n, segments.length - 1);
+        for (int i = 0; i < n; ) {
+            int stripe = (int) (order[i] >>> 32);
+            Segment<K, V> segment = segments[stripe];
+            Lock readLock = segment.readLock();
+            lock(readLock, stripe);
+            try {
+                for (; i < n && segments[(int) (order[i] >>> 32)] == segment; i++) {
+                    int j = (int) order[i];
+                    int slot = segment.find(hashes[j] | FULL, keys[j]);
+                    results[j] = slot >= 0 ? segment.valueAt(slot) : null;
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    // Hashes spread evenly over the segments, so each one is sized for its share.
+    @Override
+    void ensureCapacity(long mappings) {
+        long share = mappings / segments.length + 1;
+        for (Segment<K, V> segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                segment.ensureCapacity(share);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    long mappingCount() {
+        long n = 0;
+        for (Segment<K, V> segment : segments) {
+            n += segment.count;
+        }
+        return n;
+    }
+
+    @Override
+    long resizeCount() {
+        long n = 0;
+        for (Segment<K, V> segment : segments) {
+            n += segment.resizes;
+        }
+        return n;
+    }
+
+    @Override
+    long[] chainLengthHistogram() {
+        long[] histogram = new long[HISTOGRAM_LENGTH];
+        for (Segment<K, V> segment : segments) {
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                segment.countProbes(histogram);
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                if (recordsChanges()) {
+                    for (int i = 0; i < segment.hashes.length; i++) {
+                        if (segment.hashes[i] != 0) {
+                            recordChange(segment.keyAt(i), segment.valueAt(i), null);
+                        }
+                    }
+                }
+                segment.clear();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        for (Segment<K, V> segment : segments) {
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                for (int i = 0; i < segment.hashes.length; i++) {
+                    if (segment.hashes[i] != 0 && visitor.test(segment.keyAt(i), segment.valueAt(i))) {
+                        return true;
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        for (Segment<K, V> segment : segments) {
+            Lock writeLock = segment.writeLock();
+            writeLock.lock();
+            try {
+                for (int i = 0; i < segment.hashes.length; i++) {
+                    if (segment.hashes[i] != 0) {
+                        K key = segment.keyAt(i);
+                        V oldValue = segment.valueAt(i);
+                        V newValue = Objects.requireNonNull(function.apply(key, oldValue));
+                        segment.values[i] = newValue;
+                        recordChange(key, oldValue, newValue);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        return new SegmentCursor(0, segments.length);
+    }
+
+    /**
+     * Copies the entries of a segment out under its read lock, a window of BATCH home slots
+     * at a time. An entry lies between its home slot and the first empty slot after it, so
+     * a window is complete once the walk reaches an empty slot past its end, or has gone
+     * round the whole segment. The cursor
+     * resumes from the mixed hash that bounds the windows already visited, which no
+     * displacement, backward shift or growth of the segment changes for any entry, so an
+     * entry present the whole time is returned exactly once.
+     */
+    private final class SegmentCursor extends Cursor<K, V> {
+        private static final int BATCH = 32;
+        private Object[] keys = new Object[BATCH];
+        private Object[] values = new Object[BATCH];
+        private int segmentIndex;
+        private int segmentLimit;
+        // Unsigned mixed hash below which the current segment has been visited; 0 until it
+        // is entered. Window ends are multiples of the home slot size, which only shrinks.
+        private long visited;
+        private int position;
+        private int buffered;
+
+        SegmentCursor(int segmentIndex, int segmentLimit) {
+            this.segmentIndex = segmentIndex;
+            this.segmentLimit = segmentLimit;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            while (position == buffered) {
+                if (segmentIndex >= segmentLimit) {
+                    return false;
+                }
+                fill();
+            }
+            key = (K) keys[position];
+            value = (V) values[position];
+            keys[position] = null;
+            values[position] = null;
+            position++;
+            return true;
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            int from = visited == 0 ? segmentIndex : segmentIndex + 1;
+            int mid = (from + segmentLimit) >>> 1;
+            if (mid <= from) {
+                return null;
+            }
+            SegmentCursor half = new SegmentCursor(mid, segmentLimit);
+            segmentLimit = mid;
+            return half;
+        }
+
+        private void fill() {
+            position = 0;
+            buffered = 0;
+            Segment<K, V> segment = segments[segmentIndex];
+            Lock readLock = segment.readLock();
+            readLock.lock();
+            try {
+                int[] hashes = segment.hashes;
+                int mask = hashes.length - 1;
+                int from = (int) (visited >>> segment.shift);
+                int to = Math.min(from + BATCH, hashes.length);
+                for (int i = from; i - from <= mask && (i < to || hashes[i & mask] != 0); i++) {
+                    int h = hashes[i & mask];
+                    if (h != 0) {
+                        int home = segment.home(h);
+                        if (home >= from && home < to) {
+                            add(segment.keys[i & mask], segment.values[i & mask]);
+                        }
+                    }
+                }
+                if (to == hashes.length) {
+                    segmentIndex++;
+                    visited = 0;
+                } else {
+                    visited = (long) to << segment.shift;
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        // A window holds BATCH entries or fewer unless many keys share home slots.
+        private void add(Object key, Object value) {
+            if (buffered == keys.length) {
+                keys = Arrays.copyOf(keys, buffered << 1);
+                values = Arrays.copyOf(values, buffered << 1);
+            }
+            keys[buffered] = key;
+            values[buffered] = value;
+            buffered++;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final ReadWriteLock lock;
+        // The same lock as lock when reads may go optimistic, null otherwise.
+        final StampedLock stampedLock;
+        final float loadFactor;
+        final boolean robinHood;
+        int[] hashes;
+        Object[] keys;
+        Object[] values;
+        // Written under the write lock, read without it by mappingCount() and resizeCount().
+        volatile int count;
+        volatile int resizes;
+        int threshold;
+        int shift;
+
+        Segment(int capacity, float loadFactor, boolean robinHood, DarvinHashMap.Locking locking) {
+            stampedLock = locking == DarvinHashMap.Locking.STAMPED ? new StampedLock() : null;
+            lock = stampedLock != null ? stampedLock.asReadWriteLock() : newLock(locking);
+            this.loadFactor = loadFactor;
+            this.robinHood = robinHood;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            hashes = new int[capacity];
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+            shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        // The low hash bits already picked the segment, so the home slot is taken from the
+        // top bits of a multiplicative mix of the whole hash.
+        private int home(int stored) {
+            return (stored * 0x9E3779B9) >>> shift;
+        }
+
+        private int distance(int stored, int slot) {
+            return (slot - home(stored)) & (hashes.length - 1);
+        }
+
+        Lock readLock() {
+            return lock.readLock();
+        }
+
+        Lock writeLock() {
+            return lock.writeLock();
+        }
+
+        @SuppressWarnings("unchecked")
+        K keyAt(int slot) {
+            return (K) keys[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        V valueAt(int slot) {
+            return (V) values[slot];
+        }
+
+        /**
+         * Returns the slot of the key, or {@code -(insertion point + 1)} if it is absent. The
+         * insertion point is the first empty slot, or under Robin Hood the first slot whose
+         * entry is closer to its home than the key would be.
+         */
+        int find(int stored, Object key) {
+            int mask = hashes.length - 1;
+            int slot = home(stored);
+            for (int dist = 0; ; dist++, slot = (slot + 1) & mask) {
+                int h = hashes[slot];
+                if (h == 0) {
+                    return -slot - 1;
+                }
+                if (h == stored && keys[slot].equals(key)) {
+                    return slot;
+                }
+                if (robinHood && distance(h, slot) < dist) {
+                    return -slot - 1;
+                }
+            }
+        }
+
+        /**
+         * Looks the key up without the lock and returns its value, or null if it is absent.
+         * A writer may be changing the segment meanwhile, so each array is read once and none
+         * is trusted to match the others; a torn view yields an answer that the caller's
+         * stamp validation discards, but never an exception or an endless probe.
+         */
+        Object findOptimistic(int stored, Object key) {
+            int[] hs = hashes;
+            Object[] ks = keys;
+            Object[] vs = values;
+            int n = hs.length;
+            if (ks.length != n || vs.length != n) {
+                return null;
+            }
+            int mask = n - 1;
+            int shift = 32 - Integer.numberOfTrailingZeros(n);
+            int slot = (stored * 0x9E3779B9) >>> shift;
+            for (int dist = 0; dist < n; dist++, slot = (slot + 1) & mask) {
+                int h = hs[slot];
+                if (h == 0) {
+                    return null;
+                }
+                if (h == stored) {
+                    Object k = ks[slot];
+                    if (k != null && k.equals(key)) {
+                        return vs[slot];
+                    }
+                }
+                if (robinHood && ((slot - ((h * 0x9E3779B9) >>> shift)) & mask) < dist) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        void insertAt(int slot, int stored, Object key, Object value) {
+            place(slot, stored, key, value);
+            if (++count > threshold) {
+                grow();
+            }
+        }
+
+        private void place(int slot, int stored, Object key, Object value) {
+            int mask = hashes.length - 1;
+            int dist = distance(stored, slot);
+            for (; ; slot = (slot + 1) & mask, dist++) {
+                int h = hashes[slot];
+                if (h == 0) {
+                    hashes[slot] = stored;
+                    keys[slot] = key;
+                    values[slot] = value;
+                    return;
+                }
+                if (robinHood) {
+                    int residentDist = distance(h, slot);
+                    if (residentDist < dist) {
+                        Object k = keys[slot];
+                        Object v = values[slot];
+                        hashes[slot] = stored;
+                        keys[slot] = key;
+                        values[slot] = value;
+                        stored = h;
+                        key = k;
+                        value = v;
+                        dist = residentDist;
+                    }
+                }
+            }
+        }
+
+        // Backward-shift deletion: entries further along the run move into the hole when
+        // that does not put them before their home slot, so no tombstones are needed.
+        void removeAt(int slot) {
+            int mask = hashes.length - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+                if (PrimitiveHashing.movable(hole, i, home(hashes[i]))) {
+                    hashes[hole] = hashes[i];
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            hashes[hole] = 0;
+            keys[hole] = null;
+            values[hole] = null;
+            count--;
+        }
+
+        private void grow() {
+            if (hashes.length < MAXIMUM_CAPACITY) {
+                resize(hashes.length << 1);
+            }
+        }
+
+        void ensureCapacity(long mappings) {
+            int capacity = tableSizeFor((long) (mappings / loadFactor) + 1);
+            if (capacity > hashes.length) {
+                resize(capacity);
+            }
+        }
+
+        private void resize(int capacity) {
+            resizes++;
+            int[] oldHashes = hashes;
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            allocate(capacity);
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHashes[i] != 0) {
+                    place(home(oldHashes[i]), oldHashes[i], oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        // An entry in its home slot takes one probe to find.
+        void countProbes(long[] histogram) {
+            for (int slot = 0; slot < hashes.length; slot++) {
+                int h = hashes[slot];
+                histogram[h == 0 ? 0 : Math.min(distance(h, slot) + 1, histogram.length - 1)]++;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(hashes, 0);
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            count = 0;
+        }
+    }
+}
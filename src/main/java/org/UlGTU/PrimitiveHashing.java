@@ -0,0 +1,54 @@
+package org.UlGTU;
+
+/**
+ * Hashing shared by the primitive-keyed maps. Keys are split over SEGMENTS lock segments by
+ * their low mixed bits; the remaining bits pick the home slot inside the segment. The
+ * backward-shift test is also used by the open-addressing and off-heap stores.
+ */
+final class PrimitiveHashing {
+    static final int SEGMENT_BITS = 4;
+    static final int SEGMENTS = 1 << SEGMENT_BITS;
+    static final int MIN_SEGMENT_CAPACITY = 4;
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    // Linear probing degrades quickly past this point, so higher load factors are capped.
+    static final float MAX_LOAD_FACTOR = 0.9f;
+
+    private PrimitiveHashing() {
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    static int segmentCapacity(int initialCapacity, float loadFactor) {
+        return Math.max(MIN_SEGMENT_CAPACITY,
+                AbstractStore.tableSizeFor((long) (initialCapacity / loadFactor / SEGMENTS) + 1));
+    }
+
+    static float checkLoadFactor(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " + initialCapacity);
+        }
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+        return Math.min(loadFactor, MAX_LOAD_FACTOR);
+    }
+
+    static int threshold(int capacity, float loadFactor) {
+        return Math.min(capacity - 1, (int) (capacity * loadFactor));
+    }
+
+    // Whether an entry at slot whose home is home may move back into hole without being
+    // placed before its home; used by backward-shift deletion.
+    static boolean movable(int hole, int slot, int home) {
+        return hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+    }
+}
@@ -0,0 +1,301 @@
+package org.UlGTU;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+import static org.UlGTU.PrimitiveHashing.*;
+
+/**
+ * Body shared by {@link IntObjDarvinMap} and {@link LongObjDarvinMap}. Entries live in flat
+ * key and {@code Object[]} value arrays split over lock segments, probed linearly; a slot is
+ * free when its value is null, so null values are not allowed. Operations take the key
+ * widened to a long, which loses nothing for int keys; each subclass keeps the keys in an
+ * array of its own key type and supplies the probing over it.
+ */
+abstract class PrimitiveObjMap<V> {
+    private final Segment<V>[] segments;
+
+    PrimitiveObjMap(int initialCapacity, float loadFactor, SegmentFactory<V> factory) {
+        float segmentLoadFactor = checkLoadFactor(initialCapacity, loadFactor);
+        int capacity = segmentCapacity(initialCapacity, segmentLoadFactor);
+        @SuppressWarnings("unchecked")
+        Segment<V>[] segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = factory.create(capacity, segmentLoadFactor);
+        }
+        this.segments = segments;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    public int size() {
+        long n = 0;
+        for (Segment<V> segment : segments) {
+            n += segment.count;
+        }
+        return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    final V get(long key, int hash) {
+        Segment<V> segment = segmentFor(hash);
+        Lock readLock = segment.lock.readLock();
+        readLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            return slot >= 0 ? segment.valueAt(slot) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    final V put(long key, int hash, V value) {
+        Objects.requireNonNull(value);
+        Segment<V> segment = segmentFor(hash);
+        Lock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                V oldValue = segment.valueAt(slot);
+                segment.values[slot] = value;
+                return oldValue;
+            }
+            segment.insertAt(-slot - 1, key, value);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final V putIfAbsent(long key, int hash, V value) {
+        Objects.requireNonNull(value);
+        Segment<V> segment = segmentFor(hash);
+        Lock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                return segment.valueAt(slot);
+            }
+            segment.insertAt(-slot - 1, key, value);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final V computeIfAbsent(long key, int hash, LongFunction<? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Segment<V> segment = segmentFor(hash);
+        Lock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                return segment.valueAt(slot);
+            }
+            V value = mappingFunction.apply(key);
+            if (value != null) {
+                // The function may have written to the segment itself, filling or moving the
+                // free slot found above.
+                slot = segment.find(key, hash);
+                if (slot >= 0) {
+                    throw new IllegalStateException("Recursive update");
+                }
+                segment.insertAt(-slot - 1, key, value);
+            }
+            return value;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final V merge(long key, int hash, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        Segment<V> segment = segmentFor(hash);
+        Lock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot < 0) {
+                segment.insertAt(-slot - 1, key, value);
+                return value;
+            }
+            V oldValue = segment.valueAt(slot);
+            V newValue = remappingFunction.apply(oldValue, value);
+            // As in computeIfAbsent, the entry may have moved meanwhile.
+            slot = segment.find(key, hash);
+            if (slot < 0 || segment.values[slot] != oldValue) {
+                throw new IllegalStateException("Recursive update");
+            }
+            if (newValue == null) {
+                segment.removeAt(slot);
+            } else {
+                segment.values[slot] = newValue;
+            }
+            return newValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    final V remove(long key, int hash) {
+        Segment<V> segment = segmentFor(hash);
+        Lock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            V oldValue = segment.valueAt(slot);
+            segment.removeAt(slot);
+            return oldValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            Lock writeLock = segment.lock.writeLock();
+            writeLock.lock();
+            try {
+                Arrays.fill(segment.values, null);
+                segment.count = 0;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    final void forEachEntry(EntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        for (Segment<V> segment : segments) {
+            Lock readLock = segment.lock.readLock();
+            readLock.lock();
+            try {
+                for (int i = 0; i < segment.values.length; i++) {
+                    if (segment.values[i] != null) {
+                        action.accept(segment.keyAt(i), segment.valueAt(i));
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    @FunctionalInterface
+    interface SegmentFactory<V> {
+        Segment<V> create(int capacity, float loadFactor);
+    }
+
+    abstract static class Segment<V> {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final float loadFactor;
+        Object[] values;
+        // Written under the write lock, read without it by size().
+        volatile int count;
+        int threshold;
+
+        Segment(float loadFactor) {
+            this.loadFactor = loadFactor;
+        }
+
+        // Subclass constructors call this once their own fields are set.
+        final void allocate(int capacity) {
+            allocateKeys(capacity);
+            values = new Object[capacity];
+            threshold = threshold(capacity, loadFactor);
+        }
+
+        abstract void allocateKeys(int capacity);
+
+        /** Returns the slot of the key, or -(first free slot of its run + 1) if it is absent. */
+        abstract int find(long key, int hash);
+
+        abstract long keyAt(int slot);
+
+        abstract void setKey(int slot, long key);
+
+        /** The mixed hash of a key, as the map computes it. */
+        abstract int hashOf(long key);
+
+        final int home(int hash) {
+            return (hash >>> SEGMENT_BITS) & (values.length - 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        final V valueAt(int slot) {
+            return (V) values[slot];
+        }
+
+        final void insertAt(int slot, long key, Object value) {
+            setKey(slot, key);
+            values[slot] = value;
+            if (++count > threshold) {
+                grow();
+            }
+        }
+
+        final void removeAt(int slot) {
+            int mask = values.length - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (movable(hole, i, home(hashOf(keyAt(i))))) {
+                    setKey(hole, keyAt(i));
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            values[hole] = null;
+            count--;
+        }
+
+        private void grow() {
+            int oldCapacity = values.length;
+            if (oldCapacity >= AbstractStore.MAXIMUM_CAPACITY) {
+                return;
+            }
+            // The keys are read out first, since the new key array replaces the old one.
+            Object[] oldValues = values;
+            long[] oldKeys = new long[oldCapacity];
+            for (int i = 0; i < oldCapacity; i++) {
+                if (oldValues[i] != null) {
+                    oldKeys[i] = keyAt(i);
+                }
+            }
+            allocate(oldCapacity << 1);
+            int mask = values.length - 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                if (oldValues[i] != null) {
+                    // Keys are distinct, so the first free slot of the run is the right one.
+                    int slot = home(hashOf(oldKeys[i]));
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    setKey(slot, oldKeys[i]);
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
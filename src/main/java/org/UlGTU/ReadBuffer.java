@@ -0,0 +1,70 @@
+package org.UlGTU;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy striped buffer of recent reads, drained by a single thread holding the owner's
+ * policy lock. Readers pick a stripe by thread and claim a slot with one CAS; a full stripe
+ * drops the read rather than waiting, since the policy only needs a sample of the access
+ * pattern.
+ */
+final class ReadBuffer<E> {
+    private static final int STRIPE_SIZE = 16;
+    private static final int STRIPES =
+            Math.min(64, AbstractStore.tableSizeFor(4L * Runtime.getRuntime().availableProcessors()));
+
+    private final Stripe<E>[] stripes;
+
+    ReadBuffer() {
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] stripes = (Stripe<E>[]) new Stripe<?>[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.stripes = stripes;
+    }
+
+    /** Records element, returning true once its stripe is full and should be drained. */
+    boolean offer(E element) {
+        long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        Stripe<E> stripe = stripes[(int) (id >>> 32) & (STRIPES - 1)];
+        long tail = stripe.tail.get();
+        long size = tail - stripe.head;
+        if (size >= STRIPE_SIZE) {
+            return true;
+        }
+        if (stripe.tail.compareAndSet(tail, tail + 1)) {
+            stripe.slots.setRelease((int) tail & (STRIPE_SIZE - 1), element);
+            return size + 1 == STRIPE_SIZE;
+        }
+        return false;
+    }
+
+    /** Hands every buffered element to action; the caller must hold the policy lock. */
+    void drainTo(Consumer<? super E> action) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.head;
+            long tail = stripe.tail.get();
+            for (; head < tail; head++) {
+                int index = (int) head & (STRIPE_SIZE - 1);
+                E element = stripe.slots.getAcquire(index);
+                if (element == null) {
+                    // Claimed but not yet written; picked up by the next drain.
+                    break;
+                }
+                stripe.slots.setRelease(index, null);
+                action.accept(element);
+            }
+            stripe.head = head;
+        }
+    }
+
+    private static final class Stripe<E> {
+        final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+        final AtomicLong tail = new AtomicLong();
+        // Written only by the draining thread.
+        volatile long head;
+    }
+}
@@ -0,0 +1,195 @@
+package org.UlGTU;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A read-only snapshot file, mapped into memory with {@link FileChannel#map}. Layout, in
+ * native byte order:
+ * <pre>
+ *   header  magic, version, hash mixing, seed (4 ints), count (long), capacity, unused (2 ints)
+ *   index   capacity slots of [stored hash (int), unused (int), entry offset (long)]
+ *   entries [key size (int)][value size (int)][key][value], back to back
+ * </pre>
+ * The index is a linearly probed table over the hashes the writing map computed, so a map
+ * reopened with the same hash mixing and seed can look keys up without loading them.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x4452564E;
+    private static final int VERSION = 1;
+    private static final long HEADER_BYTES = 32;
+    private static final long SLOT_BYTES = 16;
+    private static final long OFFSET_FIELD = 8;
+    private static final long ENTRY_HEADER_BYTES = 8;
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int FULL = 0x80000000;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED;
+    private static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+
+    final MemorySegment file;
+    final DarvinHashMap.HashMixing hashMixing;
+    final int seed;
+    final long count;
+    final int capacity;
+    private final int shift;
+
+    private Snapshot(MemorySegment file, DarvinHashMap.HashMixing hashMixing, int seed, long count, int capacity) {
+        this.file = file;
+        this.hashMixing = hashMixing;
+        this.seed = seed;
+        this.count = count;
+        this.capacity = capacity;
+        this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private static int home(int stored, int shift) {
+        return (stored * 0x9E3779B9) >>> shift;
+    }
+
+    private static long slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    /**
+     * Writes hashes, keys and values (parallel, all of the same length) to a temporary file
+     * next to path and moves it into place, so readers never see a half-written snapshot.
+     * The move is forced to disk before this returns.
+     */
+    static <K, V> void write(Path path, DarvinHashMap.HashMixing hashMixing, int seed, int[] hashes,
+                             List<K> keys, List<V> values, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec)
+            throws IOException {
+        int n = keys.size();
+        int capacity = Math.max(2, AbstractStore.tableSizeFor((long) (n / LOAD_FACTOR) + 1));
+        int shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        int[] keySizes = new int[n];
+        int[] valueSizes = new int[n];
+        long size = HEADER_BYTES + capacity * SLOT_BYTES;
+        for (int i = 0; i < n; i++) {
+            keySizes[i] = keyCodec.encodedSize(keys.get(i));
+            valueSizes[i] = valueCodec.encodedSize(values.get(i));
+            size += ENTRY_HEADER_BYTES + keySizes[i] + valueSizes[i];
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Arena arena = Arena.ofConfined()) {
+            // Bytes past the old end of a file read as zero, so the index starts out empty.
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            file.set(INT, 0, MAGIC);
+            file.set(INT, 4, VERSION);
+            file.set(INT, 8, hashMixing.ordinal());
+            file.set(INT, 12, seed);
+            file.set(LONG, 16, n);
+            file.set(INT, 24, capacity);
+            long offset = HEADER_BYTES + capacity * SLOT_BYTES;
+            for (int i = 0; i < n; i++) {
+                int stored = hashes[i] | FULL;
+                int slot = home(stored, shift);
+                while (file.get(INT, slotPosition(slot)) != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                file.set(INT, slotPosition(slot), stored);
+                file.set(LONG, slotPosition(slot) + OFFSET_FIELD, offset);
+                file.set(INT, offset, keySizes[i]);
+                file.set(INT, offset + Integer.BYTES, valueSizes[i]);
+                keyCodec.encode(keys.get(i), file, offset + ENTRY_HEADER_BYTES);
+                valueCodec.encode(values.get(i), file, offset + ENTRY_HEADER_BYTES + keySizes[i]);
+                offset += ENTRY_HEADER_BYTES + keySizes[i] + valueSizes[i];
+            }
+            file.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces the entries of directory to disk, so that files created, renamed or deleted in
+     * it survive a power failure. Windows cannot open a directory, and has no such call.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /** Maps the snapshot at path; the mapping lives as long as arena. */
+    static Snapshot open(Path path, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a DarvinHashMap snapshot: " + path);
+            }
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            if (file.get(INT, 0) != MAGIC) {
+                throw new IOException("Not a DarvinHashMap snapshot: " + path);
+            }
+            if (file.get(INT, 4) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + file.get(INT, 4) + ": " + path);
+            }
+            int capacity = file.get(INT, 24);
+            if (Integer.bitCount(capacity) != 1 || HEADER_BYTES + capacity * SLOT_BYTES > size) {
+                throw new IOException("Corrupt snapshot index: " + path);
+            }
+            return new Snapshot(file, DarvinHashMap.HashMixing.values()[file.get(INT, 8)],
+                    file.get(INT, 12), file.get(LONG, 16), capacity);
+        }
+    }
+
+    int hashAt(int slot) {
+        return file.get(INT, slotPosition(slot));
+    }
+
+    long offsetAt(int slot) {
+        return file.get(LONG, slotPosition(slot) + OFFSET_FIELD);
+    }
+
+    /** Offset of the first entry; entries run back to back from here to the end of the file. */
+    long entriesStart() {
+        return HEADER_BYTES + capacity * SLOT_BYTES;
+    }
+
+    long nextEntry(long offset) {
+        return offset + ENTRY_HEADER_BYTES + file.get(INT, offset) + file.get(INT, offset + Integer.BYTES);
+    }
+
+    <K> K keyAt(long offset, DarvinCodec<K> keyCodec) {
+        return keyCodec.decode(file, offset + ENTRY_HEADER_BYTES, file.get(INT, offset));
+    }
+
+    <V> V valueAt(long offset, DarvinCodec<V> valueCodec) {
+        int keySize = file.get(INT, offset);
+        return valueCodec.decode(file, offset + ENTRY_HEADER_BYTES + keySize, file.get(INT, offset + Integer.BYTES));
+    }
+
+    /** Returns the entry offset of the encoded key, or -1 if it is not in the snapshot. */
+    long find(int hash, MemorySegment key) {
+        int stored = hash | FULL;
+        int slot = home(stored, shift);
+        long keySize = key.byteSize();
+        for (; ; slot = (slot + 1) & (capacity - 1)) {
+            int h = hashAt(slot);
+            if (h == 0) {
+                return -1;
+            }
+            if (h == stored) {
+                long offset = offsetAt(slot);
+                if (file.get(INT, offset) == keySize && MemorySegment.mismatch(file, offset + ENTRY_HEADER_BYTES,
+                        offset + ENTRY_HEADER_BYTES + keySize, key, 0, keySize) == -1) {
+                    return offset;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.UlGTU;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * Serves a lazily loaded snapshot: reads go to the memory-mapped file, and changes land in
+ * an on-heap chained overlay that shadows it. A key removed from the snapshot is shadowed by
+ * a {@link #REMOVED} marker. Every mutation runs inside an overlay compute, which holds the
+ * bucket lock while the snapshot value is looked up, so the two layers change atomically.
+ */
+final class SnapshotStore<K, V> extends AbstractStore<K, V> {
+    private static final Object REMOVED = new Object();
+
+    private final ChainedStore<K, Object> overlay = new ChainedStore<>(16, 0.75f);
+    private final DarvinCodec<K> keyCodec;
+    private final DarvinCodec<V> valueCodec;
+    // Dropped by clear(); the mapping itself is released when it becomes unreachable.
+    private volatile Snapshot snapshot;
+    private volatile long snapshotCount;
+    // Mappings added minus mappings removed since the snapshot was opened.
+    private final LongAdder delta = new LongAdder();
+
+    SnapshotStore(Snapshot snapshot, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec) {
+        this.snapshot = snapshot;
+        this.snapshotCount = snapshot.count;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V snapshotGet(int hash, Object key) {
+        Snapshot s = snapshot;
+        if (s == null) {
+            return null;
+        }
+        long offset = s.find(hash, Codecs.encode(keyCodec, (K) key));
+        return offset >= 0 ? s.valueAt(offset, valueCodec) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V get(int hash, Object key) {
+        Object value = overlay.get(hash, key);
+        if (value != null) {
+            return value == REMOVED ? null : (V) value;
+        }
+        return snapshotGet(hash, key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    V mutate(int op, int hash, K key, V value, Object arg) {
+        Object[] result = new Object[1];
+        overlay.mutate(COMPUTE, hash, key, null, (BiFunction<K, Object, Object>) (k, current) -> {
+            V oldValue = current == null ? snapshotGet(hash, k) : current == REMOVED ? null : (V) current;
+            V newValue = remap(op, k, oldValue, value, arg);
+            result[0] = returnsNewValue(op) ? newValue : oldValue;
+            if (newValue == oldValue) {
+                return current;
+            }
+            if (newValue == null) {
+                delta.decrement();
+                return snapshotGet(hash, k) != null ? REMOVED : null;
+            }
+            if (oldValue == null) {
+                delta.increment();
+            }
+            return newValue;
+        });
+        return (V) result[0];
+    }
+
+    @Override
+    long mappingCount() {
+        return snapshotCount + delta.sum();
+    }
+
+    @Override
+    void recordStats(StatsCounter stats) {
+        super.recordStats(stats);
+        overlay.recordStats(stats);
+    }
+
+    // The mapped file has a fixed layout, so only the overlay can grow or be inspected.
+    @Override
+    long resizeCount() {
+        return overlay.resizeCount();
+    }
+
+    @Override
+    long[] chainLengthHistogram() {
+        return overlay.chainLengthHistogram();
+    }
+
+    @Override
+    void clear() {
+        snapshot = null;
+        snapshotCount = 0;
+        overlay.clear();
+        delta.reset();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    boolean scan(BiPredicate<? super K, ? super V> visitor) {
+        if (overlay.scan((k, v) -> v != REMOVED && visitor.test(k, (V) v))) {
+            return true;
+        }
+        Snapshot s = snapshot;
+        if (s == null) {
+            return false;
+        }
+        for (int i = 0; i < s.capacity; i++) {
+            int h = s.hashAt(i);
+            if (h != 0) {
+                long offset = s.offsetAt(i);
+                K key = s.keyAt(offset, keyCodec);
+                // Keys present in the overlay were already visited or have been removed.
+                if (overlay.get(h & 0x7fffffff, key) == null && visitor.test(key, s.valueAt(offset, valueCodec))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        overlay.replaceAll((k, v) -> v == REMOVED ? REMOVED : Objects.requireNonNull(function.apply(k, (V) v)));
+        Snapshot s = snapshot;
+        if (s == null) {
+            return;
+        }
+        for (int i = 0; i < s.capacity; i++) {
+            int h = s.hashAt(i);
+            if (h != 0) {
+                long offset = s.offsetAt(i);
+                K key = s.keyAt(offset, keyCodec);
+                overlay.mutate(COMPUTE, h & 0x7fffffff, key, null, (BiFunction<K, Object, Object>) (k, current) ->
+                        current != null ? current : Objects.requireNonNull(function.apply(k, s.valueAt(offset, valueCodec))));
+            }
+        }
+    }
+
+    @Override
+    Cursor<K, V> cursor() {
+        Snapshot s = snapshot;
+        return new OverlayCursor(overlay.cursor(), s, 0, s == null ? 0 : s.capacity);
+    }
+
+    // Walks the overlay, then the snapshot entries that the overlay does not shadow.
+    private final class OverlayCursor extends Cursor<K, V> {
+        private Cursor<K, Object> overlayCursor;
+        private final Snapshot s;
+        private int slot;
+        private int slotLimit;
+
+        OverlayCursor(Cursor<K, Object> overlayCursor, Snapshot s, int slot, int slotLimit) {
+            this.overlayCursor = overlayCursor;
+            this.s = s;
+            this.slot = slot;
+            this.slotLimit = slotLimit;
+        }
+
+        @Override
+        Cursor<K, V> split() {
+            if (overlayCursor != null) {
+                Cursor<K, Object> half = overlayCursor.split();
+                if (half != null) {
+                    return new OverlayCursor(half, null, 0, 0);
+                }
+            }
+            int mid = (slot + slotLimit) >>> 1;
+            if (mid <= slot) {
+                return null;
+            }
+            OverlayCursor half = new OverlayCursor(null, s, mid, slotLimit);
+            slotLimit = mid;
+            return half;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            if (overlayCursor != null) {
+                while (overlayCursor.advance()) {
+                    if (overlayCursor.value != REMOVED) {
+                        key = overlayCursor.key;
+                        value = (V) overlayCursor.value;
+                        return true;
+                    }
+                }
+                overlayCursor = null;
+            }
+            while (slot < slotLimit) {
+                int h = s.hashAt(slot++);
+                if (h != 0) {
+                    long offset = s.offsetAt(slot - 1);
+                    K k = s.keyAt(offset, keyCodec);
+                    if (overlay.get(h & 0x7fffffff, k) == null) {
+                        key = k;
+                        value = s.valueAt(offset, valueCodec);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.UlGTU;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Counters behind {@link DarvinHashMap.Builder#recordStats()}. All of them are striped
+ * {@link LongAdder}s, so recording from many threads never contends on one word. Maps built
+ * without recordStats have no counter at all, and their stores take locks directly.
+ */
+final class StatsCounter {
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder lockAcquisitions = new LongAdder();
+    final LongAdder contendedLockAcquisitions = new LongAdder();
+    final LongAdder lockWaitNanos = new LongAdder();
+    // Reported in lock contention events; the JMX name once the map is registered, and
+    // until then one unique to this counter, as each map has its own.
+    volatile String name = "DarvinHashMap@" + Integer.toHexString(System.identityHashCode(this));
+
+    void recordLookups(int hitCount, int missCount) {
+        if (hitCount > 0) {
+            hits.add(hitCount);
+        }
+        if (missCount > 0) {
+            misses.add(missCount);
+        }
+    }
+
+    /**
+     * Takes lock, timing the wait only when it is held by another thread. A long wait is
+     * also committed as a {@link LockContentionEvent}, with the stack of the waiting thread.
+     */
+    void lock(Lock lock, int stripe) {
+        lockAcquisitions.increment();
+        if (lock.tryLock()) {
+            return;
+        }
+        LockContentionEvent event = new LockContentionEvent();
+        long start = System.nanoTime();
+        event.begin();
+        lock.lock();
+        event.end();
+        contendedLockAcquisitions.increment();
+        lockWaitNanos.add(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.map = name;
+            event.stripe = stripe;
+            event.commit();
+        }
+    }
+}
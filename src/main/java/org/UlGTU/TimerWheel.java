@@ -0,0 +1,120 @@
+package org.UlGTU;
+
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hierarchical timing wheel over cache nodes, as in Varghese and Lauck. Level i has
+ * BUCKETS[i] buckets of SPANS[i] nanoseconds each, so its whole range is one bucket of level
+ * i + 1; a node sits in the finest level whose range covers its remaining time. Scheduling
+ * and descheduling are O(1), and advancing the clock only visits the buckets it passed,
+ * cascading nodes that are not due yet into finer levels. Times are nanoseconds from the
+ * owner's origin and never negative. Guarded by the owner's policy lock.
+ */
+final class TimerWheel<K, V> {
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    // Powers of two close to a second, a minute, an hour, a day and a half and six and a
+    // half days; the last level's one bucket holds everything further out.
+    private static final long[] SPANS = {1L << 30, 1L << 36, 1L << 42, 1L << 47, 1L << 49, 1L << 49};
+    private static final int[] SHIFTS = new int[SPANS.length];
+
+    static {
+        for (int i = 0; i < SPANS.length; i++) {
+            SHIFTS[i] = Long.numberOfTrailingZeros(SPANS[i]);
+        }
+    }
+
+    private final CacheStore.CacheNode<K, V>[][] wheel;
+    private final ToLongFunction<CacheStore.CacheNode<K, V>> deadline;
+    private long nanos;
+
+    TimerWheel(ToLongFunction<CacheStore.CacheNode<K, V>> deadline) {
+        this.deadline = deadline;
+        @SuppressWarnings("unchecked")
+        CacheStore.CacheNode<K, V>[][] wheel =
+                (CacheStore.CacheNode<K, V>[][]) new CacheStore.CacheNode<?, ?>[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            @SuppressWarnings("unchecked")
+            CacheStore.CacheNode<K, V>[] buckets =
+                    (CacheStore.CacheNode<K, V>[]) new CacheStore.CacheNode<?, ?>[BUCKETS[i]];
+            wheel[i] = buckets;
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                // Sentinel of a circular list.
+                CacheStore.CacheNode<K, V> sentinel = new CacheStore.CacheNode<>(0, null, null, 0);
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+        this.wheel = wheel;
+    }
+
+    private CacheStore.CacheNode<K, V> bucketFor(long time) {
+        long duration = time - nanos;
+        for (int i = 0; i < BUCKETS.length - 1; i++) {
+            if (duration < SPANS[i + 1]) {
+                return wheel[i][(int) (time >>> SHIFTS[i]) & (BUCKETS[i] - 1)];
+            }
+        }
+        return wheel[BUCKETS.length - 1][0];
+    }
+
+    /** Places node by its current deadline, moving it if it was already scheduled. */
+    void schedule(CacheStore.CacheNode<K, V> node) {
+        deschedule(node);
+        // A deadline already passed goes to the current bucket, which the next tick sweeps.
+        CacheStore.CacheNode<K, V> sentinel = bucketFor(Math.max(deadline.applyAsLong(node), nanos));
+        node.timerPrev = sentinel.timerPrev;
+        node.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+    }
+
+    void deschedule(CacheStore.CacheNode<K, V> node) {
+        if (node.timerNext != null) {
+            node.timerPrev.timerNext = node.timerNext;
+            node.timerNext.timerPrev = node.timerPrev;
+            node.timerPrev = null;
+            node.timerNext = null;
+        }
+    }
+
+    /**
+     * Moves the clock to now and offers each node of the passed buckets to expire; nodes it
+     * declines, because they are not due yet or were refreshed meanwhile, are rescheduled.
+     */
+    void advance(long now, Predicate<CacheStore.CacheNode<K, V>> expire) {
+        long previous = nanos;
+        if (now <= previous) {
+            return;
+        }
+        nanos = now;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            long previousTicks = previous >>> SHIFTS[i];
+            long delta = (now >>> SHIFTS[i]) - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            int mask = BUCKETS[i] - 1;
+            int steps = (int) Math.min(delta + 1, BUCKETS[i]);
+            for (int j = 0; j < steps; j++) {
+                sweep(wheel[i][(int) (previousTicks + j) & mask], expire);
+            }
+        }
+    }
+
+    private void sweep(CacheStore.CacheNode<K, V> sentinel, Predicate<CacheStore.CacheNode<K, V>> expire) {
+        CacheStore.CacheNode<K, V> node = sentinel.timerNext;
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+        while (node != sentinel) {
+            CacheStore.CacheNode<K, V> next = node.timerNext;
+            node.timerPrev = null;
+            node.timerNext = null;
+            if (!expire.test(node)) {
+                schedule(node);
+            }
+            node = next;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package org.UlGTU;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Head of a {@link ChainedStore} bucket whose chain grew past the treeify threshold. Nodes
+ * are kept both in a red-black tree, ordered by hash, then by {@link Comparable} when the
+ * keys allow it, and in a volatile linked list. Writers already hold the stripe lock or the
+ * monitor of the bin and take its write lock only while restructuring the tree; a reader
+ * searches the tree under a read lock, or walks the list when a writer is busy so it never
+ * blocks.
+ */
+final class TreeBin<K, V> extends ChainedStore.Node<K, V> {
+    static final int TREEBIN = -2;
+
+    private final StampedLock lock = new StampedLock();
+    private TreeNode<K, V> root;
+    volatile TreeNode<K, V> first;
+    int count;
+
+    // Builds a bin from nodes linked through next; the list keeps its order.
+    TreeBin(TreeNode<K, V> list) {
+        super(TREEBIN, null, null);
+        first = list;
+        TreeNode<K, V> prev = null;
+        for (TreeNode<K, V> x = list; x != null; prev = x, x = (TreeNode<K, V>) x.next) {
+            x.prev = prev;
+            insertIntoTree(x);
+            count++;
+        }
+    }
+
+    V find(int hash, Object key) {
+        long stamp = lock.tryReadLock();
+        if (stamp != 0L) {
+            try {
+                TreeNode<K, V> p = root == null ? null : root.findTreeNode(hash, key, null);
+                return p != null ? p.value : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        for (ChainedStore.Node<K, V> e = first; e != null; e = e.next) {
+            if (e.hash == hash && e.key.equals(key)) {
+                return e.value;
+            }
+        }
+        return null;
+    }
+
+    // Caller keeps other writers out of the bin, so the tree cannot change underneath.
+    TreeNode<K, V> findLocked(int hash, Object key) {
+        return root == null ? null : root.findTreeNode(hash, key, null);
+    }
+
+    // Adds a node for a key known to be absent. Caller keeps other writers out of the bin.
+    void putTreeVal(int hash, K key, V value) {
+        TreeNode<K, V> x = new TreeNode<>(hash, key, value);
+        TreeNode<K, V> f = first;
+        x.next = f;
+        if (f != null) {
+            f.prev = x;
+        }
+        long stamp = lock.writeLock();
+        try {
+            insertIntoTree(x);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        first = x;
+        count++;
+    }
+
+    // Unlinks p from the list and the tree. Caller keeps other writers out of the bin.
+    void removeTreeNode(TreeNode<K, V> p) {
+        TreeNode<K, V> next = (TreeNode<K, V>) p.next;
+        TreeNode<K, V> pred = p.prev;
+        if (pred == null) {
+            first = next;
+        } else {
+            pred.next = next;
+        }
+        if (next != null) {
+            next.prev = pred;
+        }
+        count--;
+        long stamp = lock.writeLock();
+        try {
+            deleteFromTree(p);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void insertIntoTree(TreeNode<K, V> x) {
+        x.red = true;
+        if (root == null) {
+            x.parent = null;
+            x.red = false;
+            root = x;
+            return;
+        }
+        K k = x.key;
+        int h = x.hash;
+        Class<?> kc = null;
+        for (TreeNode<K, V> p = root; ; ) {
+            int dir;
+            int ph = p.hash;
+            if (ph > h) {
+                dir = -1;
+            } else if (ph < h) {
+                dir = 1;
+            } else if ((kc == null && (kc = comparableClassFor(k)) == null)
+                    || (dir = compareComparables(kc, k, p.key)) == 0) {
+                dir = tieBreakOrder(k, p.key);
+            }
+            TreeNode<K, V> xp = p;
+            if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                x.parent = xp;
+                if (dir <= 0) {
+                    xp.left = x;
+                } else {
+                    xp.right = x;
+                }
+                root = balanceInsertion(root, x);
+                return;
+            }
+        }
+    }
+
+    private void deleteFromTree(TreeNode<K, V> p) {
+        TreeNode<K, V> replacement;
+        TreeNode<K, V> pl = p.left, pr = p.right;
+        if (pl != null && pr != null) {
+            // Swap p with its successor s so that p has at most one child.
+            TreeNode<K, V> s = pr, sl;
+            while ((sl = s.left) != null) {
+                s = sl;
+            }
+            boolean c = s.red;
+            s.red = p.red;
+            p.red = c;
+            TreeNode<K, V> sr = s.right;
+            TreeNode<K, V> pp = p.parent;
+            if (s == pr) {
+                p.parent = s;
+                s.right = p;
+            } else {
+                TreeNode<K, V> sp = s.parent;
+                if ((p.parent = sp) != null) {
+                    if (s == sp.left) {
+                        sp.left = p;
+                    } else {
+                        sp.right = p;
+                    }
+                }
+                if ((s.right = pr) != null) {
+                    pr.parent = s;
+                }
+            }
+            p.left = null;
+            if ((p.right = sr) != null) {
+                sr.parent = p;
+            }
+            if ((s.left = pl) != null) {
+                pl.parent = s;
+            }
+            if ((s.parent = pp) == null) {
+                root = s;
+            } else if (p == pp.left) {
+                pp.left = s;
+            } else {
+                pp.right = s;
+            }
+            replacement = sr != null ? sr : p;
+        } else if (pl != null) {
+            replacement = pl;
+        } else if (pr != null) {
+            replacement = pr;
+        } else {
+            replacement = p;
+        }
+        if (replacement != p) {
+            TreeNode<K, V> pp = replacement.parent = p.parent;
+            if (pp == null) {
+                root = replacement;
+            } else if (p == pp.left) {
+                pp.left = replacement;
+            } else {
+                pp.right = replacement;
+            }
+            p.left = p.right = p.parent = null;
+        }
+
+        TreeNode<K, V> r = p.red ? root : balanceDeletion(root, replacement);
+
+        if (replacement == p) {
+            TreeNode<K, V> pp = p.parent;
+            p.parent = null;
+            if (pp != null) {
+                if (p == pp.left) {
+                    pp.left = null;
+                } else if (p == pp.right) {
+                    pp.right = null;
+                }
+            }
+        }
+        root = r;
+    }
+
+    private static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root, TreeNode<K, V> p) {
+        TreeNode<K, V> r, pp, rl;
+        if (p != null && (r = p.right) != null) {
+            if ((rl = p.right = r.left) != null) {
+                rl.parent = p;
+            }
+            if ((pp = r.parent = p.parent) == null) {
+                (root = r).red = false;
+            } else if (pp.left == p) {
+                pp.left = r;
+            } else {
+                pp.right = r;
+            }
+            r.left = p;
+            p.parent = r;
+        }
+        return root;
+    }
+
+    private static <K, V> TreeNode<K, V> rotateRight(TreeNode<K, V> root, TreeNode<K, V> p) {
+        TreeNode<K, V> l, pp, lr;
+        if (p != null && (l = p.left) != null) {
+            if ((lr = p.left = l.right) != null) {
+                lr.parent = p;
+            }
+            if ((pp = l.parent = p.parent) == null) {
+                (root = l).red = false;
+            } else if (pp.right == p) {
+                pp.right = l;
+            } else {
+                pp.left = l;
+            }
+            l.right = p;
+            p.parent = l;
+        }
+        return root;
+    }
+
+    private static <K, V> TreeNode<K, V> balanceInsertion(TreeNode<K, V> root, TreeNode<K, V> x) {
+        x.red = true;
+        for (TreeNode<K, V> xp, xpp, xppl, xppr; ; ) {
+            if ((xp = x.parent) == null) {
+                x.red = false;
+                return x;
+            } else if (!xp.red || (xpp = xp.parent) == null) {
+                return root;
+            }
+            if (xp == (xppl = xpp.left)) {
+                if ((xppr = xpp.right) != null && xppr.red) {
+                    xppr.red = false;
+                    xp.red = false;
+                    xpp.red = true;
+                    x = xpp;
+                } else {
+                    if (x == xp.right) {
+                        root = rotateLeft(root, x = xp);
+                        xpp = (xp = x.parent) == null ? null : xp.parent;
+                    }
+                    if (xp != null) {
+                        xp.red = false;
+                        if (xpp != null) {
+                            xpp.red = true;
+                            root = rotateRight(root, xpp);
+                        }
+                    }
+                }
+            } else {
+                if (xppl != null && xppl.red) {
+                    xppl.red = false;
+                    xp.red = false;
+                    xpp.red = true;
+                    x = xpp;
+                } else {
+                    if (x == xp.left) {
+                        root = rotateRight(root, x = xp);
+                        xpp = (xp = x.parent) == null ? null : xp.parent;
+                    }
+                    if (xp != null) {
+                        xp.red = false;
+                        if (xpp != null) {
+                            xpp.red = true;
+                            root = rotateLeft(root, xpp);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static <K, V> TreeNode<K, V> balanceDeletion(TreeNode<K, V> root, TreeNode<K, V> x) {
+        for (TreeNode<K, V> xp, xpl, xpr; ; ) {
+            if (x == null || x == root) {
+                return root;
+            } else if ((xp = x.parent) == null) {
+                x.red = false;
+                return x;
+            } else if (x.red) {
+                x.red = false;
+                return root;
+            } else if ((xpl = xp.left) == x) {
+                if ((xpr = xp.right) != null && xpr.red) {
+                    xpr.red = false;
+                    xp.red = true;
+                    root = rotateLeft(root, xp);
+                    xpr = (xp = x.parent) == null ? null : xp.right;
+                }
+                if (xpr == null) {
+                    x = xp;
+                } else {
+                    TreeNode<K, V> sl = xpr.left, sr = xpr.right;
+                    if ((sr == null || !sr.red) && (sl == null || !sl.red)) {
+                        xpr.red = true;
+                        x = xp;
+                    } else {
+                        if (sr == null || !sr.red) {
+                            sl.red = false;
+                            xpr.red = true;
+                            root = rotateRight(root, xpr);
+                            xpr = (xp = x.parent) == null ? null : xp.right;
+                        }
+                        if (xpr != null) {
+                            xpr.red = xp != null && xp.red;
+                            if ((sr = xpr.right) != null) {
+                                sr.red = false;
+                            }
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            root = rotateLeft(root, xp);
+                        }
+                        x = root;
+                    }
+                }
+            } else {
+                if (xpl != null && xpl.red) {
+                    xpl.red = false;
+                    xp.red = true;
+                    root = rotateRight(root, xp);
+                    xpl = (xp = x.parent) == null ? null : xp.left;
+                }
+                if (xpl == null) {
+                    x = xp;
+                } else {
+                    TreeNode<K, V> sl = xpl.left, sr = xpl.right;
+                    if ((sl == null || !sl.red) && (sr == null || !sr.red)) {
+                        xpl.red = true;
+                        x = xp;
+                    } else {
+                        if (sl == null || !sl.red) {
+                            sr.red = false;
+                            xpl.red = true;
+                            root = rotateLeft(root, xpl);
+                            xpl = (xp = x.parent) == null ? null : xp.left;
+                        }
+                        if (xpl != null) {
+                            xpl.red = xp != null && xp.red;
+                            if ((sl = xpl.left) != null) {
+                                sl.red = false;
+                            }
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            root = rotateRight(root, xp);
+                        }
+                        x = root;
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns x's class if it is of the form "class C implements Comparable<C>", else null.
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c = x.getClass();
+            if (c == String.class) {
+                return c;
+            }
+            Type[] ts = c.getGenericInterfaces();
+            for (Type t : ts) {
+                if (t instanceof ParameterizedType) {
+                    ParameterizedType p = (ParameterizedType) t;
+                    Type[] as = p.getActualTypeArguments();
+                    if (p.getRawType() == Comparable.class && as.length == 1 && as[0] == c) {
+                        return c;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return x == null || x.getClass() != kc ? 0 : ((Comparable) k).compareTo(x);
+    }
+
+    // Orders keys that have equal hashes and are not mutually comparable. Only used to
+    // place new nodes; lookups of such keys search both subtrees.
+    static int tieBreakOrder(Object a, Object b) {
+        int d;
+        if (a == null || b == null || (d = a.getClass().getName().compareTo(b.getClass().getName())) == 0) {
+            d = System.identityHashCode(a) <= System.identityHashCode(b) ? -1 : 1;
+        }
+        return d;
+    }
+
+    static final class TreeNode<K, V> extends ChainedStore.Node<K, V> {
+        TreeNode<K, V> parent;
+        TreeNode<K, V> left;
+        TreeNode<K, V> right;
+        TreeNode<K, V> prev;
+        boolean red;
+
+        TreeNode(int hash, K key, V value) {
+            super(hash, key, value);
+        }
+
+        TreeNode<K, V> findTreeNode(int h, Object k, Class<?> kc) {
+            TreeNode<K, V> p = this;
+            do {
+                int ph, dir;
+                K pk;
+                TreeNode<K, V> q;
+                TreeNode<K, V> pl = p.left, pr = p.right;
+                if ((ph = p.hash) > h) {
+                    p = pl;
+                } else if (ph < h) {
+                    p = pr;
+                } else if ((pk = p.key) == k || k.equals(pk)) {
+                    return p;
+                } else if (pl == null) {
+                    p = pr;
+                } else if (pr == null) {
+                    p = pl;
+                } else if ((kc != null || (kc = comparableClassFor(k)) != null)
+                        && (dir = compareComparables(kc, k, pk)) != 0) {
+                    p = (dir < 0) ? pl : pr;
+                } else if ((q = pr.findTreeNode(h, k, kc)) != null) {
+                    return q;
+                } else {
+                    p = pl;
+                }
+            } while (p != null);
+            return null;
+        }
+    }
+}
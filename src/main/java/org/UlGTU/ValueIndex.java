@@ -0,0 +1,55 @@
+package org.UlGTU;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index from each value of a store to the keys mapped to it, behind
+ * {@link DarvinHashMap.Builder#indexValues()}. Engines update it through
+ * {@link AbstractStore#recordChange}, under the lock of the changed key, so it follows every
+ * write path, bulk ones included, and never misses a change to a key between two others.
+ * Values are looked up by equals and hashCode, so they must keep their hash codes while
+ * mapped, as keys must.
+ */
+final class ValueIndex<K, V> {
+    // A value is present exactly while its key set is non-empty; both change together
+    // inside compute, under the lock of the value's bin.
+    private final ConcurrentHashMap<V, Set<K>> keysByValue = new ConcurrentHashMap<>();
+
+    /**
+     * Records that the mapping of key changed from oldValue to newValue; null means absent.
+     * The key is added under the new value before it leaves the old one, so readers never
+     * miss it in between.
+     */
+    void update(K key, V oldValue, V newValue) {
+        if (oldValue != null && oldValue.equals(newValue)) {
+            // An equal instance replaced the value; the index looks both up alike.
+            return;
+        }
+        if (newValue != null) {
+            keysByValue.compute(newValue, (value, keys) -> {
+                if (keys == null) {
+                    keys = ConcurrentHashMap.newKeySet();
+                }
+                keys.add(key);
+                return keys;
+            });
+        }
+        if (oldValue != null) {
+            keysByValue.computeIfPresent(oldValue, (value, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    boolean contains(Object value) {
+        return keysByValue.containsKey(value);
+    }
+
+    /** Returns the keys mapped to value as an immutable copy, empty if there are none. */
+    Set<K> keysFor(Object value) {
+        Set<K> keys = keysByValue.get(value);
+        return keys == null ? Set.of() : Set.copyOf(keys);
+    }
+}
@@ -0,0 +1,452 @@
+package org.UlGTU;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of a durable {@link DarvinHashMap}, kept as numbered files in one
+ * directory, in native byte order:
+ * <pre>
+ *   wal-N.log          records [payload size (int)][CRC32C of payload (int)][payload]
+ *   checkpoint-N.snap  a snapshot of the map holding everything logged before wal-N.log
+ * </pre>
+ * A payload is [op (byte)][key size (int)][key][value], where a removal has no value.
+ * Engines append a record for each change while they hold the lock of its key, into a buffer
+ * in memory; a single writer thread swaps the buffer out and writes and forces all of it at
+ * once, so that writers waiting in {@link #await} share one write and one fsync (group
+ * commit). Records hold the new value rather than the operation, so replaying them over a
+ * snapshot taken while the map was changing still ends in the logged state.
+ */
+final class WriteAheadLog<K, V> {
+    /** Writes a snapshot of the map to the given file. */
+    interface SnapshotWriter {
+        void write(Path path) throws IOException;
+    }
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int PAYLOAD_HEADER_BYTES = 5;
+    private static final byte PUT = 0;
+    private static final byte REMOVE = 1;
+    private static final long SYNC_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+
+    private final Path directory;
+    private final DarvinCodec<K> keyCodec;
+    private final DarvinCodec<V> valueCodec;
+    private final DarvinHashMap.FsyncPolicy fsyncPolicy;
+    private final long checkpointLogSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled by appenders and by close, for the writer.
+    private final Condition pending = lock.newCondition();
+    // Signalled by the writer when it commits a batch, rotates the file or stops.
+    private final Condition committed = lock.newCondition();
+    private byte[] buffer = new byte[1 << 16];
+    private int buffered;
+    // Written under the lock; read without it only to skip waiting when nothing is in flight.
+    private volatile long appended;
+    private volatile long commits;
+    private boolean rotateRequested;
+    private boolean closed;
+    private volatile boolean stopped;
+    private IOException failure;
+
+    // Owned by the writer thread, except while the log is opened.
+    private byte[] spare = new byte[1 << 16];
+    private FileChannel channel;
+    private long generation;
+    private long generationSize;
+    private long lastSync;
+    private boolean unsynced;
+
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private SnapshotWriter snapshotWriter;
+    private Thread writer;
+
+    private WriteAheadLog(Path directory, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec,
+                          DarvinHashMap.FsyncPolicy fsyncPolicy, long checkpointLogSize) {
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.fsyncPolicy = fsyncPolicy;
+        this.checkpointLogSize = checkpointLogSize;
+    }
+
+    /**
+     * Recovers the map stored in directory, creating it if needed: loads the newest
+     * checkpoint and replays the logs written since into replay, which gets a null value
+     * for a removal. Replay of a file stops at its first torn or corrupt record, which can
+     * only be the tail a crash cut short. New records go to a file of a new generation.
+     * A checkpoint a crash interrupted left only a temporary file, which is removed.
+     */
+    static <K, V> WriteAheadLog<K, V> open(Path directory, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec,
+                                           DarvinHashMap.FsyncPolicy fsyncPolicy, long checkpointLogSize,
+                                           BiConsumer<K, V> replay) throws IOException {
+        Files.createDirectories(directory);
+        TreeSet<Long> logs = new TreeSet<>();
+        long checkpoint = -1;
+        List<Path> unfinished = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long logGeneration = generationOf(name, "wal-", ".log");
+                long checkpointGeneration = generationOf(name, "checkpoint-", ".snap");
+                if (logGeneration >= 0) {
+                    logs.add(logGeneration);
+                }
+                if (generationOf(name, "checkpoint-", ".snap.tmp") >= 0) {
+                    unfinished.add(file);
+                }
+                checkpoint = Math.max(checkpoint, checkpointGeneration);
+            }
+        }
+        for (Path file : unfinished) {
+            Files.delete(file);
+        }
+        if (checkpoint >= 0) {
+            try (Arena arena = Arena.ofConfined()) {
+                Snapshot snapshot = Snapshot.open(directory.resolve(checkpointName(checkpoint)), arena);
+                long offset = snapshot.entriesStart();
+                for (long i = 0; i < snapshot.count; i++) {
+                    replay.accept(snapshot.keyAt(offset, keyCodec), snapshot.valueAt(offset, valueCodec));
+                    offset = snapshot.nextEntry(offset);
+                }
+            }
+        }
+        for (long logGeneration : logs.tailSet(Math.max(checkpoint, 0))) {
+            replayLog(directory.resolve(logName(logGeneration)), keyCodec, valueCodec, replay);
+        }
+        WriteAheadLog<K, V> log = new WriteAheadLog<>(directory, keyCodec, valueCodec, fsyncPolicy, checkpointLogSize);
+        log.generation = Math.max(checkpoint, logs.isEmpty() ? 0 : logs.last()) + 1;
+        log.channel = FileChannel.open(directory.resolve(logName(log.generation)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        // Records forced into a file whose name is lost would be lost with it.
+        Snapshot.forceDirectory(directory);
+        return log;
+    }
+
+    private static long generationOf(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String logName(long generation) {
+        return "wal-" + generation + ".log";
+    }
+
+    private static String checkpointName(long generation) {
+        return "checkpoint-" + generation + ".snap";
+    }
+
+    private static <K, V> void replayLog(Path path, DarvinCodec<K> keyCodec, DarvinCodec<V> valueCodec,
+                                         BiConsumer<K, V> replay) throws IOException {
+        try (FileChannel log = FileChannel.open(path, StandardOpenOption.READ);
+             Arena arena = Arena.ofConfined()) {
+            MemorySegment file = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size(), arena);
+            CRC32C crc = new CRC32C();
+            long offset = 0;
+            while (file.byteSize() - offset >= RECORD_HEADER_BYTES) {
+                int size = file.get(INT, offset);
+                long payload = offset + RECORD_HEADER_BYTES;
+                if (size < PAYLOAD_HEADER_BYTES || size > file.byteSize() - payload) {
+                    return;
+                }
+                crc.reset();
+                crc.update(file.asSlice(payload, size).asByteBuffer());
+                int keySize = file.get(INT, payload + 1);
+                if ((int) crc.getValue() != file.get(INT, offset + Integer.BYTES)
+                        || keySize < 0 || keySize > size - PAYLOAD_HEADER_BYTES) {
+                    return;
+                }
+                K key = keyCodec.decode(file, payload + PAYLOAD_HEADER_BYTES, keySize);
+                V value = file.get(ValueLayout.JAVA_BYTE, payload) == REMOVE ? null : valueCodec.decode(file,
+                        payload + PAYLOAD_HEADER_BYTES + keySize, size - PAYLOAD_HEADER_BYTES - keySize);
+                replay.accept(key, value);
+                offset = payload + size;
+            }
+        }
+    }
+
+    /** Starts the writer thread; snapshotWriter takes the checkpoints. */
+    void start(SnapshotWriter snapshotWriter) {
+        this.snapshotWriter = snapshotWriter;
+        lastSync = System.nanoTime();
+        writer = Thread.ofPlatform()
+                .name("DarvinHashMap-wal-" + directory.getFileName())
+                .daemon()
+                .start(this::writeLoop);
+    }
+
+    /** Appends the change of key to value, or its removal when value is null. */
+    void append(K key, V value) {
+        int keySize = keyCodec.encodedSize(key);
+        int payloadSize = PAYLOAD_HEADER_BYTES + keySize + (value == null ? 0 : valueCodec.encodedSize(value));
+        byte[] record = new byte[RECORD_HEADER_BYTES + payloadSize];
+        MemorySegment segment = MemorySegment.ofArray(record);
+        segment.set(INT, 0, payloadSize);
+        segment.set(ValueLayout.JAVA_BYTE, RECORD_HEADER_BYTES, value == null ? REMOVE : PUT);
+        segment.set(INT, RECORD_HEADER_BYTES + 1, keySize);
+        keyCodec.encode(key, segment, RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES);
+        if (value != null) {
+            valueCodec.encode(value, segment, RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES + keySize);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record, RECORD_HEADER_BYTES, payloadSize);
+        segment.set(INT, Integer.BYTES, (int) crc.getValue());
+        lock.lock();
+        try {
+            if (buffered + record.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, buffered + record.length));
+            }
+            System.arraycopy(record, 0, buffer, buffered, record.length);
+            buffered += record.length;
+            appended++;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Throws IllegalStateException once the log is closed, so that writes fail before they happen. */
+    void checkOpen() {
+        if (stopped) {
+            throw new IllegalStateException("The write-ahead log is closed");
+        }
+    }
+
+    /**
+     * Waits until every record appended so far is committed: written to the file, and
+     * forced to disk too under {@link DarvinHashMap.FsyncPolicy#ALWAYS}.
+     */
+    void await() {
+        if (commits == appended) {
+            return;
+        }
+        lock.lock();
+        try {
+            long target = appended;
+            while (commits < target) {
+                if (failure != null) {
+                    throw new UncheckedIOException("The write-ahead log failed", failure);
+                }
+                if (stopped) {
+                    throw new IllegalStateException("The write-ahead log is closed");
+                }
+                committed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a checkpoint: moves the writer on to a new log file, snapshots the map and then
+     * deletes the files the snapshot makes obsolete. Writes go on meanwhile; the ones the
+     * snapshot misses are in the new file. The snapshot's name is on disk before anything is
+     * deleted, so a crash cannot keep the deletions and lose the snapshot.
+     */
+    void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            long checkpoint;
+            lock.lock();
+            try {
+                rotateRequested = true;
+                pending.signal();
+                while (rotateRequested) {
+                    if (failure != null) {
+                        throw new IOException("The write-ahead log failed", failure);
+                    }
+                    if (stopped) {
+                        throw new IllegalStateException("The write-ahead log is closed");
+                    }
+                    committed.awaitUninterruptibly();
+                }
+                checkpoint = generation;
+            } finally {
+                lock.unlock();
+            }
+            snapshotWriter.write(directory.resolve(checkpointName(checkpoint)));
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long g = Math.max(generationOf(name, "wal-", ".log"), generationOf(name, "checkpoint-", ".snap"));
+                    if (g >= 0 && g < checkpoint) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a running checkpoint, then commits the records appended so far, forces them
+     * to disk and stops the writer.
+     */
+    void close() throws IOException {
+        checkpointLock.lock();
+        try {
+            lock.lock();
+            try {
+                closed = true;
+                pending.signal();
+            } finally {
+                lock.unlock();
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the write-ahead log", e);
+        } finally {
+            checkpointLock.unlock();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] batch;
+                int n;
+                long end;
+                boolean rotate;
+                lock.lock();
+                try {
+                    while (buffered == 0 && !rotateRequested && !closed) {
+                        if (unsynced && fsyncPolicy == DarvinHashMap.FsyncPolicy.EVERY_SECOND) {
+                            long wait = lastSync + SYNC_INTERVAL - System.nanoTime();
+                            if (wait <= 0) {
+                                break;
+                            }
+                            pending.awaitNanos(wait);
+                        } else {
+                            pending.awaitUninterruptibly();
+                        }
+                    }
+                    batch = buffer;
+                    n = buffered;
+                    end = appended;
+                    rotate = rotateRequested;
+                    buffer = spare;
+                    buffered = 0;
+                } finally {
+                    lock.unlock();
+                }
+                spare = batch;
+                write(batch, n);
+                if (fsyncPolicy == DarvinHashMap.FsyncPolicy.ALWAYS
+                        || (unsynced && fsyncPolicy == DarvinHashMap.FsyncPolicy.EVERY_SECOND
+                        && System.nanoTime() - lastSync >= SYNC_INTERVAL)) {
+                    sync();
+                }
+                if (rotate) {
+                    sync();
+                    channel.close();
+                    channel = FileChannel.open(directory.resolve(logName(generation + 1)),
+                            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    Snapshot.forceDirectory(directory);
+                    generationSize = 0;
+                }
+                boolean done;
+                lock.lock();
+                try {
+                    commits = end;
+                    if (rotate) {
+                        generation++;
+                        rotateRequested = false;
+                    }
+                    done = closed && buffered == 0;
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (done) {
+                    sync();
+                    channel.close();
+                    return;
+                }
+                if (generationSize >= checkpointLogSize && checkpointing.compareAndSet(false, true)) {
+                    Thread.ofPlatform().name("DarvinHashMap-checkpoint-" + directory.getFileName()).daemon().start(() -> {
+                        try {
+                            checkpoint();
+                        } catch (IOException | RuntimeException e) {
+                            // The logs stay in place, so nothing is lost; the next checkpoint tries again.
+                        } finally {
+                            checkpointing.set(false);
+                        }
+                    });
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            IOException error = e instanceof IOException io
+                    ? io : new InterruptedIOException("The write-ahead log writer was interrupted");
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                error.addSuppressed(suppressed);
+            }
+            lock.lock();
+            try {
+                failure = error;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            lock.lock();
+            try {
+                stopped = true;
+                committed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(byte[] batch, int n) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(batch, 0, n);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        generationSize += n;
+        unsynced |= n > 0;
+    }
+
+    private void sync() throws IOException {
+        if (unsynced) {
+            channel.force(false);
+            unsynced = false;
+        }
+        lastSync = System.nanoTime();
+    }
+}
@@ -0,0 +1,175 @@
+import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinCodec;
+import org.UlGTU.DarvinHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedDarvinMapTest {
+
+    @Test
+    public void testSizeStaysBounded() {
+        for (DarvinHashMap.Storage storage : new DarvinHashMap.Storage[]{
+                DarvinHashMap.Storage.CHAINED, DarvinHashMap.Storage.LINEAR_PROBING, DarvinHashMap.Storage.ROBIN_HOOD}) {
+            Map<Integer, String> evicted = new ConcurrentHashMap<>();
+            DarvinHashMap<Integer, String> cache = DarvinHashMap.<Integer, String>builder()
+                    .storage(storage)
+                    .maximumSize(100)
+                    .evictionListener(evicted::put)
+                    .build();
+            for (int i = 0; i < 1000; i++) {
+                cache.put(i, "v" + i);
+                assertTrue(cache.size() <= 100, storage.name());
+            }
+            assertEquals(100, cache.size(), storage.name());
+            assertEquals(900, evicted.size(), storage.name());
+            for (Map.Entry<Integer, String> entry : evicted.entrySet()) {
+                assertEquals("v" + entry.getKey(), entry.getValue());
+                assertFalse(cache.containsKey(entry.getKey()));
+            }
+            int present = 0;
+            for (Integer key : cache.keySet()) {
+                assertEquals("v" + key, cache.get(key));
+                present++;
+            }
+            assertEquals(100, present);
+
+            cache.clear();
+            assertTrue(cache.isEmpty());
+            assertEquals(900, evicted.size(), "clear is not an eviction");
+            cache.put(1, "one");
+            assertEquals("one", cache.get(1));
+        }
+    }
+
+    @Test
+    public void testFrequentlyReadKeysSurviveScan() {
+        DarvinHashMap<Integer, Integer> cache = DarvinHashMap.<Integer, Integer>builder().maximumSize(100).build();
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, cache.get(i));
+            }
+        }
+        // A burst of keys that are each used once must not flush out the hot half.
+        for (int i = 1000; i < 1500; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(100, cache.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, cache.get(i), "hot key " + i);
+        }
+    }
+
+    @Test
+    public void testMaximumWeight() {
+        List<String> evicted = new ArrayList<>();
+        DarvinHashMap<Integer, String> cache = DarvinHashMap.<Integer, String>builder()
+                .maximumWeight(100, (k, v) -> v.length())
+                .evictionListener((k, v) -> evicted.add(v))
+                .build();
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, "0123456789");
+        }
+        assertEquals(10, cache.size());
+        assertEquals(40, evicted.size());
+
+        // Growing a value counts against the bound too.
+        Integer key = cache.keySet().iterator().next();
+        cache.put(key, "x".repeat(55));
+        long weight = cache.reduceToLong(Long.MAX_VALUE, (k, v) -> v.length(), 0L, Long::sum);
+        assertTrue(weight <= 100, "weight " + weight);
+
+        String huge = "y".repeat(101);
+        cache.put(-1, huge);
+        assertFalse(cache.containsKey(-1));
+        assertTrue(evicted.contains(huge));
+    }
+
+    @Test
+    public void testInvalidConfigurations() {
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.builder().maximumSize(-1));
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, String>builder()
+                .evictionListener((k, v) -> {
+                })
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, String>builder()
+                .storage(DarvinHashMap.Storage.OFF_HEAP)
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .maximumSize(10)
+                .build());
+        DarvinHashMap<Integer, String> negative = DarvinHashMap.<Integer, String>builder()
+                .maximumWeight(10, (k, v) -> -1)
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> negative.put(1, "one"));
+        assertTrue(negative.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws InterruptedException {
+        LongAdder evictions = new LongAdder();
+        LongAdder inserts = new LongAdder();
+        DarvinHashMap<Integer, Integer> cache = DarvinHashMap.<Integer, Integer>builder()
+                .maximumSize(500)
+                .evictionListener((k, v) -> {
+                    assertEquals(k, v);
+                    evictions.increment();
+                })
+                .build();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 50000; i++) {
+                    int key = random.nextInt(5000);
+                    if (random.nextBoolean()) {
+                        Integer value = cache.get(key);
+                        if (value != null && value != key) {
+                            failed.set(true);
+                        }
+                    } else if (cache.putIfAbsent(key, key) == null) {
+                        inserts.increment();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed.get());
+        assertTrue(cache.size() <= 500, "size " + cache.size());
+        assertEquals(inserts.sum(), evictions.sum() + cache.size());
+    }
+
+    @Test
+    public void testEqualsOfBoundedMapsScans() {
+        DarvinHashMap<Integer, Integer> bounded = DarvinHashMap.<Integer, Integer>builder()
+                .maximumSize(100)
+                .build();
+        DarvinHashMap<Integer, Integer> plain = new DarvinHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            bounded.put(i, i * i);
+            plain.put(i, i * i);
+        }
+        assertEquals(plain, bounded);
+        assertEquals(bounded, plain);
+        assertEquals(plain.hashCode(), bounded.hashCode());
+        bounded.put(0, -1);
+        assertNotEquals(plain, bounded);
+        assertNotEquals(bounded, null);
+        assertNotEquals(bounded, "map");
+    }
+}
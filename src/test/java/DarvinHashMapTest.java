@@ -1,14 +1,39 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinCodec;
 import org.UlGTU.DarvinHashMap;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class DarvinHashMapTest {
+    // Off-heap storage needs codecs, so it has its own tests.
+    private static final Set<DarvinHashMap.Storage> HEAP_STORAGES =
+            EnumSet.complementOf(EnumSet.of(DarvinHashMap.Storage.OFF_HEAP));
 
     private DarvinHashMap<Integer, String> map;
 
@@ -212,4 +237,1290 @@ public class DarvinHashMapTest {
         assertEquals("oneONE", map.get(1));
         assertEquals("two", map.get(2));
     }
+
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        DarvinHashMap<Integer, String> small = new DarvinHashMap<>(4, 0.75f);
+        for (int i = 0; i < 100000; i++) {
+            small.put(i, "v" + i);
+        }
+        assertEquals(100000, small.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals("v" + i, small.get(i));
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            assertEquals("v" + i, small.remove(i));
+        }
+        assertEquals(50000, small.size());
+        assertFalse(small.containsKey(0));
+        assertTrue(small.containsKey(1));
+        assertEquals(50000, small.keySet().size());
+    }
+
+    @Test
+    public void testIllegalConstructorArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new DarvinHashMap<Integer, String>(-1));
+        assertThrows(IllegalArgumentException.class, () -> new DarvinHashMap<Integer, String>(16, 0f));
+        assertThrows(IllegalArgumentException.class, () -> new DarvinHashMap<Integer, String>(16, Float.NaN));
+    }
+
+    @Test
+    public void testConcurrentPutsDuringResize() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> shared = new DarvinHashMap<>(1);
+        int threads = 4;
+        int perThread = 50000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            workers.add(new Thread(() -> {
+                for (int i = offset; i < offset + perThread; i++) {
+                    shared.put(i, i);
+                    assertEquals(i, shared.get(i));
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, shared.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals(i, shared.get(i));
+        }
+    }
+
+    @Test
+    public void testReadsSeeStableKeysDuringWritesAndResize() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> shared = new DarvinHashMap<>(1);
+        for (int i = 0; i < 10000; i++) {
+            shared.put(i, i);
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 10000; i < 300000; i++) {
+                shared.put(i, i);
+                if (i % 3 == 0) {
+                    shared.remove(i);
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                while (writer.isAlive()) {
+                    for (int i = 0; i < 10000; i++) {
+                        if (!Integer.valueOf(i).equals(shared.get(i)) || !shared.containsKey(i)) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(failed.get());
+        assertEquals(10000 + 290000 - 290000 / 3, shared.size());
+    }
+
+    @Test
+    public void testMappingCountUnderConcurrentInsertsAndRemoves() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> shared = new DarvinHashMap<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t * 20000;
+            workers.add(new Thread(() -> {
+                for (int i = offset; i < offset + 20000; i++) {
+                    shared.put(i, i);
+                }
+                for (int i = offset; i < offset + 20000; i += 4) {
+                    shared.remove(i);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(120000L, shared.mappingCount());
+        assertEquals(120000, shared.size());
+        shared.clear();
+        assertEquals(0L, shared.mappingCount());
+        assertTrue(shared.isEmpty());
+    }
+
+    @Test
+    public void testOpenAddressingStorage() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, String> open = new DarvinHashMap<>(4, 0.75f, storage);
+            for (int i = 0; i < 50000; i++) {
+                assertNull(open.put(i, "v" + i));
+            }
+            for (int i = 0; i < 50000; i += 3) {
+                assertEquals("v" + i, open.remove(i), storage.name());
+            }
+            for (int i = 0; i < 50000; i++) {
+                assertEquals(i % 3 == 0 ? null : "v" + i, open.get(i), storage.name());
+            }
+            assertEquals(50000 - 16667, open.size(), storage.name());
+            assertEquals("v1x", open.merge(1, "x", String::concat));
+            assertTrue(open.replace(2, "v2", "two"));
+            assertEquals("two", open.get(2));
+            assertNull(open.compute(2, (k, v) -> null));
+            assertFalse(open.containsKey(2));
+            assertTrue(open.containsValue("v4"));
+            open.clear();
+            assertTrue(open.isEmpty(), storage.name());
+        }
+    }
+
+    @Test
+    public void testOpenAddressingCollidingKeys() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<CollidingKey, Integer> open = new DarvinHashMap<>(16, 0.75f, storage);
+            for (int i = 0; i < 200; i++) {
+                open.put(new CollidingKey(i), i);
+            }
+            for (int i = 0; i < 200; i += 2) {
+                assertEquals(i, open.remove(new CollidingKey(i)), storage.name());
+            }
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i % 2 == 0 ? null : i, open.get(new CollidingKey(i)), storage.name());
+            }
+            assertEquals(100, open.size());
+        }
+    }
+
+    @Test
+    public void testNullValuesRejected() {
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertThrows(NullPointerException.class, () -> map.putIfAbsent(1, null));
+        assertThrows(NullPointerException.class, () -> map.merge(1, null, String::concat));
+    }
+
+    @Test
+    public void testMatchesHashMapUnderRandomOperations() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, Integer> darvin = new DarvinHashMap<>(2, 0.75f, storage);
+            Map<Integer, Integer> expected = new HashMap<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 200000; i++) {
+                int key = random.nextInt(5000);
+                int value = random.nextInt(100);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        assertEquals(expected.put(key, value), darvin.put(key, value), storage.name());
+                        break;
+                    case 1:
+                        assertEquals(expected.remove(key), darvin.remove(key), storage.name());
+                        break;
+                    case 2:
+                        assertEquals(expected.merge(key, value, Integer::sum), darvin.merge(key, value, Integer::sum));
+                        break;
+                    default:
+                        assertEquals(expected.get(key), darvin.get(key), storage.name());
+                }
+            }
+            assertEquals(expected.size(), darvin.size(), storage.name());
+            assertEquals(expected.entrySet(), darvin.entrySet(), storage.name());
+        }
+    }
+
+    @Test
+    public void testLongCollisionChainsStayCorrect() {
+        DarvinHashMap<CollidingKey, Integer> colliding = new DarvinHashMap<>();
+        DarvinHashMap<ComparableCollidingKey, Integer> comparable = new DarvinHashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            colliding.put(new CollidingKey(i), i);
+            comparable.put(new ComparableCollidingKey(i), i);
+        }
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, colliding.get(new CollidingKey(i)));
+            assertEquals(i, comparable.get(new ComparableCollidingKey(i)));
+        }
+        for (int i = 0; i < 2990; i++) {
+            assertEquals(i, colliding.remove(new CollidingKey(i)));
+            assertEquals(i, comparable.remove(new ComparableCollidingKey(i)));
+        }
+        assertEquals(10, colliding.size());
+        assertEquals(10, comparable.size());
+        for (int i = 2990; i < 3000; i++) {
+            assertEquals(i, colliding.get(new CollidingKey(i)));
+            assertEquals(i, comparable.get(new ComparableCollidingKey(i)));
+        }
+        assertNull(colliding.get(new CollidingKey(0)));
+    }
+
+    @Test
+    public void testFunctionsMayWriteToTheirOwnBucket() {
+        for (DarvinHashMap.Locking locking : List.of(DarvinHashMap.Locking.READ_WRITE, DarvinHashMap.Locking.MONITOR)) {
+            for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+                if (locking == DarvinHashMap.Locking.MONITOR && storage != DarvinHashMap.Storage.CHAINED) {
+                    continue;
+                }
+                String label = locking + " " + storage;
+                DarvinHashMap<CollidingKey, String> colliding = DarvinHashMap.<CollidingKey, String>builder()
+                        .storage(storage)
+                        .locking(locking)
+                        .build();
+                colliding.put(new CollidingKey(0), "a");
+                assertEquals("b", colliding.computeIfAbsent(new CollidingKey(4), k -> {
+                    colliding.put(new CollidingKey(8), "c");
+                    return "b";
+                }), label);
+                assertEquals(3, colliding.size(), label);
+                assertEquals("c", colliding.get(new CollidingKey(8)), label);
+                assertEquals("b", colliding.get(new CollidingKey(4)), label);
+                assertEquals(3, colliding.entrySet().stream().count(), label);
+
+                assertEquals("cd", colliding.merge(new CollidingKey(8), "d", (a, b) -> {
+                    colliding.remove(new CollidingKey(4));
+                    return a + b;
+                }), label);
+                assertEquals(Map.of(new CollidingKey(0), "a", new CollidingKey(8), "cd"), new HashMap<>(colliding), label);
+
+                // A function that changes the mapping it computes has nothing left to apply to.
+                assertThrows(IllegalStateException.class, () -> colliding.compute(new CollidingKey(8), (k, v) -> {
+                    colliding.put(k, "nested");
+                    return "outer";
+                }), label);
+                assertEquals("nested", colliding.get(new CollidingKey(8)), label);
+                assertEquals(2, colliding.size(), label);
+            }
+        }
+    }
+
+    @Test
+    public void testFunctionsWritingDuringAResizeDoNotDeadlock() {
+        Executor threads = task -> Thread.ofPlatform().start(task);
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            for (DarvinHashMap.Locking locking : List.of(DarvinHashMap.Locking.READ_WRITE, DarvinHashMap.Locking.MONITOR)) {
+                for (int round = 0; round < 300; round++) {
+                    DarvinHashMap<Integer, Integer> map = DarvinHashMap.<Integer, Integer>builder()
+                            .initialCapacity(2)
+                            .concurrencyLevel(2)
+                            .locking(locking)
+                            .build();
+                    map.put(0, 0);
+                    map.put(1, 0);
+                    CyclicBarrier start = new CyclicBarrier(2);
+                    // Each function holds the lock of its own key while its writes resize the
+                    // table, whose buckets include the other key's.
+                    List<CompletableFuture<Void>> writers = new ArrayList<>();
+                    for (int t = 0; t < 2; t++) {
+                        int own = t;
+                        writers.add(CompletableFuture.runAsync(() -> {
+                            try {
+                                start.await();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                            map.computeIfPresent(own, (k, v) -> {
+                                for (int i = 1; i <= 64; i++) {
+                                    map.put(2 * i + own, i);
+                                }
+                                return v + 1;
+                            });
+                        }, threads));
+                    }
+                    for (CompletableFuture<Void> writer : writers) {
+                        writer.join();
+                    }
+                    assertEquals(130, map.size(), locking.name());
+                    assertEquals(1, map.get(0), locking.name());
+                    assertEquals(1, map.get(1), locking.name());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testFunctionsMayGrowTheMap() {
+        for (DarvinHashMap.Locking locking : List.of(DarvinHashMap.Locking.READ_WRITE, DarvinHashMap.Locking.MONITOR)) {
+            for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+                if (locking == DarvinHashMap.Locking.MONITOR && storage != DarvinHashMap.Storage.CHAINED) {
+                    continue;
+                }
+                String label = locking + " " + storage;
+                DarvinHashMap<CollidingKey, Integer> colliding = DarvinHashMap.<CollidingKey, Integer>builder()
+                        .initialCapacity(2)
+                        .storage(storage)
+                        .locking(locking)
+                        .build();
+                colliding.put(new CollidingKey(0), 0);
+                // Treeifies the bucket of the key and resizes the table under the function.
+                Function<CollidingKey, Integer> grow = k -> {
+                    for (int i = 1; i < 400; i++) {
+                        colliding.put(new CollidingKey(4 * i + 1), i);
+                    }
+                    return -1;
+                };
+                try {
+                    assertEquals(-1, colliding.computeIfAbsent(new CollidingKey(4), grow), label);
+                    assertEquals(401, colliding.size(), label);
+                } catch (IllegalStateException e) {
+                    // Monitor locking cannot follow a bucket whose head the function replaced.
+                    assertEquals(DarvinHashMap.Locking.MONITOR, locking, label);
+                    assertNull(colliding.get(new CollidingKey(4)), label);
+                    assertEquals(400, colliding.size(), label);
+                }
+                assertEquals(colliding.size(), colliding.keySet().stream().count(), label);
+                for (int i = 1; i < 400; i++) {
+                    assertEquals(i, colliding.get(new CollidingKey(4 * i + 1)), label);
+                }
+            }
+        }
+    }
+    @Test
+    public void testCollidingKeysMatchHashMapUnderRandomOperations() {
+        DarvinHashMap<ComparableCollidingKey, Integer> darvin = new DarvinHashMap<>();
+        Map<ComparableCollidingKey, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            ComparableCollidingKey key = new ComparableCollidingKey(random.nextInt(300));
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), darvin.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), darvin.remove(key));
+            }
+            assertEquals(expected.get(key), darvin.get(key));
+        }
+        assertEquals(expected.entrySet(), darvin.entrySet());
+    }
+
+    @Test
+    public void testReadsOfTreeifiedBucketDuringWrites() throws InterruptedException {
+        DarvinHashMap<ComparableCollidingKey, Integer> shared = new DarvinHashMap<>(128);
+        for (int i = 0; i < 500; i++) {
+            shared.put(new ComparableCollidingKey(i), i);
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 200; round++) {
+                for (int i = 500; i < 1000; i++) {
+                    shared.put(new ComparableCollidingKey(i), i);
+                }
+                for (int i = 500; i < 1000; i++) {
+                    shared.remove(new ComparableCollidingKey(i));
+                }
+            }
+        });
+        Thread reader = new Thread(() -> {
+            while (writer.isAlive()) {
+                for (int i = 0; i < 500; i++) {
+                    if (!Integer.valueOf(i).equals(shared.get(new ComparableCollidingKey(i)))) {
+                        failed.set(true);
+                    }
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertFalse(failed.get());
+        assertEquals(500, shared.size());
+    }
+
+    @Test
+    public void testBuilderWithHashMixing() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            for (DarvinHashMap.HashMixing mixing : DarvinHashMap.HashMixing.values()) {
+                DarvinHashMap<Integer, String> mixed = DarvinHashMap.<Integer, String>builder()
+                        .initialCapacity(8)
+                        .storage(storage)
+                        .hashMixing(mixing)
+                        .build();
+                mixed.put(Integer.MIN_VALUE, "min");
+                mixed.put(Integer.MAX_VALUE, "max");
+                mixed.put(-1, "minus one");
+                for (int i = 0; i < 10000; i++) {
+                    mixed.put(i * 1024, "v" + i);
+                }
+                assertEquals("min", mixed.get(Integer.MIN_VALUE));
+                assertEquals("max", mixed.get(Integer.MAX_VALUE));
+                assertEquals("minus one", mixed.get(-1));
+                assertEquals("v9999", mixed.get(9999 * 1024));
+                assertEquals(10003, mixed.size());
+            }
+        }
+    }
+
+    @Test
+    public void testAddToAndIncrement() throws InterruptedException {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<String, Long> counters = new DarvinHashMap<>(16, 0.75f, storage);
+            assertEquals(1L, counters.increment("a"));
+            assertEquals(2L, counters.increment("a"));
+            assertEquals(1002L, counters.addTo("a", 1000));
+            assertEquals(-5L, counters.addTo("b", -5));
+            assertEquals(0L, counters.addTo("b", 5));
+            assertEquals(0L, counters.get("b"));
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        counters.increment("k" + (i % 100));
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals(400L, counters.get("k" + i), storage.name());
+            }
+        }
+    }
+
+    @Test
+    public void testViewsAreLiveAndSupportIteratorRemove() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, String> live = new DarvinHashMap<>(4, 0.75f, storage);
+            Set<Integer> keys = live.keySet();
+            Collection<String> values = live.values();
+            Set<Map.Entry<Integer, String>> entries = live.entrySet();
+            for (int i = 0; i < 1000; i++) {
+                live.put(i, "v" + i);
+            }
+            assertEquals(1000, keys.size(), storage.name());
+            assertTrue(keys.contains(999));
+            assertTrue(values.contains("v999"));
+            assertTrue(entries.contains(Map.entry(5, "v5")));
+            assertFalse(entries.contains(Map.entry(5, "v6")));
+
+            Iterator<Integer> it = keys.iterator();
+            while (it.hasNext()) {
+                if (it.next() % 2 == 0) {
+                    it.remove();
+                }
+            }
+            assertEquals(500, live.size(), storage.name());
+            assertNull(live.get(0));
+            assertThrows(IllegalStateException.class, () -> keys.iterator().remove());
+
+            values.removeIf(v -> v.endsWith("1"));
+            assertEquals(400, live.size(), storage.name());
+            for (Map.Entry<Integer, String> entry : entries) {
+                entry.setValue("x" + entry.getKey());
+            }
+            assertEquals("x3", live.get(3));
+            assertTrue(entries.remove(Map.entry(3, "x3")));
+            assertTrue(keys.remove(5));
+            assertEquals(398, live.size(), storage.name());
+            Set<Integer> seen = new HashSet<>();
+            for (Integer key : keys) {
+                assertTrue(seen.add(key), storage.name());
+            }
+            assertEquals(398, seen.size(), storage.name());
+            keys.clear();
+            assertTrue(live.isEmpty());
+            assertFalse(keys.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testIterationDuringResizeSeesEveryKeyOnce() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> growing = new DarvinHashMap<>(2);
+        for (int i = 0; i < 20000; i++) {
+            growing.put(i, i);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 20000; i < 400000 && !done.get(); i++) {
+                growing.put(i, i);
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 20; round++) {
+                Set<Integer> seen = new HashSet<>();
+                for (Integer key : growing.keySet()) {
+                    assertTrue(seen.add(key));
+                }
+                for (int i = 0; i < 20000; i++) {
+                    assertTrue(seen.contains(i));
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testIterationDuringConcurrentInsertsSeesEveryKeyOnce() throws InterruptedException {
+        for (DarvinHashMap.Storage storage : EnumSet.range(DarvinHashMap.Storage.LINEAR_PROBING,
+                DarvinHashMap.Storage.OFF_HEAP)) {
+            DarvinHashMap<Integer, Integer> growing = DarvinHashMap.<Integer, Integer>builder()
+                    .storage(storage)
+                    .initialCapacity(2)
+                    .keyCodec(DarvinCodec.ints())
+                    .valueCodec(DarvinCodec.ints())
+                    .build();
+            for (int i = 0; i < 20000; i++) {
+                growing.put(i, i);
+            }
+            // Inserts displace entries and grow segments; removals shift entries back.
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() -> {
+                for (int i = 20100; i < 2000000 && !done.get(); i++) {
+                    growing.put(i, i);
+                    if (i % 4 != 0) {
+                        growing.remove(i - 100);
+                    }
+                }
+            });
+            writer.start();
+            try {
+                for (int round = 0; round < 20; round++) {
+                    Set<Integer> seen = new HashSet<>();
+                    for (Integer key : growing.keySet()) {
+                        assertTrue(seen.add(key), storage.name());
+                    }
+                    for (int i = 0; i < 20000; i++) {
+                        assertTrue(seen.contains(i), storage.name());
+                    }
+                    // The views report DISTINCT, so distinct() lets every element through.
+                    assertEquals(20000, growing.keySet().parallelStream().distinct().filter(k -> k < 20000).count(),
+                            storage.name());
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBulkOperations() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, Long> big = new DarvinHashMap<>(16, 0.75f, storage);
+            for (int i = 0; i < 100000; i++) {
+                big.put(i, (long) i);
+            }
+            long expectedSum = 100000L * 99999 / 2;
+            for (long threshold : new long[]{1, 1000, Long.MAX_VALUE}) {
+                LongAdder sum = new LongAdder();
+                LongAdder count = new LongAdder();
+                big.forEach(threshold, (k, v) -> {
+                    sum.add(v);
+                    count.increment();
+                });
+                assertEquals(expectedSum, sum.sum(), storage.name());
+                assertEquals(100000, count.sum(), storage.name());
+                assertEquals(expectedSum, big.reduceToLong(threshold, (k, v) -> v, 0L, Long::sum), storage.name());
+                assertEquals(99999L, big.reduceValues(threshold, Math::max), storage.name());
+                assertEquals("found", big.search(threshold, (k, v) -> k == 77777 ? "found" : null));
+                assertNull(big.search(threshold, (k, v) -> k < 0 ? "negative" : null));
+            }
+        }
+        DarvinHashMap<Integer, Long> empty = new DarvinHashMap<>();
+        assertNull(empty.reduceValues(1, Math::max));
+        assertEquals(7L, empty.reduceToLong(1, (k, v) -> v, 7L, Long::sum));
+    }
+
+    @Test
+    public void testParallelStreamsOverViews() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, Integer> big = new DarvinHashMap<>(16, 0.75f, storage);
+            for (int i = 0; i < 100000; i++) {
+                big.put(i, i % 10);
+            }
+            assertEquals(100000L * 99999 / 2, big.keySet().parallelStream().mapToLong(Integer::longValue).sum());
+            assertEquals(450000, big.values().parallelStream().mapToInt(Integer::intValue).sum());
+            assertEquals(10000, big.entrySet().parallelStream().filter(e -> e.getValue() == 3).count());
+            assertEquals(100000, big.keySet().parallelStream().distinct().count(), storage.name());
+
+            Spliterator<Integer> spliterator = big.keySet().spliterator();
+            assertTrue(spliterator.hasCharacteristics(Spliterator.CONCURRENT));
+            assertTrue(spliterator.hasCharacteristics(Spliterator.DISTINCT));
+            assertTrue(spliterator.hasCharacteristics(Spliterator.NONNULL));
+            assertFalse(big.values().spliterator().hasCharacteristics(Spliterator.DISTINCT));
+            assertEquals(100000, spliterator.estimateSize());
+            Spliterator<Integer> half = spliterator.trySplit();
+            assertNotNull(half, storage.name());
+            assertEquals(50000, half.estimateSize());
+            long[] counts = new long[2];
+            half.forEachRemaining(k -> counts[0]++);
+            spliterator.forEachRemaining(k -> counts[1]++);
+            assertEquals(100000, counts[0] + counts[1]);
+            assertTrue(counts[0] > 0 && counts[1] > 0, storage.name());
+        }
+    }
+
+    @Test
+    public void testBatchPutAllGetAllRemoveAll() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, String> small = new DarvinHashMap<>(4, 0.75f, storage);
+            small.put(-1, "kept");
+            Map<Integer, String> source = new HashMap<>();
+            for (int i = 0; i < 50000; i++) {
+                source.put(i, "v" + i);
+            }
+            small.putAll(source);
+            assertEquals(50001, small.size(), storage.name());
+            for (int i = 0; i < 50000; i++) {
+                assertEquals("v" + i, small.get(i));
+            }
+
+            List<Integer> wanted = new ArrayList<>();
+            for (int i = -7; i < 50000; i += 7) {
+                wanted.add(i);
+            }
+            Map<Integer, String> found = small.getAll(wanted);
+            for (int k : wanted) {
+                assertEquals(k < 0 ? null : "v" + k, found.get(k), storage.name());
+            }
+            assertEquals(wanted.size() - 1, found.size());
+
+            assertEquals(wanted.size() - 1, small.removeAll(wanted), storage.name());
+            assertEquals(50001 - (wanted.size() - 1), small.size());
+            assertNull(small.get(7));
+            assertEquals("v8", small.get(8));
+            assertEquals(0, small.removeAll(wanted));
+            assertTrue(small.keySet().removeAll(List.of(-1, 8)));
+            assertNull(small.get(-1));
+
+            small.putAll(new HashMap<>());
+            assertThrows(NullPointerException.class, () -> small.putAll(Collections.singletonMap(1, null)));
+        }
+
+        DarvinHashMap<ComparableCollidingKey, Integer> colliding = new DarvinHashMap<>();
+        Map<ComparableCollidingKey, Integer> source = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            source.put(new ComparableCollidingKey(i), i);
+        }
+        colliding.putAll(source);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, colliding.get(new ComparableCollidingKey(i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentPutAllWhileReading() throws InterruptedException {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            DarvinHashMap<Integer, Integer> shared = new DarvinHashMap<>(16, 0.75f, storage);
+            for (int i = 0; i < 100; i++) {
+                shared.put(-i - 1, i);
+            }
+            AtomicBoolean failed = new AtomicBoolean();
+            AtomicBoolean done = new AtomicBoolean();
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    for (int i = 0; i < 100; i++) {
+                        if (!Integer.valueOf(i).equals(shared.get(-i - 1))) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+            reader.start();
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                int base = t * 20000;
+                writers[t] = new Thread(() -> {
+                    for (int from = base; from < base + 20000; from += 1000) {
+                        Map<Integer, Integer> batch = new HashMap<>();
+                        for (int i = from; i < from + 1000; i++) {
+                            batch.put(i, i);
+                        }
+                        shared.putAll(batch);
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            done.set(true);
+            reader.join();
+            assertFalse(failed.get(), storage.name());
+            assertEquals(80100, shared.size(), storage.name());
+            for (int i = 0; i < 80000; i++) {
+                assertEquals(i, shared.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testGetOrLoadAsyncCoalescesMisses() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> load = new CompletableFuture<>();
+        Function<Integer, CompletableFuture<String>> loader = k -> {
+            calls.incrementAndGet();
+            return load;
+        };
+        CompletableFuture<String> first = map.getOrLoadAsync(1, loader);
+        CompletableFuture<String> second = map.getOrLoadAsync(1, loader);
+        assertEquals(1, calls.get());
+        assertFalse(first.isDone());
+
+        // The load holds no lock: other keys, and even the loading key, stay writable.
+        map.put(2, "two");
+        assertEquals("two", map.get(2));
+        second.cancel(false);
+
+        load.complete("one");
+        assertEquals("one", first.get());
+        assertEquals("one", map.get(1));
+        assertEquals("one", map.getOrLoadAsync(1, loader).get());
+        assertEquals(1, calls.get());
+
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> raced = map.getOrLoadAsync(3, k -> pending);
+        map.put(3, "explicit");
+        pending.complete("loaded");
+        assertEquals("explicit", raced.get());
+        assertEquals("explicit", map.get(3));
+
+        CompletableFuture<String> failed = map.getOrLoadAsync(4,
+                k -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+        assertThrows(ExecutionException.class, failed::get);
+        assertNull(map.getOrLoadAsync(4, k -> CompletableFuture.completedFuture(null)).get());
+        assertFalse(map.containsKey(4));
+        assertEquals("four", map.getOrLoadAsync(4, k -> CompletableFuture.completedFuture("four")).get());
+        assertThrows(ExecutionException.class, () -> map.getOrLoadAsync(5, k -> {
+            throw new IllegalStateException("loader failed");
+        }).get());
+    }
+
+    @Test
+    public void testGetOrLoadAsyncFromManyVirtualThreads() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> shared = new DarvinHashMap<>();
+        AtomicInteger calls = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 1000; t++) {
+            int key = t % 10;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    int value = shared.getOrLoadAsync(key, k -> {
+                        calls.incrementAndGet();
+                        return CompletableFuture.supplyAsync(() -> {
+                            Thread.yield();
+                            return k * 10;
+                        });
+                    }).get();
+                    if (value != key * 10) {
+                        failed.set(true);
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed.get());
+        assertEquals(10, calls.get());
+        assertEquals(10, shared.size());
+    }
+
+    @Test
+    public void testLockingModesMatchHashMap() {
+        for (DarvinHashMap.Locking locking : DarvinHashMap.Locking.values()) {
+            for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+                if (locking == DarvinHashMap.Locking.MONITOR && storage != DarvinHashMap.Storage.CHAINED) {
+                    continue;
+                }
+                String label = locking + " " + storage;
+                DarvinHashMap<Integer, Integer> darvin = DarvinHashMap.<Integer, Integer>builder()
+                        .initialCapacity(2)
+                        .storage(storage)
+                        .locking(locking)
+                        .concurrencyLevel(2)
+                        .build();
+                Map<Integer, Integer> expected = new HashMap<>();
+                Random random = new Random(11);
+                for (int i = 0; i < 100000; i++) {
+                    int key = random.nextInt(3000);
+                    int value = random.nextInt(100);
+                    switch (random.nextInt(5)) {
+                        case 0:
+                            assertEquals(expected.put(key, value), darvin.put(key, value), label);
+                            break;
+                        case 1:
+                            assertEquals(expected.remove(key), darvin.remove(key), label);
+                            break;
+                        case 2:
+                            assertEquals(expected.computeIfAbsent(key, k -> value),
+                                    darvin.computeIfAbsent(key, k -> value), label);
+                            break;
+                        case 3:
+                            assertEquals(expected.compute(key, (k, v) -> v == null || v % 2 == 0 ? value : null),
+                                    darvin.compute(key, (k, v) -> v == null || v % 2 == 0 ? value : null), label);
+                            break;
+                        default:
+                            assertEquals(expected.get(key), darvin.get(key), label);
+                    }
+                }
+                assertEquals(expected.entrySet(), darvin.entrySet(), label);
+                expected.replaceAll((k, v) -> v + 1);
+                darvin.replaceAll((k, v) -> v + 1);
+                assertEquals(expected, darvin, label);
+                assertTrue(darvin.containsValue(expected.values().iterator().next()), label);
+                darvin.clear();
+                assertTrue(darvin.isEmpty(), label);
+                assertFalse(darvin.entrySet().iterator().hasNext(), label);
+            }
+        }
+        DarvinHashMap<ComparableCollidingKey, Integer> colliding = DarvinHashMap.<ComparableCollidingKey, Integer>builder()
+                .locking(DarvinHashMap.Locking.MONITOR)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            colliding.put(new ComparableCollidingKey(i), i);
+        }
+        for (int i = 0; i < 995; i++) {
+            assertEquals(i, colliding.remove(new ComparableCollidingKey(i)));
+        }
+        assertEquals(5, colliding.size());
+        assertEquals(999, colliding.get(new ComparableCollidingKey(999)));
+    }
+
+    @Test
+    public void testLockingModesUnderConcurrentWritesAndResize() throws InterruptedException {
+        DarvinHashMap.Storage[] storages = {DarvinHashMap.Storage.CHAINED, DarvinHashMap.Storage.CHAINED,
+                DarvinHashMap.Storage.ROBIN_HOOD, DarvinHashMap.Storage.LINEAR_PROBING};
+        DarvinHashMap.Locking[] lockings = {DarvinHashMap.Locking.MONITOR, DarvinHashMap.Locking.STAMPED,
+                DarvinHashMap.Locking.STAMPED, DarvinHashMap.Locking.STAMPED};
+        for (int m = 0; m < storages.length; m++) {
+            DarvinHashMap<Integer, Integer> shared = DarvinHashMap.<Integer, Integer>builder()
+                    .initialCapacity(1)
+                    .storage(storages[m])
+                    .locking(lockings[m])
+                    .build();
+            for (int i = 0; i < 1000; i++) {
+                shared.put(-i - 1, i);
+            }
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * 20000;
+                writers.add(new Thread(() -> {
+                    for (int i = offset; i < offset + 20000; i++) {
+                        shared.computeIfAbsent(i, k -> k);
+                        shared.merge(i, 1, Integer::sum);
+                        if (i % 4 == 0) {
+                            shared.remove(i);
+                        }
+                    }
+                }));
+            }
+            Thread reader = new Thread(() -> {
+                while (writers.stream().anyMatch(Thread::isAlive)) {
+                    for (int i = 0; i < 1000; i++) {
+                        if (!Integer.valueOf(i).equals(shared.get(-i - 1))) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+            writers.forEach(Thread::start);
+            reader.start();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            reader.join();
+            String label = lockings[m] + " " + storages[m];
+            assertFalse(failed.get(), label);
+            assertEquals(1000 + 60000, shared.size(), label);
+            for (int i = 1; i < 80000; i += 4) {
+                assertEquals(i + 1, shared.get(i), label);
+            }
+        }
+    }
+
+    @Test
+    public void testLockingConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, Integer>builder()
+                .storage(DarvinHashMap.Storage.LINEAR_PROBING)
+                .locking(DarvinHashMap.Locking.MONITOR)
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.builder().concurrencyLevel(0));
+        DarvinHashMap<Integer, Integer> monitors = DarvinHashMap.<Integer, Integer>builder()
+                .locking(DarvinHashMap.Locking.MONITOR)
+                .build();
+        assertThrows(IllegalStateException.class,
+                () -> monitors.computeIfAbsent(1, k -> monitors.computeIfAbsent(1, j -> 2)));
+        assertTrue(monitors.isEmpty());
+        DarvinHashMap<Integer, Integer> oneStripe = DarvinHashMap.<Integer, Integer>builder()
+                .concurrencyLevel(1)
+                .build();
+        for (int i = 0; i < 10000; i++) {
+            oneStripe.put(i, i);
+        }
+        assertEquals(10000, oneStripe.size());
+    }
+
+    @Test
+    public void testEqualsAndHashCodeFollowContents() {
+        for (DarvinHashMap.Storage storage : HEAP_STORAGES) {
+            for (DarvinHashMap.Locking locking : DarvinHashMap.Locking.values()) {
+                if (locking == DarvinHashMap.Locking.MONITOR && storage != DarvinHashMap.Storage.CHAINED) {
+                    continue;
+                }
+                DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                        .storage(storage)
+                        .locking(locking)
+                        .build();
+                DarvinHashMap<Integer, String> other = new DarvinHashMap<>();
+                Map<Integer, String> expected = new HashMap<>();
+                Random random = new Random(storage.ordinal());
+                for (int i = 0; i < 5000; i++) {
+                    int key = random.nextInt(500);
+                    switch (random.nextInt(4)) {
+                        case 0 -> {
+                            map.put(key, "v" + i);
+                            expected.put(key, "v" + i);
+                        }
+                        case 1 -> {
+                            map.remove(key);
+                            expected.remove(key);
+                        }
+                        case 2 -> {
+                            map.merge(key, "m", String::concat);
+                            expected.merge(key, "m", String::concat);
+                        }
+                        default -> {
+                            map.computeIfPresent(key, (k, v) -> v.length() > 3 ? null : v + k);
+                            expected.computeIfPresent(key, (k, v) -> v.length() > 3 ? null : v + k);
+                        }
+                    }
+                }
+                String label = storage + " " + locking;
+                assertEquals(expected.hashCode(), map.hashCode(), label);
+                assertEquals(expected, map, label);
+                assertEquals(map, expected, label);
+                other.putAll(expected);
+                assertEquals(other, map, label);
+                assertEquals(map.hashCode(), other.hashCode(), label);
+
+                map.replaceAll((k, v) -> v + "!");
+                expected.replaceAll((k, v) -> v + "!");
+                assertEquals(expected.hashCode(), map.hashCode(), label);
+                assertNotEquals(other, map, label);
+                assertNotEquals(map, other, label);
+
+                Integer key = expected.keySet().iterator().next();
+                other.replaceAll((k, v) -> v + "!");
+                other.put(key, "changed");
+                assertNotEquals(map, other, label);
+                other.put(key, expected.get(key));
+                assertEquals(map, other, label);
+
+                map.clear();
+                assertEquals(0, map.hashCode(), label);
+                assertEquals(Map.of(), map, label);
+                assertNotEquals(map, other, label);
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsItsContents() {
+        for (DarvinHashMap.Locking locking : EnumSet.of(DarvinHashMap.Locking.READ_WRITE, DarvinHashMap.Locking.STAMPED)) {
+            DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                    .initialCapacity(4)
+                    .locking(locking)
+                    .build();
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "v" + i);
+            }
+            Map<Integer, String> first = new HashMap<>(map);
+            DarvinHashMap<Integer, String> snapshot = map.snapshot();
+            for (int i = 0; i < 5000; i++) {
+                map.put(i, "w" + i);
+            }
+            map.remove(3);
+            map.merge(4, "!", String::concat);
+            Map<Integer, String> second = new HashMap<>(map);
+            DarvinHashMap<Integer, String> later = map.snapshot();
+            map.replaceAll((k, v) -> v + "?");
+            map.clear();
+            map.put(-1, "new");
+
+            assertEquals(first, snapshot, locking.name());
+            assertEquals(100, snapshot.size());
+            assertEquals(first.hashCode(), snapshot.hashCode());
+            assertEquals("v3", snapshot.get(3));
+            assertFalse(snapshot.containsKey(-1));
+            assertEquals(first, new HashMap<>(snapshot));
+            assertEquals(second, later, locking.name());
+            assertEquals(4999, later.size());
+            assertEquals(second.keySet(), later.keySet());
+            assertEquals(Map.of(-1, "new"), map);
+            assertEquals(snapshot, snapshot.snapshot());
+            assertThrows(UnsupportedOperationException.class, () -> snapshot.put(1, "x"));
+            assertThrows(UnsupportedOperationException.class, () -> later.remove(1));
+            assertThrows(UnsupportedOperationException.class, snapshot::clear);
+        }
+    }
+
+    @Test
+    public void testSnapshotIsConsistentUnderConcurrentWrites() throws Exception {
+        int keys = 2000;
+        DarvinHashMap<Integer, Integer> map = DarvinHashMap.<Integer, Integer>builder().initialCapacity(16).build();
+        for (int i = 0; i < keys; i++) {
+            map.put(i, 0);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        // Sweeps the keys in order, so any instant sees one generation up to some key and the
+        // previous one after it, while inserts keep the table resizing.
+        Thread writer = new Thread(() -> {
+            for (int generation = 1; generation <= 40; generation++) {
+                for (int i = 0; i < keys; i++) {
+                    map.put(i, generation);
+                }
+                for (int i = 0; i < 500; i++) {
+                    map.put(keys * generation + i, -1);
+                }
+            }
+            done.set(true);
+        });
+        writer.start();
+        int checked = 0;
+        while (!done.get() || checked == 0) {
+            DarvinHashMap<Integer, Integer> snapshot = map.snapshot();
+            int[] values = new int[keys];
+            for (int i = 0; i < keys; i++) {
+                values[i] = snapshot.get(i);
+            }
+            for (int i = 1; i < keys; i++) {
+                assertTrue(values[i] == values[i - 1] || values[i] == values[i - 1] - 1,
+                        "torn snapshot at key " + i + ": " + values[i - 1] + ", " + values[i]);
+            }
+            long entries = snapshot.entrySet().stream().count();
+            assertEquals(snapshot.size(), entries);
+            assertEquals(snapshot, new HashMap<>(snapshot));
+            checked++;
+        }
+        writer.join();
+    }
+
+    @Test
+    public void testSnapshotNeedsChainedStripes() {
+        for (DarvinHashMap<Integer, Integer> map : List.of(
+                DarvinHashMap.<Integer, Integer>builder().storage(DarvinHashMap.Storage.LINEAR_PROBING).build(),
+                DarvinHashMap.<Integer, Integer>builder().locking(DarvinHashMap.Locking.MONITOR).build(),
+                DarvinHashMap.<Integer, Integer>builder().maximumSize(10).build())) {
+            assertThrows(UnsupportedOperationException.class, map::snapshot);
+        }
+    }
+
+    private static void assertIndexMatches(Map<Integer, Integer> expected, DarvinHashMap<Integer, Integer> map,
+                                           String message) {
+        for (int value = 0; value < 20; value++) {
+            Set<Integer> keys = new HashSet<>();
+            for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+                if (e.getValue() == value) {
+                    keys.add(e.getKey());
+                }
+            }
+            assertEquals(!keys.isEmpty(), map.containsValue(value), message);
+            assertEquals(keys, map.keysForValue(value), message);
+        }
+    }
+
+    @Test
+    public void testValueIndexFollowsEveryWritePath() {
+        for (DarvinHashMap.Storage storage : DarvinHashMap.Storage.values()) {
+            DarvinHashMap<Integer, Integer> map = DarvinHashMap.<Integer, Integer>builder()
+                    .storage(storage)
+                    .keyCodec(DarvinCodec.ints())
+                    .valueCodec(DarvinCodec.ints())
+                    .indexValues()
+                    .build();
+            Map<Integer, Integer> expected = new HashMap<>();
+            Random random = new Random(storage.ordinal());
+            for (int i = 0; i < 5000; i++) {
+                int key = random.nextInt(200);
+                int value = random.nextInt(20);
+                switch (random.nextInt(9)) {
+                    case 0 -> assertEquals(expected.put(key, value), map.put(key, value));
+                    case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                    case 2 -> assertEquals(expected.merge(key, value, (a, b) -> (a + b) % 20),
+                            map.merge(key, value, (a, b) -> (a + b) % 20));
+                    case 3 -> {
+                        // Adds absent keys, removes keys already at value and bumps the rest.
+                        BiFunction<Integer, Integer, Integer> remapping =
+                                (k, v) -> v == null ? Integer.valueOf(value) : v == value ? null : (v + 1) % 20;
+                        assertEquals(expected.compute(key, remapping), map.compute(key, remapping));
+                    }
+                    case 4 -> assertEquals(expected.computeIfPresent(key, (k, v) -> (v + 1) % 20),
+                            map.computeIfPresent(key, (k, v) -> (v + 1) % 20));
+                    case 5 -> assertEquals(expected.computeIfAbsent(key, k -> value), map.computeIfAbsent(key, k -> value));
+                    case 6 -> assertEquals(expected.replace(key, value, (value + 3) % 20),
+                            map.replace(key, value, (value + 3) % 20));
+                    case 7 -> assertEquals(expected.remove(key, value), map.remove(key, value));
+                    default -> assertEquals(expected.putIfAbsent(key, value), map.putIfAbsent(key, value));
+                }
+                if (i % 1000 == 999) {
+                    expected.replaceAll((k, v) -> (v * 7 + k) % 20);
+                    map.replaceAll((k, v) -> (v * 7 + k) % 20);
+                    Map<Integer, Integer> batch = Map.of(500, 1, 501, 1, 502, 2);
+                    expected.putAll(batch);
+                    map.putAll(batch);
+                    assertIndexMatches(expected, map, storage.name());
+                }
+            }
+            assertEquals(expected, map, storage.name());
+            assertIndexMatches(expected, map, storage.name());
+            map.clear();
+            assertIndexMatches(Map.of(), map, storage.name());
+        }
+    }
+
+    @Test
+    public void testValueIndexUnderConcurrentWriters() throws InterruptedException {
+        DarvinHashMap<Integer, Integer> map = DarvinHashMap.<Integer, Integer>builder().indexValues().build();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    int key = random.nextInt(500);
+                    if (random.nextInt(4) == 0) {
+                        map.remove(key);
+                    } else {
+                        map.merge(key, random.nextInt(20), (a, b) -> (a + b) % 20);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertIndexMatches(new HashMap<>(map), map, "concurrent");
+    }
+
+    @Test
+    public void testValueIndexKeepsKeysWhoseValueIsReplacedByAnEqualOne() throws InterruptedException {
+        DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder().indexValues().build();
+        map.put(1, "a");
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            while (!done.get()) {
+                map.put(1, new String("a"));
+            }
+        });
+        try {
+            for (int i = 0; i < 200000; i++) {
+                assertTrue(map.containsValue("a"));
+                assertEquals(Set.of(1), map.keysForValue("a"));
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testMonitorLockingRecordsAnInsertBeforePublishingIt() throws InterruptedException {
+        DarvinHashMap<Integer, StallingValue> map = DarvinHashMap.<Integer, StallingValue>builder()
+                .locking(DarvinHashMap.Locking.MONITOR)
+                .indexValues()
+                .build();
+        StallingValue value = new StallingValue();
+        Thread writer = Thread.ofPlatform().start(() -> map.put(1, value));
+        value.entered.await();
+        // The insert into the empty bucket is being recorded; removing it has to wait.
+        Thread remover = Thread.ofPlatform().start(() -> {
+            map.remove(1);
+            value.released.countDown();
+        });
+        writer.join();
+        remover.join();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsValue(value));
+    }
+
+    @Test
+    public void testKeysForValueWithoutIndex() {
+        DarvinHashMap<Integer, Integer> map = new DarvinHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i % 20);
+        }
+        assertIndexMatches(new HashMap<>(map), map, "scan");
+        DarvinHashMap<Integer, Integer> indexed = DarvinHashMap.<Integer, Integer>builder().indexValues().build();
+        indexed.putAll(map);
+        // Snapshots scan instead.
+        DarvinHashMap<Integer, Integer> snapshot = indexed.snapshot();
+        indexed.clear();
+        assertIndexMatches(map, snapshot, "snapshot");
+        assertIndexMatches(Map.of(), indexed, "cleared");
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, Integer>builder()
+                .indexValues()
+                .maximumSize(10)
+                .build());
+    }
+
+    // Stalls the first hashCode call, which the value index makes while recording the put.
+    private static final class StallingValue {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicBoolean stalled = new AtomicBoolean();
+
+        @Override
+        public int hashCode() {
+            if (stalled.compareAndSet(false, true)) {
+                entered.countDown();
+                try {
+                    released.await(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final class ComparableCollidingKey implements Comparable<ComparableCollidingKey> {
+        private final int id;
+
+        ComparableCollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(ComparableCollidingKey o) {
+            return Integer.compare(id, o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ComparableCollidingKey && ((ComparableCollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+    }
+
+    private static final class CollidingKey {
+        private final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 4;
+        }
+    }
 }
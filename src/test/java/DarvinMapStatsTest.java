@@ -0,0 +1,135 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinHashMap;
+import org.UlGTU.DarvinMapStats;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DarvinMapStatsTest {
+
+    @Test
+    public void testCountsLookupsResizesAndChains() {
+        for (DarvinHashMap.Storage storage : EnumSet.complementOf(EnumSet.of(DarvinHashMap.Storage.OFF_HEAP))) {
+            DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                    .initialCapacity(4)
+                    .storage(storage)
+                    .recordStats()
+                    .build();
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, "v" + i);
+            }
+            for (int i = 0; i < 1500; i++) {
+                map.get(i);
+            }
+            map.getAll(List.of(1, 2, 5000));
+            DarvinMapStats stats = map.stats();
+            assertEquals(1002, stats.hitCount(), storage.name());
+            assertEquals(501, stats.missCount(), storage.name());
+            assertEquals(1002.0 / 1503, stats.hitRate(), 1e-9);
+            assertTrue(stats.resizeCount() > 0, storage.name());
+            assertTrue(stats.lockAcquisitions() >= 1000, storage.name());
+            assertEquals(0, stats.contendedLockAcquisitions(), storage.name());
+            long[] histogram = stats.chainLengthHistogram();
+            long entries = 0;
+            for (int i = 1; i < histogram.length; i++) {
+                // Chained tables count buckets by length, open addressing counts entries.
+                entries += storage == DarvinHashMap.Storage.CHAINED ? i * histogram[i] : histogram[i];
+            }
+            assertEquals(1000, entries, storage.name() + " " + Arrays.toString(histogram));
+        }
+    }
+
+    @Test
+    public void testWithoutRecordStatsOnlyStructureIsReported() {
+        DarvinHashMap<Integer, Integer> map = new DarvinHashMap<>(4);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+            map.get(i);
+        }
+        DarvinMapStats stats = map.stats();
+        assertEquals(0, stats.hitCount());
+        assertEquals(0, stats.lockAcquisitions());
+        assertTrue(stats.resizeCount() > 0);
+        long[] histogram = stats.chainLengthHistogram();
+        long entries = 0;
+        for (int i = 1; i < histogram.length; i++) {
+            entries += i * histogram[i];
+        }
+        assertEquals(100, entries);
+    }
+
+    @Test
+    public void testContendedLockIsTimedAndRecorded() throws Exception {
+        DarvinHashMap<Integer, Integer> map = DarvinHashMap.<Integer, Integer>builder().recordStats().build();
+        Path file = Files.createTempFile("contention", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.UlGTU.LockContention").withThreshold(Duration.ZERO);
+            recording.start();
+            CountDownLatch computing = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread holder = new Thread(() -> map.compute(1, (k, v) -> {
+                computing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }));
+            holder.start();
+            computing.await();
+            Thread waiter = new Thread(() -> map.put(1, 2));
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(20);
+            release.countDown();
+            holder.join();
+            waiter.join();
+            recording.stop();
+            recording.dump(file);
+        }
+        assertEquals(2, map.get(1));
+        DarvinMapStats stats = map.stats();
+        assertEquals(1, stats.contendedLockAcquisitions());
+        assertTrue(stats.lockWaitNanos() >= 20_000_000L, stats.toString());
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("org.UlGTU.LockContention")
+                && e.getDuration().toMillis() >= 20));
+    }
+
+    @Test
+    public void testMBeanExposesStats() throws Exception {
+        DarvinHashMap<String, String> map = DarvinHashMap.<String, String>builder().recordStats().build();
+        map.put("a", "1");
+        map.get("a");
+        map.get("b");
+        ObjectName name = map.registerMBean("orders");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1L, server.getAttribute(name, "Size"));
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(1L, server.getAttribute(name, "MissCount"));
+            assertEquals(0.5, (Double) server.getAttribute(name, "HitRate"), 1e-9);
+            long[] histogram = (long[]) server.getAttribute(name, "ChainLengthHistogram");
+            assertEquals(1, histogram[1]);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
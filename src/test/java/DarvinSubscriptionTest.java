@@ -0,0 +1,183 @@
+import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinChangeEvent;
+import org.UlGTU.DarvinCodec;
+import org.UlGTU.DarvinHashMap;
+import org.UlGTU.DarvinSubscription;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DarvinSubscriptionTest {
+
+    // Replays events onto a plain map, checking that each one starts from the value it replaced.
+    private static void apply(Map<Integer, String> replica, DarvinChangeEvent<Integer, String> event) {
+        String previous = replica.get(event.key());
+        assertTrue(Objects.equals(previous, event.oldValue()), event + " after " + previous);
+        if (event.newValue() == null) {
+            replica.remove(event.key());
+        } else {
+            replica.put(event.key(), event.newValue());
+        }
+    }
+
+    @Test
+    public void testEventsArriveInOrder() {
+        for (DarvinHashMap.Storage storage : DarvinHashMap.Storage.values()) {
+            DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                    .storage(storage)
+                    .keyCodec(DarvinCodec.ints())
+                    .valueCodec(DarvinCodec.strings())
+                    .build();
+            map.put(0, "before");
+            List<String> seen = new ArrayList<>();
+            DarvinSubscription<Integer, String> subscription = map.subscribe(
+                    batch -> batch.forEach(e -> seen.add(e.toString())), 16, DarvinHashMap.Backpressure.BLOCK);
+            map.put(1, "a");
+            map.put(1, "b");
+            map.putIfAbsent(1, "ignored");
+            map.merge(2, "x", String::concat);
+            map.merge(2, "y", String::concat);
+            map.remove(1);
+            map.remove(3);
+            map.replaceAll((k, v) -> v + "!");
+            map.clear();
+            subscription.close();
+            map.put(4, "after");
+            assertTrue(subscription.isClosed());
+            assertEquals(0, subscription.droppedCount());
+            assertEquals(List.of("PUT(1: null -> a)", "UPDATE(1: a -> b)", "PUT(2: null -> x)",
+                    "UPDATE(2: x -> xy)", "REMOVE(1: b -> null)"), seen.subList(0, 5), storage.name());
+            // Bulk changes visit the keys in table order.
+            assertEquals(List.of("REMOVE(0: before! -> null)", "REMOVE(2: xy! -> null)"),
+                    seen.subList(7, 9).stream().sorted().toList(), storage.name());
+            assertEquals(9, seen.size(), storage.name());
+        }
+    }
+
+    @Test
+    public void testDropCountsWhatItDiscards() throws InterruptedException {
+        DarvinHashMap<Integer, String> map = new DarvinHashMap<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger delivered = new AtomicInteger();
+        DarvinSubscription<Integer, String> subscription = map.subscribe(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            delivered.addAndGet(batch.size());
+        }, 4, DarvinHashMap.Backpressure.DROP);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "v" + i);
+        }
+        release.countDown();
+        subscription.close();
+        assertTrue(subscription.droppedCount() > 0);
+        assertEquals(1000, delivered.get() + subscription.droppedCount());
+    }
+
+    @Test
+    public void testBlockDeliversEveryChangeOfConcurrentWriters() throws InterruptedException {
+        DarvinHashMap<Integer, String> map = new DarvinHashMap<>();
+        Map<Integer, String> replica = new HashMap<>();
+        AtomicInteger batches = new AtomicInteger();
+        DarvinSubscription<Integer, String> subscription = map.subscribe(batch -> {
+            batches.incrementAndGet();
+            batch.forEach(e -> apply(replica, e));
+        }, 8, DarvinHashMap.Backpressure.BLOCK);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    int key = (i * 31 + seed) % 64;
+                    if (i % 3 == 0) {
+                        map.remove(key);
+                    } else {
+                        map.merge(key, "x", String::concat);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        subscription.close();
+        assertEquals(0, subscription.droppedCount());
+        assertEquals(map, replica);
+        assertTrue(batches.get() < 20000);
+    }
+
+    @Test
+    public void testCoalesceKeepsLatestValuePerKey() throws InterruptedException {
+        DarvinHashMap<Integer, String> map = new DarvinHashMap<>();
+        Map<Integer, String> replica = new HashMap<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger delivered = new AtomicInteger();
+        DarvinSubscription<Integer, String> subscription = map.subscribe(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            delivered.addAndGet(batch.size());
+            batch.forEach(e -> apply(replica, e));
+        }, 2, DarvinHashMap.Backpressure.COALESCE);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int seed = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    int key = (i + seed) % 10;
+                    if (i % 7 == 0) {
+                        map.remove(key);
+                    } else {
+                        map.put(key, "v" + seed + "-" + i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        release.countDown();
+        subscription.close();
+        assertEquals(map, replica);
+        assertTrue(subscription.droppedCount() > 0);
+        assertTrue(delivered.get() < 8000);
+    }
+
+    @Test
+    public void testSubscribeConfiguration() {
+        DarvinHashMap<Integer, String> map = new DarvinHashMap<>();
+        assertThrows(IllegalArgumentException.class, () -> map.subscribe(batch -> { }, 0, DarvinHashMap.Backpressure.DROP));
+        assertThrows(UnsupportedOperationException.class, () -> map.snapshot()
+                .subscribe(batch -> { }, 16, DarvinHashMap.Backpressure.DROP));
+        assertThrows(UnsupportedOperationException.class, () -> DarvinHashMap.<Integer, String>builder()
+                .maximumSize(10)
+                .build()
+                .subscribe(batch -> { }, 16, DarvinHashMap.Backpressure.DROP));
+
+        DarvinSubscription<Integer, String> failing = map.subscribe(batch -> {
+            throw new IllegalStateException("consumer failure");
+        }, 16, DarvinHashMap.Backpressure.BLOCK);
+        map.put(1, "one");
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (!failing.isClosed()) {
+                Thread.sleep(1);
+            }
+            // A closed subscription no longer holds writers back.
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "v" + i);
+            }
+        });
+    }
+}
@@ -0,0 +1,229 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.UlGTU.DarvinCodec;
+import org.UlGTU.DarvinHashMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DurableDarvinMapTest {
+
+    @TempDir
+    Path dir;
+
+    private DarvinHashMap<Integer, String> open(DarvinHashMap.Storage storage, DarvinHashMap.FsyncPolicy policy) {
+        return DarvinHashMap.<Integer, String>builder()
+                .storage(storage)
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .writeAheadLog(dir, policy)
+                .build();
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    public void testReopenReplaysEveryKindOfWrite() throws IOException {
+        for (DarvinHashMap.Storage storage : DarvinHashMap.Storage.values()) {
+            DarvinHashMap<Integer, String> map = open(storage, DarvinHashMap.FsyncPolicy.ALWAYS);
+            Map<Integer, String> expected = new HashMap<>();
+            Random random = new Random(storage.ordinal());
+            for (int i = 0; i < 3000; i++) {
+                int key = random.nextInt(300);
+                switch (random.nextInt(5)) {
+                    case 0 -> {
+                        map.put(key, "v" + i);
+                        expected.put(key, "v" + i);
+                    }
+                    case 1 -> {
+                        map.remove(key);
+                        expected.remove(key);
+                    }
+                    case 2 -> {
+                        map.merge(key, "m", String::concat);
+                        expected.merge(key, "m", String::concat);
+                    }
+                    case 3 -> {
+                        map.replace(key, "r" + i);
+                        expected.replace(key, "r" + i);
+                    }
+                    default -> {
+                        map.computeIfAbsent(key, k -> "c" + k);
+                        expected.computeIfAbsent(key, k -> "c" + k);
+                    }
+                }
+            }
+            map.putAll(Map.of(1000, "a", 1001, "b"));
+            expected.putAll(Map.of(1000, "a", 1001, "b"));
+            map.replaceAll((k, v) -> v + "!");
+            expected.replaceAll((k, v) -> v + "!");
+            map.closeLog();
+            assertThrows(IllegalStateException.class, () -> map.put(1, "late"));
+            assertEquals(expected, map, storage.name());
+
+            DarvinHashMap<Integer, String> reopened = open(storage, DarvinHashMap.FsyncPolicy.ALWAYS);
+            assertEquals(expected, reopened, storage.name());
+            reopened.clear();
+            reopened.put(7, "seven");
+            reopened.closeLog();
+            assertEquals(Map.of(7, "seven"), open(storage, DarvinHashMap.FsyncPolicy.NEVER), storage.name());
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCheckpointReplacesOldLogs() throws IOException {
+        DarvinHashMap<Integer, String> map = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.EVERY_SECOND);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "v" + i);
+        }
+        map.checkpoint();
+        assertEquals(List.of("checkpoint-2.snap", "wal-2.log"), files());
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove(i);
+        }
+        map.put(1, "changed");
+        map.closeLog();
+
+        DarvinHashMap<Integer, String> reopened = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        assertEquals(map, reopened);
+        assertEquals(500, reopened.size());
+        assertEquals("changed", reopened.get(1));
+        reopened.checkpoint();
+        reopened.closeLog();
+        assertEquals(List.of("checkpoint-4.snap", "wal-4.log"), files());
+        assertEquals(map, open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS));
+    }
+
+    @Test
+    public void testLogSizeTriggersBackgroundCheckpoint() throws Exception {
+        DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .writeAheadLog(dir, DarvinHashMap.FsyncPolicy.NEVER)
+                .checkpointLogSize(4096)
+                .build();
+        for (int i = 0; i < 2000; i++) {
+            map.put(i % 100, "v" + i);
+        }
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (files().stream().noneMatch(name -> name.startsWith("checkpoint-"))) {
+            assertTrue(System.nanoTime() < deadline, files().toString());
+            Thread.sleep(10);
+        }
+        map.closeLog();
+        assertFalse(files().contains("wal-1.log"));
+        assertEquals(map, open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS));
+    }
+
+    @Test
+    public void testReopenRemovesAnInterruptedCheckpoint() throws IOException {
+        DarvinHashMap<Integer, String> map = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        map.put(1, "one");
+        map.closeLog();
+        Files.write(dir.resolve("checkpoint-2.snap.tmp"), new byte[100]);
+        DarvinHashMap<Integer, String> reopened = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        assertEquals(Map.of(1, "one"), reopened);
+        reopened.closeLog();
+        assertEquals(List.of("wal-1.log", "wal-2.log"), files());
+    }
+
+    @Test
+    public void testTornTailIsIgnored() throws IOException {
+        DarvinHashMap<Integer, String> map = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        map.put(1, "one");
+        map.put(2, "two");
+        map.closeLog();
+        Path log = dir.resolve("wal-1.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+        DarvinHashMap<Integer, String> reopened = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        assertEquals(Map.of(1, "one"), reopened);
+        reopened.put(3, "three");
+        reopened.closeLog();
+        assertEquals(Map.of(1, "one", 3, "three"), open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS));
+    }
+
+    @Test
+    public void testConcurrentWritersShareCommits() throws Exception {
+        DarvinHashMap<Integer, String> map = open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int base = t * 1000;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 300; i++) {
+                    map.put(base + i, "v" + i);
+                    map.merge(base, "x", String::concat);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 300, map.size());
+        Map<Integer, String> expected = new HashMap<>(map);
+        map.closeLog();
+        assertEquals(expected, open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS));
+    }
+
+    @Test
+    public void testReplayRebuildsValueIndex() throws IOException {
+        for (int run = 0; run < 2; run++) {
+            DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                    .keyCodec(DarvinCodec.ints())
+                    .valueCodec(DarvinCodec.strings())
+                    .writeAheadLog(dir, DarvinHashMap.FsyncPolicy.NEVER)
+                    .indexValues()
+                    .build();
+            if (run == 0) {
+                map.put(1, "a");
+                map.put(2, "a");
+                map.put(3, "b");
+                map.remove(3);
+            }
+            assertEquals(Set.of(1, 2), map.keysForValue("a"));
+            assertFalse(map.containsValue("b"));
+            map.closeLog();
+        }
+    }
+
+    @Test
+    public void testConfiguration() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, String>builder()
+                .writeAheadLog(dir, DarvinHashMap.FsyncPolicy.ALWAYS)
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.<Integer, String>builder()
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .writeAheadLog(dir, DarvinHashMap.FsyncPolicy.ALWAYS)
+                .maximumSize(10)
+                .build());
+        assertThrows(IllegalArgumentException.class, () -> DarvinHashMap.builder().checkpointLogSize(0));
+        assertThrows(IllegalStateException.class, () -> new DarvinHashMap<Integer, String>().checkpoint());
+        Files.writeString(dir.resolve("checkpoint-1.snap"), "garbage");
+        assertThrows(UncheckedIOException.class,
+                () -> open(DarvinHashMap.Storage.CHAINED, DarvinHashMap.FsyncPolicy.ALWAYS));
+    }
+}
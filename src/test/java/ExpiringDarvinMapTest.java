@@ -0,0 +1,155 @@
+import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinHashMap;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiringDarvinMapTest {
+    private final AtomicLong time = new AtomicLong(-TimeUnit.DAYS.toNanos(1));
+    private final List<String> expired = new ArrayList<>();
+
+    private void advance(long amount, TimeUnit unit) {
+        time.addAndGet(unit.toNanos(amount));
+    }
+
+    private DarvinHashMap.Builder<String, String> builder() {
+        return DarvinHashMap.<String, String>builder()
+                .ticker(time::get)
+                .evictionListener((k, v) -> expired.add(k));
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        DarvinHashMap<String, String> map = builder().expireAfterWrite(Duration.ofSeconds(10)).build();
+        map.put("a", "1");
+        map.put("b", "2");
+        advance(5, TimeUnit.SECONDS);
+        assertEquals("1", map.get("a"));
+        map.put("b", "3");
+        advance(6, TimeUnit.SECONDS);
+        assertNull(map.get("a"));
+        assertFalse(map.containsKey("a"));
+        assertFalse(map.containsValue("1"));
+        assertEquals(List.of("b"), new ArrayList<>(map.keySet()));
+        assertEquals("3", map.get("b"));
+
+        map.cleanUp();
+        assertEquals(1, map.size());
+        assertEquals(List.of("a"), expired);
+
+        // An expired mapping that was not purged yet counts as absent for writes too.
+        advance(10, TimeUnit.SECONDS);
+        assertNull(map.putIfAbsent("b", "4"));
+        assertEquals("4", map.get("b"));
+        assertEquals(List.of("a"), expired);
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        DarvinHashMap<String, String> map = builder().expireAfterAccess(Duration.ofSeconds(10)).build();
+        map.put("hot", "1");
+        map.put("cold", "2");
+        for (int i = 0; i < 12; i++) {
+            advance(5, TimeUnit.SECONDS);
+            assertEquals("1", map.get("hot"));
+            map.cleanUp();
+        }
+        assertNull(map.get("cold"));
+        assertEquals(List.of("cold"), expired);
+        advance(11, TimeUnit.SECONDS);
+        map.cleanUp();
+        assertTrue(map.isEmpty());
+        assertEquals(List.of("cold", "hot"), expired);
+    }
+
+    @Test
+    public void testPurgesAsTheMapIsUsed() {
+        DarvinHashMap<String, String> map = builder()
+                .expireAfterWrite(Duration.ofMinutes(1))
+                .expireAfterAccess(Duration.ofSeconds(30))
+                .build();
+        for (int i = 0; i < 10000; i++) {
+            map.put("k" + i, "v");
+        }
+        advance(20, TimeUnit.SECONDS);
+        for (int i = 0; i < 5000; i++) {
+            map.get("k" + i);
+        }
+        advance(20, TimeUnit.SECONDS);
+        map.put("trigger", "v");
+        // Idle for 40s: the unread half has expired after access.
+        assertEquals(5001, map.size());
+        for (int i = 0; i < 5000; i++) {
+            map.get("k" + i);
+        }
+        advance(30, TimeUnit.SECONDS);
+        map.put("trigger", "v");
+        // Written 70s ago: the read half has now expired after write.
+        assertEquals(1, map.size());
+        assertEquals(10000, expired.size());
+    }
+
+    @Test
+    public void testLongDurationsCascadeThroughWheelLevels() {
+        DarvinHashMap<String, String> map = builder().expireAfterWrite(Duration.ofDays(3)).build();
+        map.put("a", "1");
+        advance(2, TimeUnit.DAYS);
+        map.cleanUp();
+        assertEquals("1", map.get("a"));
+        advance(23, TimeUnit.HOURS);
+        map.cleanUp();
+        assertEquals("1", map.get("a"));
+        advance(2, TimeUnit.HOURS);
+        map.cleanUp();
+        assertEquals(0, map.size());
+        assertEquals(List.of("a"), expired);
+
+        DarvinHashMap<String, String> forever = builder().expireAfterWrite(Duration.ofDays(36500)).build();
+        forever.put("a", "1");
+        advance(1000, TimeUnit.DAYS);
+        forever.cleanUp();
+        assertEquals("1", forever.get("a"));
+    }
+
+    @Test
+    public void testDurationsOfDaysDoNotExpireEarly() {
+        DarvinHashMap<String, String> map = builder().expireAfterWrite(Duration.ofDays(8)).build();
+        map.put("a", "1");
+        for (int day = 0; day < 7; day++) {
+            advance(1, TimeUnit.DAYS);
+            map.cleanUp();
+            assertEquals("1", map.get("a"));
+        }
+        advance(23, TimeUnit.HOURS);
+        map.cleanUp();
+        assertEquals("1", map.get("a"));
+        assertEquals(List.of(), expired);
+        advance(2, TimeUnit.HOURS);
+        map.cleanUp();
+        assertEquals(0, map.size());
+        assertEquals(List.of("a"), expired);
+    }
+
+    @Test
+    public void testExpiryWithMaximumSize() {
+        DarvinHashMap<String, String> map = builder()
+                .maximumSize(10)
+                .expireAfterWrite(Duration.ofSeconds(10))
+                .build();
+        for (int i = 0; i < 20; i++) {
+            map.put("k" + i, "v");
+        }
+        assertEquals(10, map.size());
+        assertEquals(10, expired.size());
+        advance(11, TimeUnit.SECONDS);
+        map.cleanUp();
+        assertTrue(map.isEmpty());
+        assertEquals(20, expired.size());
+        assertThrows(IllegalArgumentException.class, () -> builder().expireAfterAccess(Duration.ofSeconds(-1)));
+    }
+}
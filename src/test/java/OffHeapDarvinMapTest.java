@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.Test;
+import org.UlGTU.DarvinCodec;
+import org.UlGTU.DarvinHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapDarvinMapTest {
+
+    private static DarvinHashMap<Integer, String> newMap(int initialCapacity) {
+        return DarvinHashMap.<Integer, String>builder()
+                .initialCapacity(initialCapacity)
+                .storage(DarvinHashMap.Storage.OFF_HEAP)
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .build();
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        DarvinHashMap<Integer, String> map = newMap(4);
+        for (int i = 0; i < 50000; i++) {
+            assertNull(map.put(i, "v" + i));
+        }
+        for (int i = 0; i < 50000; i += 3) {
+            assertEquals("v" + i, map.remove(i));
+        }
+        for (int i = 0; i < 50000; i++) {
+            assertEquals(i % 3 == 0 ? null : "v" + i, map.get(i));
+        }
+        assertEquals(50000 - 16667, map.size());
+        assertEquals("v1x", map.merge(1, "x", String::concat));
+        assertTrue(map.replace(2, "v2", "two"));
+        assertEquals("two", map.get(2));
+        assertNull(map.compute(2, (k, v) -> null));
+        assertFalse(map.containsKey(2));
+        assertTrue(map.containsValue("v4"));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(4));
+    }
+
+    @Test
+    public void testMatchesHashMapUnderRandomOperations() {
+        DarvinHashMap<Integer, String> map = newMap(2);
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000);
+            // Values of varying length force both in-place overwrites and appends.
+            String value = "é".repeat(random.nextInt(4)) + random.nextInt(100);
+            switch (random.nextInt(4)) {
+                case 0 -> assertEquals(expected.put(key, value), map.put(key, value));
+                case 1 -> assertEquals(expected.remove(key), map.remove(key));
+                case 2 -> assertEquals(expected.merge(key, value, (a, b) -> b + a.length()),
+                        map.merge(key, value, (a, b) -> b + a.length()));
+                default -> assertEquals(expected.get(key), map.get(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.entrySet(), map.entrySet());
+        map.replaceAll((k, v) -> v + k);
+        expected.replaceAll((k, v) -> v + k);
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    public void testStringKeysAndLongValues() {
+        DarvinHashMap<String, Long> map = DarvinHashMap.<String, Long>builder()
+                .storage(DarvinHashMap.Storage.OFF_HEAP)
+                .keyCodec(DarvinCodec.strings())
+                .valueCodec(DarvinCodec.longs())
+                .build();
+        for (long i = 0; i < 10000; i++) {
+            map.merge("ключ-" + (i % 100), i, Long::sum);
+        }
+        assertEquals(100, map.size());
+        assertEquals(495000L, map.get("ключ-0"));
+        assertEquals(Long.valueOf(504900L), map.get("ключ-99"));
+        assertNull(map.get("ключ-100"));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        DarvinHashMap<Integer, String> map = newMap(16);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int base = t * 10000;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    map.put(base + i, "v" + (base + i));
+                    assertEquals("v" + (base + i), map.get(base + i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, map.size());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        DarvinHashMap<Integer, String> map = newMap(4);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, "v" + i);
+        }
+        Iterator<Map.Entry<Integer, String>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, String> entry = it.next();
+            assertEquals("v" + entry.getKey(), entry.getValue());
+            if (entry.getKey() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 2 == 0 ? null : "v" + i, map.get(i));
+        }
+    }
+
+    @Test
+    public void testFunctionsMayWriteToTheirOwnSegment() {
+        DarvinHashMap<Integer, String> map = DarvinHashMap.<Integer, String>builder()
+                .initialCapacity(4)
+                .concurrencyLevel(1)
+                .storage(DarvinHashMap.Storage.OFF_HEAP)
+                .keyCodec(DarvinCodec.ints())
+                .valueCodec(DarvinCodec.strings())
+                .build();
+        map.put(0, "a");
+        // Grows the only segment and compacts its data under the function.
+        assertEquals("b", map.computeIfAbsent(1, k -> {
+            for (int i = 2; i < 500; i++) {
+                map.put(i, "v" + i);
+            }
+            map.remove(0);
+            return "b";
+        }));
+        assertEquals(499, map.size());
+        assertEquals(499, map.keySet().stream().count());
+        assertEquals("b", map.get(1));
+        assertEquals("v2v3", map.merge(2, "x", (a, b) -> {
+            map.put(3, "replaced");
+            return a + "v3";
+        }));
+        assertEquals("replaced", map.get(3));
+        // Setting an equal value leaves the function's input intact.
+        assertEquals("v4!", map.compute(4, (k, v) -> {
+            map.put(4, "v4");
+            return v + "!";
+        }));
+        assertThrows(IllegalStateException.class, () -> map.compute(5, (k, v) -> {
+            map.put(5, "nested");
+            return "outer";
+        }));
+        assertEquals("nested", map.get(5));
+        assertEquals(499, map.size());
+    }
+
+    @Test
+    public void testRequiresCodecs() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DarvinHashMap<Integer, String>(16, 0.75f, DarvinHashMap.Storage.OFF_HEAP));
+    }
+
+    @Test
+    public void testEqualsAndHashCodeMatchHeapMap() {
+        DarvinHashMap<Integer, String> map = newMap(4);
+        DarvinHashMap<Integer, String> heap = new DarvinHashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            map.put(i, "v" + i);
+            heap.put(i, "v" + i);
+        }
+        map.remove(7);
+        heap.remove(7);
+        map.merge(8, "x", String::concat);
+        heap.merge(8, "x", String::concat);
+        assertEquals(heap.hashCode(), map.hashCode());
+        assertEquals(heap, map);
+        assertEquals(map, heap);
+        map.replaceAll((k, v) -> v + k);
+        assertNotEquals(heap, map);
+        heap.replaceAll((k, v) -> v + k);
+        assertEquals(heap, map);
+        map.clear();
+        assertEquals(0, map.hashCode());
+        assertNotEquals(heap, map);
+    }
+}
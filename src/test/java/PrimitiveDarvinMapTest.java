@@ -0,0 +1,182 @@
+import org.junit.jupiter.api.Test;
+import org.UlGTU.IntIntDarvinMap;
+import org.UlGTU.IntObjDarvinMap;
+import org.UlGTU.LongObjDarvinMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimitiveDarvinMapTest {
+
+    @Test
+    public void testIntObjPutGetRemove() {
+        IntObjDarvinMap<String> map = new IntObjDarvinMap<>();
+        assertNull(map.put(1, "one"));
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.get(1));
+        assertNull(map.get(2));
+        assertEquals("two", map.computeIfAbsent(2, k -> "two"));
+        assertEquals("two", map.putIfAbsent(2, "dos"));
+        assertEquals("twotwo", map.merge(2, "two", String::concat));
+        assertEquals(2, map.size());
+        assertEquals("uno", map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals("default", map.getOrDefault(1, "default"));
+        assertThrows(NullPointerException.class, () -> map.put(3, null));
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testIntObjMatchesHashMapUnderRandomOperations() {
+        IntObjDarvinMap<Integer> map = new IntObjDarvinMap<>(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            // Multiples of 1024 stress the bits that pick the segment and the home slot.
+            int key = random.nextInt(5000) * 1024;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Integer, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLongObjMatchesHashMapUnderRandomOperations() {
+        LongObjDarvinMap<Long> map = new LongObjDarvinMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200000; i++) {
+            long key = (long) random.nextInt(5000) << 32;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testFunctionsMayWriteToTheMap() {
+        IntObjDarvinMap<String> ints = new IntObjDarvinMap<>(4);
+        // Grows every segment, the key's own included, under the function.
+        assertEquals("a", ints.computeIfAbsent(-1, k -> {
+            for (int i = 0; i < 500; i++) {
+                ints.put(i, "v" + i);
+            }
+            return "a";
+        }));
+        assertEquals(501, ints.size());
+        assertEquals("a", ints.get(-1));
+        assertEquals("v7x", ints.merge(7, "x", (a, b) -> {
+            for (int i = 100; i < 300; i++) {
+                ints.remove(i);
+            }
+            return a + b;
+        }));
+        assertEquals(301, ints.size());
+        assertEquals("v7x", ints.get(7));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i >= 100 && i < 300 ? null : i == 7 ? "v7x" : "v" + i, ints.get(i));
+        }
+        assertThrows(IllegalStateException.class, () -> ints.computeIfAbsent(-2, k -> {
+            ints.put(k, "nested");
+            return "outer";
+        }));
+        assertEquals("nested", ints.get(-2));
+
+        LongObjDarvinMap<String> longs = new LongObjDarvinMap<>(4);
+        assertEquals("a", longs.computeIfAbsent(-1L, k -> {
+            for (long i = 0; i < 500; i++) {
+                longs.put(i << 32, "v" + i);
+            }
+            return "a";
+        }));
+        assertEquals(501, longs.size());
+        assertThrows(IllegalStateException.class, () -> longs.merge(1L << 32, "x", (a, b) -> {
+            longs.remove(1L << 32);
+            return a + b;
+        }));
+        assertNull(longs.get(1L << 32));
+        assertEquals(500, longs.size());
+    }
+
+    @Test
+    public void testIntIntZeroKeyAndNoEntryValue() {
+        IntIntDarvinMap map = new IntIntDarvinMap(16, 0.75f, -1);
+        assertEquals(-1, map.get(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(-1, map.put(0, 10));
+        assertTrue(map.containsKey(0));
+        assertEquals(10, map.get(0));
+        assertEquals(1, map.size());
+        assertEquals(15, map.addTo(0, 5));
+        assertEquals(-1 + 3, map.addTo(7, 3));
+        assertEquals(15, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testIntIntMatchesHashMapUnderRandomOperations() {
+        IntIntDarvinMap map = new IntIntDarvinMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(13);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000) - 2500;
+            Integer old;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    old = expected.remove(key);
+                    assertEquals(old == null ? 0 : old, map.remove(key));
+                }
+                case 1 -> assertEquals((int) expected.merge(key, 1, Integer::sum), map.addTo(key, 1));
+                default -> {
+                    old = expected.put(key, i);
+                    assertEquals(old == null ? 0 : old, map.put(key, i));
+                }
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Integer, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testConcurrentAddTo() throws InterruptedException {
+        IntIntDarvinMap map = new IntIntDarvinMap();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    map.addTo(i % 1000, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(80, map.get(i));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.UlGTU.DarvinCodec;
+import org.UlGTU.DarvinHashMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static DarvinHashMap<String, Integer> filled(DarvinHashMap.HashMixing mixing) {
+        DarvinHashMap<String, Integer> map = DarvinHashMap.<String, Integer>builder().hashMixing(mixing).build();
+        for (int i = 0; i < 20000; i++) {
+            map.put("ключ" + i, i);
+        }
+        return map;
+    }
+
+    @Test
+    public void testEagerRoundTrip() throws IOException {
+        for (DarvinHashMap.HashMixing mixing : DarvinHashMap.HashMixing.values()) {
+            DarvinHashMap<String, Integer> map = filled(mixing);
+            Path file = dir.resolve("eager-" + mixing);
+            map.writeSnapshot(file, DarvinCodec.strings(), DarvinCodec.ints());
+            DarvinHashMap<String, Integer> loaded = DarvinHashMap.readSnapshot(file,
+                    DarvinCodec.strings(), DarvinCodec.ints(), DarvinHashMap.SnapshotLoading.EAGER);
+            assertEquals(map.size(), loaded.size());
+            assertEquals(new HashMap<>(map), new HashMap<>(loaded));
+            loaded.put("new", -1);
+            assertEquals(-1, loaded.get("new"));
+        }
+    }
+
+    @Test
+    public void testLazyLookupsAndChanges() throws IOException {
+        for (DarvinHashMap.HashMixing mixing : DarvinHashMap.HashMixing.values()) {
+            DarvinHashMap<String, Integer> map = filled(mixing);
+            Path file = dir.resolve("lazy-" + mixing);
+            map.writeSnapshot(file, DarvinCodec.strings(), DarvinCodec.ints());
+            DarvinHashMap<String, Integer> lazy = DarvinHashMap.readSnapshot(file,
+                    DarvinCodec.strings(), DarvinCodec.ints(), DarvinHashMap.SnapshotLoading.LAZY);
+            Map<String, Integer> expected = new HashMap<>(map);
+            assertEquals(20000, lazy.size());
+            assertEquals(777, lazy.get("ключ777"));
+            assertNull(lazy.get("missing"));
+
+            assertEquals(5, lazy.remove("ключ5"));
+            expected.remove("ключ5");
+            assertNull(lazy.get("ключ5"));
+            assertNull(lazy.remove("ключ5"));
+            assertNull(lazy.put("ключ5", 55));
+            expected.put("ключ5", 55);
+            assertEquals(6, lazy.put("ключ6", 66));
+            expected.put("ключ6", 66);
+            assertEquals(8, lazy.merge("ключ7", 1, Integer::sum));
+            expected.merge("ключ7", 1, Integer::sum);
+            assertNull(lazy.computeIfPresent("ключ8", (k, v) -> null));
+            expected.remove("ключ8");
+            assertNull(lazy.putIfAbsent("extra", 1));
+            expected.put("extra", 1);
+            assertFalse(lazy.replace("ключ9", 0, 1));
+            assertTrue(lazy.replace("ключ9", 9, 99));
+            expected.put("ключ9", 99);
+
+            assertEquals(expected.size(), lazy.size());
+            assertEquals(expected, new HashMap<>(lazy));
+            assertTrue(lazy.containsValue(99));
+            assertFalse(lazy.containsValue(5));
+
+            lazy.replaceAll((k, v) -> v + 1);
+            expected.replaceAll((k, v) -> v + 1);
+            assertEquals(expected, new HashMap<>(lazy));
+
+            lazy.clear();
+            assertTrue(lazy.isEmpty());
+            assertNull(lazy.get("ключ777"));
+        }
+    }
+
+    @Test
+    public void testSnapshotOfEmptyMap() throws IOException {
+        Path file = dir.resolve("empty");
+        new DarvinHashMap<String, Integer>().writeSnapshot(file, DarvinCodec.strings(), DarvinCodec.ints());
+        for (DarvinHashMap.SnapshotLoading loading : DarvinHashMap.SnapshotLoading.values()) {
+            DarvinHashMap<String, Integer> loaded = DarvinHashMap.readSnapshot(file,
+                    DarvinCodec.strings(), DarvinCodec.ints(), loading);
+            assertTrue(loaded.isEmpty());
+            assertNull(loaded.get("x"));
+        }
+    }
+
+    @Test
+    public void testRejectsForeignFile() throws IOException {
+        Path file = dir.resolve("foreign");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> DarvinHashMap.readSnapshot(file,
+                DarvinCodec.strings(), DarvinCodec.ints(), DarvinHashMap.SnapshotLoading.LAZY));
+    }
+}